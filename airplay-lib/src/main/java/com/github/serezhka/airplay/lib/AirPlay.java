@@ -4,6 +4,7 @@ import com.github.serezhka.airplay.lib.internal.*;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
 /**
@@ -17,9 +18,20 @@ public class AirPlay {
 
     private FairPlayVideoDecryptor fairPlayVideoDecryptor;
     private FairPlayAudioDecryptor fairPlayAudioDecryptor;
+    private volatile long firstVideoDecryptNanos;
 
+    /**
+     * Pairs with a key pair of its own, see {@link #AirPlay(ReceiverIdentity)}
+     */
     public AirPlay() {
-        pairing = new Pairing();
+        this(ReceiverIdentity.generate());
+    }
+
+    /**
+     * @param identity key pair shared by all sessions of the receiver
+     */
+    public AirPlay(ReceiverIdentity identity) {
+        pairing = new Pairing(identity.getKeyPair());
         fairplay = new FairPlay();
         rtsp = new RTSP();
     }
@@ -50,6 +62,13 @@ public class AirPlay {
         return pairing.isPairVerified();
     }
 
+    /**
+     * @return {@link System#nanoTime()} when the pair was last verified, 0 if never
+     */
+    public long getPairVerifiedNanos() {
+        return pairing.getPairVerifiedNanos();
+    }
+
     /**
      * {@code /fp-setup}
      * <p>
@@ -59,6 +78,13 @@ public class AirPlay {
         fairplay.fairPlaySetup(in, out);
     }
 
+    /**
+     * @return {@link System#nanoTime()} when the last {@code /fp-setup} step was handled, 0 if never
+     */
+    public long getFairPlaySetupNanos() {
+        return fairplay.getKeyMsgNanos();
+    }
+
     /**
      * {@code RTSP SETUP}
      * <p>
@@ -68,6 +94,35 @@ public class AirPlay {
         return rtsp.setup(in);
     }
 
+    /**
+     * {@code RTSP SETUP} with the encrypted AES key and IV, for callers parsing the request themselves
+     *
+     * @param timingPort sender's NTP timing port, 0 if it wasn't announced
+     */
+    public void rtspSetupEncryption(byte[] ekey, byte[] eiv, int timingPort) {
+        rtsp.setupEncryption(ekey, eiv, timingPort);
+    }
+
+    /**
+     * {@code RTSP SETUP} of the mirroring stream, for callers parsing the request themselves
+     *
+     * @param streamConnectionId unsigned decimal {@code streamConnectionID}, {@code null} if absent
+     */
+    public VideoStreamInfo rtspSetupVideo(String streamConnectionId) {
+        return rtsp.setupVideoStream(streamConnectionId);
+    }
+
+    /**
+     * {@code RTSP SETUP} of the audio stream, for callers parsing the request themselves
+     *
+     * @param compressionType {@code ct}, -1 if absent
+     * @param audioFormat     {@code audioFormat}, -1 if absent
+     * @param samplesPerFrame {@code spf}, 0 if absent
+     */
+    public AudioStreamInfo rtspSetupAudio(long compressionType, long audioFormat, int samplesPerFrame) {
+        return rtsp.setupAudioStream(compressionType, audioFormat, samplesPerFrame);
+    }
+
     /**
      * {@code RTSP TEARDOWN}
      * <p>
@@ -77,6 +132,13 @@ public class AirPlay {
         return rtsp.teardown(in);
     }
 
+    /**
+     * @return sender's NTP timing port announced during RTSP SETUP, 0 if unknown
+     */
+    public int getTimingPort() {
+        return rtsp.getTimingPort();
+    }
+
 
     public byte[] getFairPlayAesKey() {
         return fairplay.decryptAesKey(rtsp.getEkey());
@@ -97,22 +159,67 @@ public class AirPlay {
     }
 
     public void decryptVideo(byte[] video) throws Exception {
+        videoDecryptor().decrypt(video);
+        onVideoDecrypted();
+    }
+
+    /**
+     * Decrypts remaining bytes of the buffer in place, buffer position is not changed
+     */
+    public void decryptVideo(ByteBuffer video) throws Exception {
+        videoDecryptor().decrypt(video);
+        onVideoDecrypted();
+    }
+
+    private void onVideoDecrypted() {
+        if (firstVideoDecryptNanos == 0) {
+            firstVideoDecryptNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the first video packet was decrypted, it includes the FairPlay key
+     * decryption, 0 if none yet
+     */
+    public long getFirstVideoDecryptNanos() {
+        return firstVideoDecryptNanos;
+    }
+
+    private FairPlayVideoDecryptor videoDecryptor() throws Exception {
         if (fairPlayVideoDecryptor == null) {
             if (!isFairPlayVideoDecryptorReady()) {
                 throw new IllegalStateException("FairPlayVideoDecryptor not ready!");
             }
             fairPlayVideoDecryptor = new FairPlayVideoDecryptor(getFairPlayAesKey(), pairing.getSharedSecret(), rtsp.getStreamConnectionID());
         }
-        fairPlayVideoDecryptor.decrypt(video);
+        return fairPlayVideoDecryptor;
     }
 
     public void decryptAudio(byte[] audio, int audioLength) throws Exception {
+        audioDecryptor().decrypt(audio, audioLength);
+    }
+
+    /**
+     * Decrypts {@code length} bytes of {@code src} into {@code dst}
+     */
+    public void decryptAudio(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) throws Exception {
+        audioDecryptor().decrypt(src, srcOffset, length, dst, dstOffset);
+    }
+
+    /**
+     * Decrypts the first {@code count} packets {@code src[i]} of {@code lengths[i]} bytes into {@code dst[i]}
+     */
+    public void decryptAudio(byte[][] src, int[] lengths, byte[][] dst, int count) throws Exception {
+        audioDecryptor().decrypt(src, lengths, dst, count);
+    }
+
+    private FairPlayAudioDecryptor audioDecryptor() throws Exception {
         if (fairPlayAudioDecryptor == null) {
             if (!isFairPlayAudioDecryptorReady()) {
                 throw new IllegalStateException("FairPlayAudioDecryptor not ready!");
             }
             fairPlayAudioDecryptor = new FairPlayAudioDecryptor(getFairPlayAesKey(), rtsp.getEiv(), pairing.getSharedSecret());
         }
-        fairPlayAudioDecryptor.decrypt(audio, audioLength);
+        return fairPlayAudioDecryptor;
     }
 }
@@ -26,11 +26,16 @@ public class AirPlayBonjour {
     private static final String AIRTUNES_SERVICE_TYPE = "._raop._tcp.local";
 
     private final String serverName;
+    private final ReceiverIdentity identity;
 
     private final List<JmDNS> jmDNSList = new ArrayList<>();
     
-    public AirPlayBonjour(String serverName) {
+    /**
+     * @param identity advertised as {@code pk}, senders expect it to be the key signing {@code /pair-verify}
+     */
+    public AirPlayBonjour(String serverName, ReceiverIdentity identity) {
         this.serverName = serverName;
+        this.identity = identity;
     }
 
     public void start(int airTunesPort) throws Exception {
@@ -97,7 +102,7 @@ public class AirPlayBonjour {
         airPlayMDNSProps.put("model", "AppleTV3,2C");
         airPlayMDNSProps.put("rhd", "5.6.0.0");
         airPlayMDNSProps.put("pw", "false");
-        airPlayMDNSProps.put("pk", "f3769a660475d27b4f6040381d784645e13e21c53e6d2da6a8c3d757086fc336");
+        airPlayMDNSProps.put("pk", identity.getPublicKeyHex());
         //airPlayMDNSProps.put("pi", "2e388006-13ba-4041-9a67-25dd4a43d536");
         airPlayMDNSProps.put("rmodel", "PC1.0");
         airPlayMDNSProps.put("rrv", "1.01");
@@ -128,7 +133,7 @@ public class AirPlayBonjour {
         airTunesMDNSProps.put("sf", "0x44");
         airTunesMDNSProps.put("vs", "220.68");
         airTunesMDNSProps.put("vn", "65537");
-        airTunesMDNSProps.put("pk", "f3769a660475d27b4f6040381d784645e13e21c53e6d2da6a8c3d757086fc336");
+        airTunesMDNSProps.put("pk", identity.getPublicKeyHex());
         return airTunesMDNSProps;
     }
 
@@ -0,0 +1,115 @@
+package com.github.serezhka.airplay.lib;
+
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.KeyPairGenerator;
+import net.i2p.crypto.eddsa.Utils;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.logging.Logger;
+
+/**
+ * Ed25519 key pair the receiver signs {@code /pair-verify} with and advertises as {@code pk}.
+ * <p>
+ * One identity is shared by all sessions, so pairing doesn't generate keys and senders see the same key as the one
+ * announced over Bonjour. {@link #load(File)} keeps it across restarts.
+ */
+public class ReceiverIdentity {
+
+    private static final Logger log = Logger.getLogger(ReceiverIdentity.class.getName());
+
+    private static final int SEED_LENGTH = 32;
+    private static final EdDSAParameterSpec ED_25519 = EdDSANamedCurveTable.getByName(EdDSANamedCurveTable.ED_25519);
+
+    private final KeyPair keyPair;
+    private final byte[] publicKey;
+
+    private ReceiverIdentity(KeyPair keyPair) {
+        this.keyPair = keyPair;
+        this.publicKey = ((EdDSAPublicKey) keyPair.getPublic()).getAbyte();
+    }
+
+    /**
+     * @return identity with a new key pair, not stored anywhere
+     */
+    public static ReceiverIdentity generate() {
+        return new ReceiverIdentity(new KeyPairGenerator().generateKeyPair());
+    }
+
+    /**
+     * Reads the private key seed from the file, or generates a key pair and stores its seed there if the file
+     * doesn't exist yet
+     *
+     * @throws IOException if the file can't be read or written, or doesn't hold a seed
+     */
+    public static ReceiverIdentity load(File file) throws IOException {
+        if (file.exists()) {
+            if (file.length() != SEED_LENGTH) {
+                throw new IOException("Not a receiver identity: " + file);
+            }
+            byte[] seed = new byte[SEED_LENGTH];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(seed);
+            }
+            ReceiverIdentity identity = fromSeed(seed);
+            log.info("Receiver identity loaded from " + file + ", pk " + identity.getPublicKeyHex());
+            return identity;
+        }
+        ReceiverIdentity identity = generate();
+        store(file, ((EdDSAPrivateKey) identity.keyPair.getPrivate()).getSeed());
+        log.info("Receiver identity generated in " + file + ", pk " + identity.getPublicKeyHex());
+        return identity;
+    }
+
+    private static ReceiverIdentity fromSeed(byte[] seed) {
+        EdDSAPrivateKeySpec privateKeySpec = new EdDSAPrivateKeySpec(seed, ED_25519);
+        EdDSAPublicKeySpec publicKeySpec = new EdDSAPublicKeySpec(privateKeySpec.getA(), ED_25519);
+        return new ReceiverIdentity(new KeyPair(new EdDSAPublicKey(publicKeySpec), new EdDSAPrivateKey(privateKeySpec)));
+    }
+
+    /**
+     * Writes a temporary file and renames it, so an interrupted write never leaves a truncated identity
+     */
+    private static void store(File file, byte[] seed) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(seed);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't store receiver identity in " + file);
+        }
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * @return 32 bytes Ed25519 public key
+     */
+    public byte[] getPublicKey() {
+        return publicKey.clone();
+    }
+
+    /**
+     * @return public key as lower case hex, the {@code pk} Bonjour record
+     */
+    public String getPublicKeyHex() {
+        return Utils.bytesToHex(publicKey);
+    }
+}
@@ -3,9 +3,24 @@ package com.github.serezhka.airplay.lib;
 public class VideoStreamInfo implements MediaStreamInfo {
 
     private final String streamConnectionId;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final int profileIdc;
+    private final int levelIdc;
 
     public VideoStreamInfo(String streamConnectionId) {
+        this(streamConnectionId, 0, 0, 0, 0, 0);
+    }
+
+    public VideoStreamInfo(String streamConnectionId, int width, int height, double frameRate, int profileIdc,
+                           int levelIdc) {
         this.streamConnectionId = streamConnectionId;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.profileIdc = profileIdc;
+        this.levelIdc = levelIdc;
     }
 
     @Override
@@ -17,10 +32,50 @@ public class VideoStreamInfo implements MediaStreamInfo {
         return streamConnectionId;
     }
 
+    /**
+     * @return picture width after cropping, 0 until the sender's SPS is received
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return picture height after cropping, 0 until the sender's SPS is received
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return frame rate from the SPS timing info, 0 if unknown
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * @return H.264 {@code profile_idc}, 0 until the sender's SPS is received
+     */
+    public int getProfileIdc() {
+        return profileIdc;
+    }
+
+    /**
+     * @return H.264 {@code level_idc}, 0 until the sender's SPS is received
+     */
+    public int getLevelIdc() {
+        return levelIdc;
+    }
+
     @Override
     public String toString() {
         return "VideoStreamInfo{" +
                 "streamConnectionId='" + streamConnectionId + '\'' +
+                ", width=" + width +
+                ", height=" + height +
+                ", frameRate=" + frameRate +
+                ", profileIdc=" + profileIdc +
+                ", levelIdc=" + levelIdc +
                 '}';
     }
 }
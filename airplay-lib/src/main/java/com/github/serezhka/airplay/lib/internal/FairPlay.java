@@ -1,7 +1,5 @@
 package com.github.serezhka.airplay.lib.internal;
 
-import net.i2p.crypto.eddsa.Utils;
-
 import java.io.IOException;
 import java.util.logging.Logger;
 import java.io.InputStream;
@@ -15,6 +13,7 @@ public class FairPlay {
     private final OmgHax omgHax = new OmgHax();
 
     private final byte[] keyMsg = new byte[164];
+    private volatile long keyMsgNanos;
 
     public void fairPlaySetup(InputStream request, OutputStream response) throws IOException {
         byte[] data = readAllBytes(request);
@@ -33,6 +32,7 @@ public class FairPlay {
             response.write(replyMessage[mode]);
         } else if (data.length == 164) {
             System.arraycopy(data, 0, keyMsg, 0, 164);
+            keyMsgNanos = System.nanoTime();
 
             byte[] fpHeader = {70, 80, 76, 89, 3, 1, 4, 0, 0, 0, 0, 20};
             response.write(fpHeader);
@@ -41,10 +41,17 @@ public class FairPlay {
         }
     }
 
+    /**
+     * @return {@link System#nanoTime()} of the latest key message, the last fp-setup step, 0 if none
+     */
+    public long getKeyMsgNanos() {
+        return keyMsgNanos;
+    }
+
     public byte[] decryptAesKey(byte[] key) {
         byte[] aesKey = new byte[16];
         omgHax.decryptAesKey(keyMsg, key, aesKey);
-        log.info("FairPlay AES key decrypted: " + Utils.bytesToHex(aesKey));
+        log.fine("FairPlay AES key decrypted"); // no key material in logs, called for every stream
         return aesKey;
     }
 
@@ -6,30 +6,64 @@ import javax.crypto.spec.SecretKeySpec;
 import java.security.MessageDigest;
 import java.util.Arrays;
 
+/**
+ * AES-CBC audio decryption, every packet starts from the same IV. Trailing bytes of a packet which don't form
+ * a whole block are not encrypted.
+ * <p>
+ * The cipher is initialized once. In CBC decryption the chaining value after a block is that block's cipher text,
+ * so instead of re-initializing the cipher for each packet the IV is fed as one throwaway cipher text block ahead
+ * of the packet. Packets are decrypted straight into caller buffers, nothing is allocated per packet.
+ * <p>
+ * Not thread safe.
+ */
 public class FairPlayAudioDecryptor {
 
+    private static final int BLOCK_SIZE = 16;
+
     private final byte[] aesIV;
-    private final byte[] eaesKey;
 
     private final Cipher aesCbcDecrypt;
 
+    private final byte[] ivBlockText = new byte[BLOCK_SIZE];
+
     public FairPlayAudioDecryptor(byte[] aesKey, byte[] aesIV, byte[] sharedSecret) throws Exception {
         this.aesIV = aesIV;
 
         MessageDigest sha512Digest = MessageDigest.getInstance("SHA-512");
         sha512Digest.update(aesKey);
         sha512Digest.update(sharedSecret);
-        eaesKey = Arrays.copyOfRange(sha512Digest.digest(), 0, 16);
+        byte[] eaesKey = Arrays.copyOfRange(sha512Digest.digest(), 0, 16);
 
         aesCbcDecrypt = Cipher.getInstance("AES/CBC/NoPadding");
+        aesCbcDecrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(eaesKey, "AES"), new IvParameterSpec(aesIV));
     }
 
+    /**
+     * Decrypts in place
+     */
     public void decrypt(byte[] audio, int audioLength) throws Exception {
-        initAesCbcCipher();
-        aesCbcDecrypt.update(audio, 0, audioLength / 16 * 16, audio, 0);
+        decrypt(audio, 0, audioLength, audio, 0);
     }
 
-    private void initAesCbcCipher() throws Exception {
-        aesCbcDecrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(eaesKey, "AES"), new IvParameterSpec(aesIV));
+    /**
+     * Decrypts {@code length} bytes of {@code src} into {@code dst}, buffers may be the same
+     */
+    public void decrypt(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) throws Exception {
+        int aligned = length & -BLOCK_SIZE;
+        aesCbcDecrypt.update(aesIV, 0, BLOCK_SIZE, ivBlockText, 0); // resets chaining value to the IV
+        aesCbcDecrypt.update(src, srcOffset, aligned, dst, dstOffset);
+        if (src != dst || srcOffset != dstOffset) {
+            System.arraycopy(src, srcOffset + aligned, dst, dstOffset + aligned, length - aligned);
+        }
+    }
+
+    /**
+     * Decrypts the first {@code count} packets {@code src[i]} of {@code lengths[i]} bytes into {@code dst[i]},
+     * {@code dst[i]} may be {@code src[i]}
+     */
+    public void decrypt(byte[][] src, int[] lengths, byte[][] dst, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            decrypt(src[i], 0, lengths[i], dst[i], 0);
+        }
     }
 }
@@ -3,6 +3,7 @@ package com.github.serezhka.airplay.lib.internal;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Arrays;
@@ -51,6 +52,45 @@ public class FairPlayVideoDecryptor {
         }
     }
 
+    /**
+     * Decrypts {@code video.remaining()} bytes in place, starting at the buffer position. The position is not changed.
+     * Works with heap and direct buffers, the stream may be fed in chunks of any size.
+     */
+    public void decrypt(ByteBuffer video) throws Exception {
+        int start = video.position();
+        int length = video.remaining();
+
+        int offset = 0;
+        while (nextDecryptCount > 0 && offset < length) {
+            video.put(start + offset, (byte) (video.get(start + offset) ^ og[16 - nextDecryptCount]));
+            nextDecryptCount--;
+            offset++;
+        }
+
+        int encryptlen = ((length - offset) / 16) * 16;
+        if (encryptlen > 0) {
+            ByteBuffer in = video.duplicate();
+            in.limit(start + offset + encryptlen).position(start + offset);
+            ByteBuffer out = video.duplicate();
+            out.limit(start + offset + encryptlen).position(start + offset);
+            aesCtrDecrypt.update(in, out);
+        }
+
+        int restlen = (length - offset) % 16;
+        int reststart = start + length - restlen;
+        if (restlen > 0) {
+            Arrays.fill(og, (byte) 0);
+            for (int i = 0; i < restlen; i++) {
+                og[i] = video.get(reststart + i);
+            }
+            aesCtrDecrypt.update(og, 0, 16, og, 0);
+            for (int i = 0; i < restlen; i++) {
+                video.put(reststart + i, og[i]);
+            }
+            nextDecryptCount = 16 - restlen;
+        }
+    }
+
     private void initAesCtrCipher() throws Exception {
         MessageDigest sha512Digest = MessageDigest.getInstance("SHA-512");
         sha512Digest.update(aesKey);
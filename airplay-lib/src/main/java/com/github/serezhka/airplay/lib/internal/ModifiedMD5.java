@@ -1,103 +1,82 @@
 package com.github.serezhka.airplay.lib.internal;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import static com.github.serezhka.airplay.lib.internal.OmgHax.getIntLE;
+import static com.github.serezhka.airplay.lib.internal.OmgHax.putIntLE;
 
 public class ModifiedMD5 {
 
-    private final int[] shift = {7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+    private static final int[] SHIFT = {7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
             5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
             4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
             6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21};
 
-    void modified_md5(byte[] originalblockIn, byte[] keyIn, byte[] keyOut) {
-        byte[] blockIn = new byte[64];
-        long A, B, C, D, Z, tmp;
-        int i;
+    // the MD5 constants, floor(2^32 * abs(sin(i + 1)))
+    private static final int[] SINE = new int[64];
 
-        System.arraycopy(originalblockIn, 0, blockIn, 0, 64);
+    static {
+        for (int i = 0; i < 64; i++) {
+            SINE[i] = (int) (long) ((1L << 32) * Math.abs(Math.sin(i + 1)));
+        }
+    }
+
+    private final int[] blockWords = new int[16];
+
+    /**
+     * @param block 64 bytes from the offset are hashed, they are not modified
+     */
+    void modified_md5(byte[] block, int offset, byte[] keyIn, byte[] keyOut) {
+        int[] words = blockWords;
+        for (int j = 0; j < 16; j++) {
+            int k = offset + 4 * j;
+            words[j] = (block[k] & 0xFF) << 24 | (block[k + 1] & 0xFF) << 16 | (block[k + 2] & 0xFF) << 8 | (block[k + 3] & 0xFF);
+        }
 
         // Each cycle does something like this:
-        ByteBuffer key_words = ByteBuffer.wrap(keyIn);
-        key_words.order(ByteOrder.LITTLE_ENDIAN);
-        A = key_words.getInt() & 0xffffffffL;
-        B = key_words.getInt() & 0xffffffffL;
-        C = key_words.getInt() & 0xffffffffL;
-        D = key_words.getInt() & 0xffffffffL;
-        for (i = 0; i < 64; i++) {
-            int input;
-            int j = 0;
+        int A = getIntLE(keyIn, 0);
+        int B = getIntLE(keyIn, 4);
+        int C = getIntLE(keyIn, 8);
+        int D = getIntLE(keyIn, 12);
+        for (int i = 0; i < 64; i++) {
+            int j;
+            int f;
             if (i < 16) {
                 j = i;
+                f = (B & C) | (~B & D);
             } else if (i < 32) {
-                j = (5 * i + 1) % 16;
+                j = (5 * i + 1) & 15;
+                f = (B & D) | (C & ~D);
             } else if (i < 48) {
-                j = (3 * i + 5) % 16;
-            } else if (i < 64) {
-                j = 7 * i % 16;
+                j = (3 * i + 5) & 15;
+                f = B ^ C ^ D;
+            } else {
+                j = (7 * i) & 15;
+                f = C ^ (B | ~D);
             }
 
-            input = ((blockIn[4 * j] & 0xFF) << 24) | ((blockIn[4 * j + 1] & 0xFF) << 16) | ((blockIn[4 * j + 2] & 0xFF) << 8) | (blockIn[4 * j + 3] & 0xFF);
-            Z = A + input + (long) ((1L << 32) * Math.abs(Math.sin(i + 1)));
-            if (i < 16) {
-                Z = rol(Z + F(B, C, D), shift[i]);
-            } else if (i < 32) {
-                Z = rol(Z + G(B, C, D), shift[i]);
-            } else if (i < 48) {
-                Z = rol(Z + H(B, C, D), shift[i]);
-            } else if (i < 64) {
-                Z = rol(Z + I(B, C, D), shift[i]);
-            }
-            Z = Z + B;
-            tmp = D;
+            int Z = Integer.rotateLeft(A + words[j] + SINE[i] + f, SHIFT[i]) + B;
+            A = D;
             D = C;
             C = B;
             B = Z;
-            A = tmp;
             if (i == 31) {
                 // swapsies
-                swap(blockIn, 4 * (int) (A & 15), 4 * (int) (B & 15));
-                swap(blockIn, 4 * (int) (C & 15), 4 * (int) (D & 15));
-                swap(blockIn, 4 * (int) ((A & (15 << 4)) >> 4), 4 * (int) ((B & (15 << 4)) >> 4));
-                swap(blockIn, 4 * (int) ((A & (15 << 8)) >> 8), 4 * (int) ((B & (15 << 8)) >> 8));
-                swap(blockIn, 4 * (int) ((A & (15 << 12)) >> 12), 4 * (int) ((B & (15 << 12)) >> 12));
+                swap(words, A & 15, B & 15);
+                swap(words, C & 15, D & 15);
+                swap(words, (A >>> 4) & 15, (B >>> 4) & 15);
+                swap(words, (A >>> 8) & 15, (B >>> 8) & 15);
+                swap(words, (A >>> 12) & 15, (B >>> 12) & 15);
             }
         }
 
-        ByteBuffer key_out = ByteBuffer.wrap(keyOut);
-        key_out.order(ByteOrder.LITTLE_ENDIAN);
-        key_out.putInt((int) (key_words.getInt(0) + A));
-        key_out.putInt((int) (key_words.getInt(4) + B));
-        key_out.putInt((int) (key_words.getInt(8) + C));
-        key_out.putInt((int) (key_words.getInt(12) + D));
-    }
-
-    private long F(long B, long C, long D) {
-        return (B & C) | (~B & D);
-    }
-
-    private long G(long B, long C, long D) {
-        return (B & D) | (C & ~D);
-    }
-
-    private long H(long B, long C, long D) {
-        return B ^ C ^ D;
-    }
-
-    private long I(long B, long C, long D) {
-        return C ^ (B | ~D);
-    }
-
-    private long rol(long input, long count) {
-        return ((input << count) & 0xffffffffL) | (input & 0xffffffffL) >> (32 - count);
+        putIntLE(keyOut, 0, getIntLE(keyIn, 0) + A);
+        putIntLE(keyOut, 4, getIntLE(keyIn, 4) + B);
+        putIntLE(keyOut, 8, getIntLE(keyIn, 8) + C);
+        putIntLE(keyOut, 12, getIntLE(keyIn, 12) + D);
     }
 
-    private void swap(byte[] arr, int idxA, int idxB) {
-        ByteBuffer wrap = ByteBuffer.wrap(arr);
-        wrap.order(ByteOrder.LITTLE_ENDIAN);
-        int a = wrap.getInt(idxA);
-        int b = wrap.getInt(idxB);
-        wrap.putInt(idxB, a);
-        wrap.putInt(idxA, b);
+    private static void swap(int[] words, int a, int b) {
+        int tmp = words[a];
+        words[a] = words[b];
+        words[b] = tmp;
     }
 }
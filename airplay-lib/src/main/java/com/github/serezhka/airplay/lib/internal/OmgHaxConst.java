@@ -1,9 +1,10 @@
 package com.github.serezhka.airplay.lib.internal;
 
 import java.io.*;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class OmgHaxConst {
 
@@ -28,74 +29,155 @@ public class OmgHaxConst {
             {104, -75, 70, 17, -5, 4, -34, 103, 108, -106, -114, -5, -116, -99, -80, -55},
             {39, 7, -117, 33, 35, 54, 30, 122, -36, -99, 11, 17, 83, 84, 105, 13}};
 
-    static byte[] table_s1;
-    static byte[] table_s2;
-    static byte[] table_s3;
-    static byte[] table_s4;
-    static int[] table_s5;
-    static int[] table_s6;
-    static int[] table_s7;
-    static int[] table_s8;
-    static int[] table_s9;
-    static byte[] table_s10;
-
-    private static boolean initialized = false;
-
-    static {
-        // 尝试从classpath加载资源文件（用于非Android环境）
-        try {
-            URL table_s1_url = OmgHaxConst.class.getResource("/table_s1");
-            if (table_s1_url != null) {
-                table_s1 = readBytes(table_s1_url);
-                table_s2 = readBytes(OmgHaxConst.class.getResource("/table_s2"));
-                table_s3 = readBytes(OmgHaxConst.class.getResource("/table_s3"));
-                table_s4 = readBytes(OmgHaxConst.class.getResource("/table_s4"));
-                table_s5 = readInts(OmgHaxConst.class.getResource("/table_s5"));
-                table_s6 = readInts(OmgHaxConst.class.getResource("/table_s6"));
-                table_s7 = readInts(OmgHaxConst.class.getResource("/table_s7"));
-                table_s8 = readInts(OmgHaxConst.class.getResource("/table_s8"));
-                table_s9 = readInts(OmgHaxConst.class.getResource("/table_s9"));
-                table_s10 = readBytes(OmgHaxConst.class.getResource("/table_s10"));
-                initialized = true;
-                System.out.println("Successfully loaded all OmgHax table resources from classpath");
-            } else {
-                System.out.println("Resources not found in classpath, will try to load from assets");
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to load from classpath: " + e.getMessage());
-        }
+    private static final Logger log = Logger.getLogger(OmgHaxConst.class.getName());
+
+    private static volatile OmgHaxTables tables;
+
+    /**
+     * Uses the loader, unless the tables are already available, e.g. from the bundle on the classpath
+     */
+    public static void initializeFromAssets(AssetLoader assetLoader) {
+        initialize(() -> OmgHaxTables.fromLoader(assetLoader));
     }
 
     /**
-     * 从Android Assets初始化表格数据
+     * Maps a table bundle stored outside the classpath, unless the tables are already available
      */
-    public static void initializeFromAssets(AssetLoader assetLoader) throws IOException {
-        if (initialized) {
-            return; // 已经初始化过了
+    public static synchronized void initializeFromBundle(File bundle) throws IOException {
+        if (findClasspathTables() == null) {
+            tables = OmgHaxTables.mapBundle(bundle);
+        }
+    }
+
+    private static synchronized void initialize(Supplier<OmgHaxTables> supplier) {
+        if (findClasspathTables() == null) {
+            tables = supplier.get();
         }
-        
-        System.out.println("Initializing OmgHax tables from Android assets");
-        
-        table_s1 = assetLoader.readBytes("table_s1");
-        table_s2 = assetLoader.readBytes("table_s2");
-        table_s3 = assetLoader.readBytes("table_s3");
-        table_s4 = assetLoader.readBytes("table_s4");
-        table_s5 = assetLoader.readInts("table_s5");
-        table_s6 = assetLoader.readInts("table_s6");
-        table_s7 = assetLoader.readInts("table_s7");
-        table_s8 = assetLoader.readInts("table_s8");
-        table_s9 = assetLoader.readInts("table_s9");
-        table_s10 = assetLoader.readBytes("table_s10");
-        
-        initialized = true;
-        System.out.println("Successfully loaded all OmgHax table resources from assets");
     }
 
     /**
-     * 检查是否已经初始化
+     * @return {@code true} if the tables were initialized or can be loaded from the classpath
      */
     public static boolean isInitialized() {
-        return initialized;
+        return tables() != null;
+    }
+
+    private static OmgHaxTables tables() {
+        OmgHaxTables current = tables;
+        return current != null ? current : findClasspathTables();
+    }
+
+    /**
+     * @return tables initialized so far, else the generated bundle or, for class paths set up before the bundle
+     * existed, the table files themselves, {@code null} if none is found
+     */
+    private static synchronized OmgHaxTables findClasspathTables() {
+        if (tables != null) {
+            return tables;
+        }
+        try (InputStream in = OmgHaxConst.class.getResourceAsStream(OmgHaxTables.BUNDLE_RESOURCE)) {
+            if (in != null) {
+                tables = OmgHaxTables.readBundle(in);
+                log.info("OmgHax tables loaded from " + OmgHaxTables.BUNDLE_RESOURCE);
+            } else if (OmgHaxConst.class.getResource("/table_s1") != null) {
+                tables = OmgHaxTables.fromLoader(new ClasspathLoader());
+                log.info("OmgHax tables loaded from classpath table files");
+            }
+        } catch (IOException e) {
+            log.severe("Can't load OmgHax tables from classpath: " + e.getMessage());
+        }
+        return tables;
+    }
+
+    private static OmgHaxTables requireTables() {
+        OmgHaxTables current = tables();
+        if (current == null) {
+            throw new IllegalStateException("OmgHax tables not found, " + OmgHaxTables.BUNDLE_RESOURCE
+                    + " is missing from the classpath");
+        }
+        return current;
+    }
+
+    // each table is decoded when first used, by the class initialization of its holder
+
+    static byte[] table_s1() {
+        return S1.TABLE;
+    }
+
+    static byte[] table_s2() {
+        return S2.TABLE;
+    }
+
+    static byte[] table_s3() {
+        return S3.TABLE;
+    }
+
+    static byte[] table_s4() {
+        return S4.TABLE;
+    }
+
+    static int[] table_s5() {
+        return S5.TABLE;
+    }
+
+    static int[] table_s6() {
+        return S6.TABLE;
+    }
+
+    static int[] table_s7() {
+        return S7.TABLE;
+    }
+
+    static int[] table_s8() {
+        return S8.TABLE;
+    }
+
+    static int[] table_s9() {
+        return S9.TABLE;
+    }
+
+    static byte[] table_s10() {
+        return S10.TABLE;
+    }
+
+    private static final class S1 {
+        static final byte[] TABLE = requireTables().getBytes(1);
+    }
+
+    private static final class S2 {
+        static final byte[] TABLE = requireTables().getBytes(2);
+    }
+
+    private static final class S3 {
+        static final byte[] TABLE = requireTables().getBytes(3);
+    }
+
+    private static final class S4 {
+        static final byte[] TABLE = requireTables().getBytes(4);
+    }
+
+    private static final class S5 {
+        static final int[] TABLE = requireTables().getInts(5);
+    }
+
+    private static final class S6 {
+        static final int[] TABLE = requireTables().getInts(6);
+    }
+
+    private static final class S7 {
+        static final int[] TABLE = requireTables().getInts(7);
+    }
+
+    private static final class S8 {
+        static final int[] TABLE = requireTables().getInts(8);
+    }
+
+    private static final class S9 {
+        static final int[] TABLE = requireTables().getInts(9);
+    }
+
+    private static final class S10 {
+        static final byte[] TABLE = requireTables().getBytes(10);
     }
 
     /**
@@ -106,43 +188,58 @@ public class OmgHaxConst {
         int[] readInts(String fileName) throws IOException;
     }
 
-    private static byte[] readBytes(URL url) throws IOException {
-        try (InputStream is = url.openStream();
-             ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+    /**
+     * Reads table files from the classpath root
+     */
+    private static class ClasspathLoader implements AssetLoader {
+
+        @Override
+        public byte[] readBytes(String fileName) throws IOException {
+            try (InputStream is = open(fileName);
+                 ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
 
-            int nRead;
-            byte[] data = new byte[1024];
+                int nRead;
+                byte[] data = new byte[1024];
 
-            while ((nRead = is.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
-            }
+                while ((nRead = is.read(data, 0, data.length)) != -1) {
+                    buffer.write(data, 0, nRead);
+                }
 
-            return buffer.toByteArray();
+                return buffer.toByteArray();
+            }
         }
-    }
 
-    /**
-     * Files.newBufferedReader(Paths.get(OmgHaxConst.class.getClassLoader().getResource("table_s5").toURI()))
-     * .lines().map(Long::decode).mapToInt(Long::intValue).toArray();
-     * Doesn't work !!! throws java.nio.file.FileSystemNotFoundException
-     * jar:file:/../java-airplay-lib/build/libs/java-airplay-lib-1.0-SNAPSHOT-all.jar!/table_s1
-     */
-    private static int[] readInts(URL url) throws IOException {
-        try (InputStream is = url.openStream();
-             BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-
-            List<String> tmp = new ArrayList<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                tmp.add(line);
+        /**
+         * Files.newBufferedReader(Paths.get(OmgHaxConst.class.getClassLoader().getResource("table_s5").toURI()))
+         * .lines().map(Long::decode).mapToInt(Long::intValue).toArray();
+         * Doesn't work !!! throws java.nio.file.FileSystemNotFoundException
+         * jar:file:/../java-airplay-lib/build/libs/java-airplay-lib-1.0-SNAPSHOT-all.jar!/table_s1
+         */
+        @Override
+        public int[] readInts(String fileName) throws IOException {
+            try (InputStream is = open(fileName);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+
+                List<String> tmp = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    tmp.add(line);
+                }
+
+                int[] result = new int[tmp.size()];
+                for (int i = 0; i < tmp.size(); i++) {
+                    result[i] = Long.decode(tmp.get(i)).intValue();
+                }
+                return result;
             }
-
-            // Java 8兼容的方式替换Stream API
-        int[] result = new int[tmp.size()];
-        for (int i = 0; i < tmp.size(); i++) {
-            result[i] = Long.decode(tmp.get(i)).intValue();
         }
-        return result;
+
+        private static InputStream open(String fileName) throws IOException {
+            InputStream is = OmgHaxConst.class.getResourceAsStream("/" + fileName);
+            if (is == null) {
+                throw new FileNotFoundException(fileName);
+            }
+            return is;
         }
     }
 }
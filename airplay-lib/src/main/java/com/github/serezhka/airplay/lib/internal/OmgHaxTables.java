@@ -0,0 +1,139 @@
+package com.github.serezhka.airplay.lib.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * OmgHax lookup tables {@code table_s1}..{@code table_s10}, decoded on first use of each table.
+ * <p>
+ * The bundle is generated at build time from {@code src/tables} by the {@code generateOmgHaxTables} task of
+ * airplay-lib. It is big endian:
+ * <pre>
+ * int magic "OMGT", int version, int count
+ * count * (int table, int element size 1 or 4, int element count, int offset from bundle start)
+ * table data
+ * </pre>
+ */
+public class OmgHaxTables {
+
+    public static final String BUNDLE_RESOURCE = "/omghax_tables.bin";
+
+    private static final int MAGIC = 0x4F4D4754; // OMGT
+    private static final int VERSION = 1;
+    private static final int TABLES = 10;
+
+    private final Source source;
+    private final AtomicReferenceArray<Object> tables = new AtomicReferenceArray<>(TABLES + 1);
+
+    private OmgHaxTables(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Reads the whole bundle at once
+     */
+    public static OmgHaxTables readBundle(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128 * 1024);
+        byte[] buffer = new byte[32 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new OmgHaxTables(new BundleSource(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    /**
+     * Maps the bundle file, tables are read from the page cache when first used
+     */
+    public static OmgHaxTables mapBundle(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new OmgHaxTables(new BundleSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    /**
+     * Tables read one by one by the loader, as raw bytes and text integers
+     */
+    public static OmgHaxTables fromLoader(OmgHaxConst.AssetLoader assetLoader) {
+        return new OmgHaxTables((table, ints) -> ints
+                ? assetLoader.readInts("table_s" + table)
+                : assetLoader.readBytes("table_s" + table));
+    }
+
+    public byte[] getBytes(int table) {
+        return (byte[]) get(table, false);
+    }
+
+    public int[] getInts(int table) {
+        return (int[]) get(table, true);
+    }
+
+    private Object get(int table, boolean ints) {
+        Object value = tables.get(table);
+        if (value == null) {
+            try {
+                value = source.read(table, ints);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read OmgHax table_s" + table, e);
+            }
+            if (!tables.compareAndSet(table, null, value)) {
+                value = tables.get(table);
+            }
+        }
+        return value;
+    }
+
+    private interface Source {
+        Object read(int table, boolean ints) throws IOException;
+    }
+
+    private static class BundleSource implements Source {
+
+        private final ByteBuffer bundle;
+        private final int count;
+
+        BundleSource(ByteBuffer bundle) throws IOException {
+            this.bundle = bundle;
+            if (bundle.remaining() < 12 || bundle.getInt(0) != MAGIC) {
+                throw new IOException("Not an OmgHax table bundle");
+            }
+            if (bundle.getInt(4) != VERSION) {
+                throw new IOException("Unsupported OmgHax table bundle version: " + bundle.getInt(4));
+            }
+            count = bundle.getInt(8);
+        }
+
+        @Override
+        public Object read(int table, boolean ints) throws IOException {
+            for (int i = 0; i < count; i++) {
+                int entry = 12 + 16 * i;
+                if (bundle.getInt(entry) != table) {
+                    continue;
+                }
+                int elementSize = bundle.getInt(entry + 4);
+                int length = bundle.getInt(entry + 8);
+                int offset = bundle.getInt(entry + 12);
+                if (elementSize != (ints ? 4 : 1)) {
+                    throw new IOException("table_s" + table + " has " + elementSize + " byte elements");
+                }
+                ByteBuffer data = bundle.duplicate();
+                data.position(offset);
+                if (ints) {
+                    int[] values = new int[length];
+                    data.asIntBuffer().get(values);
+                    return values;
+                }
+                byte[] values = new byte[length];
+                data.get(values);
+                return values;
+            }
+            throw new IOException("table_s" + table + " not in bundle");
+        }
+    }
+}
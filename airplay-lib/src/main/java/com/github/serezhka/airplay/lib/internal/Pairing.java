@@ -2,7 +2,6 @@ package com.github.serezhka.airplay.lib.internal;
 
 import net.i2p.crypto.eddsa.EdDSAEngine;
 import net.i2p.crypto.eddsa.EdDSAPublicKey;
-import net.i2p.crypto.eddsa.KeyPairGenerator;
 import net.i2p.crypto.eddsa.Utils;
 import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
 import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
@@ -35,9 +34,13 @@ public class Pairing {
     private byte[] ecdhSecret;
 
     private boolean pairVerified;
+    private volatile long pairVerifiedNanos;
 
-    public Pairing() {
-        this.keyPair = new KeyPairGenerator().generateKeyPair();
+    /**
+     * @param keyPair receiver's Ed25519 key pair
+     */
+    public Pairing(KeyPair keyPair) {
+        this.keyPair = keyPair;
     }
 
     public void pairSetup(OutputStream out) throws IOException {
@@ -95,6 +98,9 @@ public class Pairing {
             edDSAEngine.initVerify(edDSAPublicKey);
 
             pairVerified = edDSAEngine.verifyOneShot(sigMessage, sigBuffer);
+            if (pairVerified) {
+                pairVerifiedNanos = System.nanoTime();
+            }
             log.info("Pair verified: " + pairVerified);
         }
     }
@@ -103,6 +109,13 @@ public class Pairing {
         return pairVerified;
     }
 
+    /**
+     * @return {@link System#nanoTime()} of the latest successful verification, 0 if none
+     */
+    public long getPairVerifiedNanos() {
+        return pairVerifiedNanos;
+    }
+
     public byte[] getSharedSecret() {
         return ecdhSecret;
     }
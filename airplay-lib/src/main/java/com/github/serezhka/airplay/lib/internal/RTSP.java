@@ -20,16 +20,16 @@ public class RTSP {
     private byte[] eiv;
 
     private String streamConnectionID;
+    private int timingPort;
 
     public Optional<MediaStreamInfo> setup(InputStream rtspSetupPayload) throws Exception {
         var setup = (NSDictionary) BinaryPropertyListParser.parse(rtspSetupPayload);
         if (setup.containsKey("ekey") || setup.containsKey("eiv")) {
-            ekey = (byte[]) setup.get("ekey").toJavaObject();
-            eiv = (byte[]) setup.get("eiv").toJavaObject();
-            log.info("Encrypted AES key: " + Utils.bytesToHex(ekey) + ", iv: " + Utils.bytesToHex(eiv));
+            setupEncryption((byte[]) setup.get("ekey").toJavaObject(), (byte[]) setup.get("eiv").toJavaObject(),
+                    setup.containsKey("timingPort") ? ((Number) setup.get("timingPort").toJavaObject()).intValue() : 0);
             return Optional.empty();
         } else if (setup.containsKey("streams")) {
-            log.fine("RTSP SETUP streams:\n" + setup.toXMLPropertyList());
+            log.fine(() -> "RTSP SETUP streams:\n" + setup.toXMLPropertyList());
             return Optional.ofNullable(getMediaStreamInfo(setup));
         } else {
             log.severe("Unknown RTSP setup content\n" + setup.toXMLPropertyList());
@@ -37,9 +37,50 @@ public class RTSP {
         }
     }
 
+    /**
+     * Keeps the encrypted AES key and IV of the first RTSP SETUP
+     *
+     * @param timingPort sender's NTP timing port, 0 if it wasn't announced
+     */
+    public void setupEncryption(byte[] ekey, byte[] eiv, int timingPort) {
+        this.ekey = ekey;
+        this.eiv = eiv;
+        log.info("Encrypted AES key: " + Utils.bytesToHex(ekey) + ", iv: " + Utils.bytesToHex(eiv));
+        if (timingPort > 0) {
+            this.timingPort = timingPort;
+        }
+    }
+
+    /**
+     * @param streamConnectionID unsigned decimal id of the mirroring stream, {@code null} keeps the last one
+     */
+    public VideoStreamInfo setupVideoStream(String streamConnectionID) {
+        if (streamConnectionID != null) {
+            this.streamConnectionID = streamConnectionID;
+        }
+        return new VideoStreamInfo(this.streamConnectionID);
+    }
+
+    /**
+     * @param compressionType {@code ct} of the stream, -1 if absent
+     * @param audioFormat     {@code audioFormat} of the stream, -1 if absent
+     * @param samplesPerFrame {@code spf} of the stream, 0 if absent
+     */
+    public AudioStreamInfo setupAudioStream(long compressionType, long audioFormat, int samplesPerFrame) {
+        AudioStreamInfo.AudioStreamInfoBuilder builder = new AudioStreamInfo.AudioStreamInfoBuilder();
+        if (compressionType >= 0) {
+            builder.compressionType(AudioStreamInfo.CompressionType.fromCode(compressionType));
+        }
+        if (audioFormat >= 0) {
+            builder.audioFormat(AudioStreamInfo.AudioFormat.fromCode(audioFormat));
+        }
+        builder.samplesPerFrame(samplesPerFrame);
+        return builder.build();
+    }
+
     public Optional<MediaStreamInfo> teardown(InputStream rtspTeardownPayload) throws Exception {
         var teardown = (NSDictionary) BinaryPropertyListParser.parse(rtspTeardownPayload);
-        log.fine("RTSP TEARDOWN streams:\n" + teardown.toXMLPropertyList());
+        log.fine(() -> "RTSP TEARDOWN streams:\n" + teardown.toXMLPropertyList());
         if (teardown.containsKey("streams")) {
             return Optional.ofNullable(getMediaStreamInfo(teardown));
         }
@@ -58,30 +99,18 @@ public class RTSP {
         switch (type) {
             // video stream
             case 110:
-                if (stream.containsKey("streamConnectionID")) {
-                    streamConnectionID = Long.toUnsignedString((long) stream.get("streamConnectionID"));
-                }
-                return new VideoStreamInfo(streamConnectionID);
+                return setupVideoStream(stream.containsKey("streamConnectionID")
+                        ? Long.toUnsignedString(((Number) stream.get("streamConnectionID")).longValue()) : null);
 
             // audio stream
             case 96:
-                AudioStreamInfo.AudioStreamInfoBuilder builder = new AudioStreamInfo.AudioStreamInfoBuilder();
-                if (stream.containsKey("ct")) {
-                    int compressionType = (int) stream.get("ct");
-                    builder.compressionType(AudioStreamInfo.CompressionType.fromCode(compressionType));
-                }
-                if (stream.containsKey("audioFormat")) {
-                    long audioFormatCode = (int) stream.get("audioFormat"); // int or long ?!
-                    builder.audioFormat(AudioStreamInfo.AudioFormat.fromCode(audioFormatCode));
-                }
-                if (stream.containsKey("spf")) {
-                    int samplesPerFrame = (int) stream.get("spf");
-                    builder.samplesPerFrame(samplesPerFrame);
-                }
-                return builder.build();
+                return setupAudioStream(
+                        stream.containsKey("ct") ? ((Number) stream.get("ct")).longValue() : -1,
+                        stream.containsKey("audioFormat") ? ((Number) stream.get("audioFormat")).longValue() : -1,
+                        stream.containsKey("spf") ? ((Number) stream.get("spf")).intValue() : 0);
 
             default:
-                log.severe("Unknown stream type: {}" + type);
+                log.severe("Unknown stream type: " + type);
                 return null;
         }
     }
@@ -90,6 +119,13 @@ public class RTSP {
         return streamConnectionID;
     }
 
+    /**
+     * @return sender's NTP timing port, 0 if it wasn't announced
+     */
+    public int getTimingPort() {
+        return timingPort;
+    }
+
     public byte[] getEkey() {
         return ekey;
     }
@@ -1,54 +1,69 @@
 package com.github.serezhka.airplay.lib.internal;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class SapHash {
 
-    private final HandGarble handGarble = new HandGarble();
+    private static final byte[] BUFFER0 = {-106, 95, -58, 83, -8, 70, -52, 24, -33, -66, -78, -8, 56, -41, -20, 34, 3, -47, 32, -113};
+    private static final byte[] BUFFER2 = {67, 84, 98, 122, 24, -61, -42, -77, -102, 86, -10, 28, 20, 63, 12, 29, 59, 54, -125, -79, 57, 81, 74, -86, 9, 62, -2, 68, -81, -34, -61, 32, -99, 66, 58};
+    private static final byte[] BUFFER4 = {-19, 37, -47, -69, -68, 39, -97, 2, -94, -87, 17, 0, 12, -77, 82, -64, -67, -29, 27, 73, -57};
+    private static final int[] I0_INDEX = {18, 22, 23, 0, 5, 19, 32, 31, 10, 21, 30};
 
-    private byte rol8(byte input, int count) {
-        return (byte) (((input << count) & 0xff) | (input & 0xff) >> (8 - count));
-    }
+    // indices of the scrambling, the unsigned 32-bit modulo of a negative int isn't periodic so they are precomputed
+    private static final int[] SCRAMBLE_X = scrambleIndices(155);
+    private static final int[] SCRAMBLE_Y = scrambleIndices(57);
+    private static final int[] SCRAMBLE_Z = scrambleIndices(13);
 
-    void sap_hash(byte[] blockIn, byte[] keyOut) {
+    private final HandGarble handGarble = new HandGarble();
 
-        byte[] buffer0 = {-106, 95, -58, 83, -8, 70, -52, 24, -33, -66, -78, -8, 56, -41, -20, 34, 3, -47, 32, -113};
-        byte[] buffer1 = new byte[210];
-        byte[] buffer2 = {67, 84, 98, 122, 24, -61, -42, -77, -102, 86, -10, 28, 20, 63, 12, 29, 59, 54, -125, -79, 57, 81, 74, -86, 9, 62, -2, 68, -81, -34, -61, 32, -99, 66, 58};
-        byte[] buffer3 = new byte[132];
-        byte[] buffer4 = {-19, 37, -47, -69, -68, 39, -97, 2, -94, -87, 17, 0, 12, -77, 82, -64, -67, -29, 27, 73, -57};
-        int[] i0_index = {18, 22, 23, 0, 5, 19, 32, 31, 10, 21, 30};
-        byte w, x, y, z;
+    // garbled in place, so they are reset from the constants on every hash
+    private final byte[] buffer0 = new byte[20];
+    private final byte[] buffer1 = new byte[210];
+    private final byte[] buffer2 = new byte[35];
+    private final byte[] buffer3 = new byte[132];
+    private final byte[] buffer4 = new byte[21];
+
+    private static int[] scrambleIndices(int back) {
+        int[] indices = new int[840];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = Integer.remainderUnsigned(i - back, 210);
+        }
+        return indices;
+    }
 
-        ByteBuffer block_words = ByteBuffer.wrap(blockIn);
-        block_words.order(ByteOrder.LITTLE_ENDIAN);
+    private static int rol8(int input, int count) {
+        return ((input << count) & 0xff) | (input & 0xff) >> (8 - count);
+    }
 
-        // Load the input into the buffer
+    /**
+     * @param blockIn 64 bytes from the offset are hashed
+     */
+    void sap_hash(byte[] blockIn, int offset, byte[] keyOut) {
+        System.arraycopy(BUFFER0, 0, buffer0, 0, BUFFER0.length);
+        System.arraycopy(BUFFER2, 0, buffer2, 0, BUFFER2.length);
+        System.arraycopy(BUFFER4, 0, buffer4, 0, BUFFER4.length);
+        Arrays.fill(buffer3, (byte) 0);
+        int x, y, z, w;
+
+        // Load the input into the buffer, swapping each little endian word to big endian
         for (int i = 0; i < 210; i++) {
-            // We need to swap the byte order around so it is the right endianness
-            int in_word = block_words.getInt(((i % 64) >> 2) * 4);
-            byte in_byte = (byte) ((in_word >> ((3 - (i % 4)) << 3)) & 0xff);
-            buffer1[i] = in_byte;
+            buffer1[i] = blockIn[offset + (i & 0x3c) + 3 - (i & 3)];
         }
 
         // Next a scrambling
-        for (int i = 0; i < 840; i++) {
-            // We have to do unsigned, 32-bit modulo, or we get the wrong indices
-            x = buffer1[(int) (((i - 155) & 0xffffffffL) % 210)];
-            y = buffer1[(int) (((i - 57) & 0xffffffffL) % 210)];
-            z = buffer1[(int) (((i - 13) & 0xffffffffL) % 210)];
-            w = buffer1[(int) ((i & 0xffffffffL) % 210)];
-            buffer1[i % 210] = (byte) ((rol8(y, 5) + (rol8(z, 3) ^ w) - rol8(x, 7)) & 0xff);
+        for (int i = 0, j = 0; i < 840; i++, j = j == 209 ? 0 : j + 1) {
+            x = buffer1[SCRAMBLE_X[i]];
+            y = buffer1[SCRAMBLE_Y[i]];
+            z = buffer1[SCRAMBLE_Z[i]];
+            w = buffer1[j];
+            buffer1[j] = (byte) (rol8(y, 5) + (rol8(z, 3) ^ w) - rol8(x, 7));
         }
 
         // I have no idea what this is doing (yet), but it gives the right output
         handGarble.garble(buffer0, buffer1, buffer2, buffer3, buffer4);
 
         // Fill the output with 0xE1
-        for (int i = 0; i < 16; i++) {
-            keyOut[i] = (byte) 0xE1;
-        }
+        Arrays.fill(keyOut, 0, 16, (byte) 0xE1);
 
         // Now we use all the buffers we have calculated to grind out the output. First buffer3
         for (int i = 0; i < 11; i++) {
@@ -58,32 +73,32 @@ public class SapHash {
             if (i == 3) {
                 keyOut[i] = 0x3d;
             } else {
-                keyOut[i] = (byte) ((keyOut[i] + buffer3[i0_index[i] * 4]) & 0xff);
+                keyOut[i] = (byte) (keyOut[i] + buffer3[I0_INDEX[i] * 4]);
             }
         }
 
         // Then buffer0
         for (int i = 0; i < 20; i++) {
-            keyOut[i % 16] ^= buffer0[i];
+            keyOut[i & 15] ^= buffer0[i];
         }
 
         // Then buffer2
         for (int i = 0; i < 35; i++) {
-            keyOut[i % 16] ^= buffer2[i];
+            keyOut[i & 15] ^= buffer2[i];
         }
 
         // Do buffer1
         for (int i = 0; i < 210; i++) {
-            keyOut[(i % 16)] ^= buffer1[i];
+            keyOut[i & 15] ^= buffer1[i];
         }
 
-        // Now we do a kind of reverse-scramble
+        // Now we do a kind of reverse-scramble, 16 divides 2^32 so the unsigned modulo is a mask
         for (int j = 0; j < 16; j++) {
             for (int i = 0; i < 16; i++) {
-                x = keyOut[(int) (((i - 7) & 0xffffffffL) % 16)];
-                y = keyOut[i % 16];
-                z = keyOut[(int) (((i - 37) & 0xffffffffL) % 16)];
-                w = keyOut[(int) (((i - 177) & 0xffffffffL) % 16)];
+                x = keyOut[(i - 7) & 15];
+                y = keyOut[i];
+                z = keyOut[(i - 37) & 15];
+                w = keyOut[(i - 177) & 15];
                 keyOut[i] = (byte) (rol8(x, 1) ^ y ^ rol8(z, 6) ^ rol8(w, 5));
             }
         }
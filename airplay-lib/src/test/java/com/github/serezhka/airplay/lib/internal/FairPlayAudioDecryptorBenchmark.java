@@ -0,0 +1,91 @@
+package com.github.serezhka.airplay.lib.internal;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times audio packet decryption per packet: the previous path (cipher init, decrypt and copy per packet), the
+ * batch {@link FairPlayAudioDecryptor} call including the array delivered to the consumer, and decryption into an
+ * existing buffer.
+ * <p>
+ * Run the main method with the test runtime class path, the optional argument is the number of 32 packet batches
+ * per round.
+ */
+public class FairPlayAudioDecryptorBenchmark {
+
+    private static final int PACKETS = 32;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Random random = new Random(1);
+        byte[] aesKey = new byte[16];
+        byte[] aesIV = new byte[16];
+        byte[] sharedSecret = new byte[32];
+        random.nextBytes(aesKey);
+        random.nextBytes(aesIV);
+        random.nextBytes(sharedSecret);
+
+        MessageDigest sha512Digest = MessageDigest.getInstance("SHA-512");
+        sha512Digest.update(aesKey);
+        sha512Digest.update(sharedSecret);
+        SecretKeySpec eaesKey = new SecretKeySpec(Arrays.copyOfRange(sha512Digest.digest(), 0, 16), "AES");
+        Cipher previous = Cipher.getInstance("AES/CBC/NoPadding");
+        FairPlayAudioDecryptor decryptor = new FairPlayAudioDecryptor(aesKey, aesIV, sharedSecret);
+
+        byte[][] packets = new byte[PACKETS][];
+        byte[][] dst = new byte[PACKETS][];
+        int[] lengths = new int[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            lengths[i] = 200 + random.nextInt(1000);
+            packets[i] = new byte[1920];
+            random.nextBytes(packets[i]);
+            dst[i] = new byte[lengths[i]];
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int it = 0; it < iterations; it++) {
+                for (int i = 0; i < PACKETS; i++) {
+                    previous.init(Cipher.DECRYPT_MODE, eaesKey, new IvParameterSpec(aesIV));
+                    previous.update(packets[i], 0, lengths[i] / 16 * 16, packets[i], 0);
+                    sink += Arrays.copyOfRange(packets[i], 0, lengths[i])[0];
+                }
+            }
+            double previousNanos = perPacket(start, iterations);
+
+            start = System.nanoTime();
+            for (int it = 0; it < iterations; it++) {
+                for (int i = 0; i < PACKETS; i++) {
+                    dst[i] = new byte[lengths[i]];
+                }
+                decryptor.decrypt(packets, lengths, dst, PACKETS);
+                sink += dst[0][0];
+            }
+            double batchNanos = perPacket(start, iterations);
+
+            start = System.nanoTime();
+            for (int it = 0; it < iterations; it++) {
+                for (int i = 0; i < PACKETS; i++) {
+                    decryptor.decrypt(packets[i], 0, lengths[i], dst[i], 0);
+                    sink += dst[i][0];
+                }
+            }
+            double bufferNanos = perPacket(start, iterations);
+
+            System.out.printf("previous %.0f ns, batch %.0f ns, existing buffer %.0f ns per packet%n",
+                    previousNanos, batchNanos, bufferNanos);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    private static double perPacket(long start, int iterations) {
+        return (System.nanoTime() - start) / (double) (iterations * PACKETS);
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.serezhka.airplay.lib.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares {@link FairPlayAudioDecryptor} with the previous decryption, a cipher initialized for every packet
+ */
+public class FairPlayAudioDecryptorTest {
+
+    private final Random random = new Random(1);
+    private final byte[] aesKey = new byte[16];
+    private final byte[] aesIV = new byte[16];
+    private final byte[] sharedSecret = new byte[32];
+
+    private FairPlayAudioDecryptor decryptor;
+
+    @Before
+    public void setUp() throws Exception {
+        random.nextBytes(aesKey);
+        random.nextBytes(aesIV);
+        random.nextBytes(sharedSecret);
+        decryptor = new FairPlayAudioDecryptor(aesKey, aesIV, sharedSecret);
+    }
+
+    @Test
+    public void decryptsInPlace() throws Exception {
+        for (int length : new int[]{0, 15, 16, 17, 200, 1023, 1920}) {
+            byte[] packet = randomBytes(1920);
+            byte[] expected = decryptReference(aesKey, aesIV, sharedSecret, packet.clone(), length);
+            decryptor.decrypt(packet, length);
+            assertArrayEquals("length " + length, expected, Arrays.copyOf(packet, length));
+        }
+    }
+
+    @Test
+    public void decryptsIntoOtherBuffer() throws Exception {
+        byte[] src = randomBytes(1200);
+        byte[] expected = decryptReference(aesKey, aesIV, sharedSecret, Arrays.copyOfRange(src, 7, 7 + 1001), 1001);
+        byte[] dst = new byte[1100];
+        decryptor.decrypt(src, 7, 1001, dst, 3);
+        assertArrayEquals(expected, Arrays.copyOfRange(dst, 3, 3 + 1001));
+    }
+
+    @Test
+    public void decryptsBatch() throws Exception {
+        int count = 32;
+        byte[][] src = new byte[count + 1][];
+        byte[][] dst = new byte[count + 1][];
+        int[] lengths = new int[count + 1];
+        for (int i = 0; i < src.length; i++) {
+            lengths[i] = 200 + random.nextInt(1000);
+            src[i] = randomBytes(1920);
+            dst[i] = i % 2 == 0 ? new byte[lengths[i]] : src[i].clone();
+        }
+        byte[] untouched = dst[count].clone();
+        byte[][] expected = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            expected[i] = decryptReference(aesKey, aesIV, sharedSecret, src[i].clone(), lengths[i]);
+        }
+        decryptor.decrypt(src, lengths, dst, count);
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals("packet " + i, expected[i], Arrays.copyOf(dst[i], lengths[i]));
+        }
+        assertArrayEquals(untouched, dst[count]);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * The previous per packet decryption, returns a copy of the decrypted packet
+     */
+    static byte[] decryptReference(byte[] aesKey, byte[] aesIV, byte[] sharedSecret, byte[] audio,
+                                   int audioLength) throws Exception {
+        MessageDigest sha512Digest = MessageDigest.getInstance("SHA-512");
+        sha512Digest.update(aesKey);
+        sha512Digest.update(sharedSecret);
+        byte[] eaesKey = Arrays.copyOfRange(sha512Digest.digest(), 0, 16);
+        Cipher aesCbcDecrypt = Cipher.getInstance("AES/CBC/NoPadding");
+        aesCbcDecrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(eaesKey, "AES"), new IvParameterSpec(aesIV));
+        aesCbcDecrypt.update(audio, 0, audioLength / 16 * 16, audio, 0);
+        return Arrays.copyOfRange(audio, 0, audioLength);
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.serezhka.airplay.lib.internal;
+
+import java.io.IOException;
+
+/**
+ * Times {@link FairPlay#decryptAesKey(byte[])} with the captured handshake of {@link FairPlayTest}.
+ * <p>
+ * Run the main method with the test runtime class path, the optional argument is the number of unwraps per round.
+ */
+public class FairPlayBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        FairPlay fairPlay = FairPlayTest.setUp(FairPlayTest.fromHex(FairPlayTest.CAPTURED_KEY_MESSAGE));
+        byte[] ekey = FairPlayTest.fromHex(FairPlayTest.CAPTURED_EKEY);
+        int sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += fairPlay.decryptAesKey(ekey)[0];
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("decryptAesKey: %.1f us/op%n", elapsed / 1e3 / iterations);
+        }
+        System.out.println("(" + sink + ")");
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.serezhka.airplay.lib.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Key unwrap vectors recorded with the original OmgHax implementation
+ */
+public class FairPlayTest {
+
+    /**
+     * fp-setup key message of the captured handshake, app/src/main/assets/one_mirroring_app/05_RTSP_POST_fp_setup_request.bin
+     */
+    static final String CAPTURED_KEY_MESSAGE = "46504c590301030000000098038f1a9c241c16ac781506bbe0049d433be8bd67948ebff7"
+            + "9813bbed13c0b54a816a430fac243a104b085cb72ec01d225344e83b5cfe01e45655483965718ff294aa826ca98b05d250ba665f"
+            + "ce5bbe8e075c735cb7e406ebb25c52ae0139860d583a6c7c2d3faa2aab6440f8c557a8118d053590ab9f7c941c5225d4041c61d7"
+            + "31c95bc568e3bfc35efcfc36ceb4c1366dd43cff688107d2";
+
+    /**
+     * ekey of the captured SETUP, app/src/main/assets/one_mirroring_app/06_RTSP_SETUP_request.bin
+     */
+    static final String CAPTURED_EKEY = "46504c59010201000000003c0000000013ce9df16bb3f6eeef6cf6508e66c15e00000010c5c404"
+            + "280cf8eb3c42ed9f43efaacd3058bb40fe346b059ffd147993f0f1350ac6f31eeb";
+
+    /**
+     * Keys of {@link #randomKeys(int)}, one per key message mode 0-3 twice
+     */
+    private static final String[] RANDOM_AES_KEYS = {
+            "8b0029ef2ed0b760b9654aa8858c9194",
+            "5c0b0803ff8b776491a3f03e546faf92",
+            "41f38dc604e17038ae22051f6503075c",
+            "de7f2025240f0bb9e24939d9f58fcaf9",
+            "0ce47b798a24f21808ecec67d5a4412d",
+            "6d150db18573098c6ca950bd51a3d24c",
+            "3608b33bb453fbfb750f5d82d3c70210",
+            "c3bfe0542122771a47cf62d98b453827",
+    };
+
+    @Test
+    public void decryptsCapturedKey() throws IOException {
+        FairPlay fairPlay = setUp(fromHex(CAPTURED_KEY_MESSAGE));
+        assertEquals("88680d2d2511c3c4d2c388b042917060", toHex(fairPlay.decryptAesKey(fromHex(CAPTURED_EKEY))));
+    }
+
+    @Test
+    public void decryptsRandomKeys() throws IOException {
+        assertEquals(String.join(",", RANDOM_AES_KEYS), String.join(",", randomKeys(RANDOM_AES_KEYS.length)));
+    }
+
+    @Test
+    public void decryptsRepeatedly() throws IOException {
+        FairPlay fairPlay = setUp(fromHex(CAPTURED_KEY_MESSAGE));
+        byte[] ekey = fromHex(CAPTURED_EKEY);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("88680d2d2511c3c4d2c388b042917060", toHex(fairPlay.decryptAesKey(ekey)));
+        }
+    }
+
+    /**
+     * Unwraps random ekeys with random key messages of the supported version, cycling through the modes
+     */
+    private static String[] randomKeys(int count) throws IOException {
+        Random random = new Random(7);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] keyMessage = new byte[164];
+            random.nextBytes(keyMessage);
+            keyMessage[4] = 3;
+            keyMessage[12] = (byte) (i % 4);
+            byte[] ekey = new byte[72];
+            random.nextBytes(ekey);
+            keys[i] = toHex(setUp(keyMessage).decryptAesKey(ekey));
+        }
+        return keys;
+    }
+
+    static FairPlay setUp(byte[] keyMessage) throws IOException {
+        FairPlay fairPlay = new FairPlay();
+        fairPlay.fairPlaySetup(new ByteArrayInputStream(keyMessage), new ByteArrayOutputStream());
+        return fairPlay;
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -1,11 +1,30 @@
 package com.github.serezhka.airplay.server;
 
+import java.io.File;
 
 public class AirPlayConfig {
     private String serverName;
     private int width;
     private int height;
     private int fps;
+    private int controlThreads = 1;
+    private int mediaThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int videoWorkerThreads;
+    private int videoWorkerQueueSize = 8;
+    private int maxOutstandingVideoFrames = 60;
+    private VideoBackpressurePolicy videoBackpressurePolicy = VideoBackpressurePolicy.PAUSE_READ;
+    private long sessionIdleTimeoutMillis = 5 * 60 * 1000;
+    private int mediaListenerPoolSize = 2;
+    private File identityFile;
+    private int protocolTraceCapacity;
+    private int protocolTraceSessionSampling = 1;
+    private long segmentCacheMemoryBytes;
+    private long segmentCacheDiskBytes;
+    private File segmentCacheDirectory;
+    private int segmentPrefetchCount = 3;
+    private long playlistRequestTimeoutMillis = 10_000;
+    private SegmentUpstream segmentUpstream;
+    private volatile int revision;
     
     public AirPlayConfig() {
     }
@@ -17,12 +36,20 @@ public class AirPlayConfig {
         this.fps = fps;
     }
     
+    /**
+     * Incremented by every setter, responses built from the config are cached until it changes
+     */
+    public int getRevision() {
+        return revision;
+    }
+    
     public String getServerName() {
         return serverName;
     }
     
     public void setServerName(String serverName) {
         this.serverName = serverName;
+        revision++;
     }
     
     public int getWidth() {
@@ -31,6 +58,7 @@ public class AirPlayConfig {
     
     public void setWidth(int width) {
         this.width = width;
+        revision++;
     }
     
     public int getHeight() {
@@ -39,6 +67,7 @@ public class AirPlayConfig {
     
     public void setHeight(int height) {
         this.height = height;
+        revision++;
     }
     
     public int getFps() {
@@ -47,5 +76,218 @@ public class AirPlayConfig {
     
     public void setFps(int fps) {
         this.fps = fps;
+        revision++;
+    }
+    
+    /**
+     * Event-loop threads serving RTSP/HTTP control connections of all senders
+     */
+    public int getControlThreads() {
+        return controlThreads;
+    }
+    
+    public void setControlThreads(int controlThreads) {
+        this.controlThreads = controlThreads;
+        revision++;
+    }
+    
+    /**
+     * Event-loop threads serving mirroring, audio and audio control channels of all sessions
+     */
+    public int getMediaThreads() {
+        return mediaThreads;
+    }
+    
+    public void setMediaThreads(int mediaThreads) {
+        this.mediaThreads = mediaThreads;
+        revision++;
+    }
+    
+    /**
+     * Worker threads decrypting, rewriting and delivering mirrored video off the event loop, 0 to do it on the
+     * event loop. Each session is served by one worker, so frames stay in order
+     */
+    public int getVideoWorkerThreads() {
+        return videoWorkerThreads;
+    }
+    
+    public void setVideoWorkerThreads(int videoWorkerThreads) {
+        this.videoWorkerThreads = videoWorkerThreads;
+        revision++;
+    }
+    
+    /**
+     * Frames a session may have queued for its video worker before the mirroring socket stops being read
+     */
+    public int getVideoWorkerQueueSize() {
+        return videoWorkerQueueSize;
+    }
+    
+    public void setVideoWorkerQueueSize(int videoWorkerQueueSize) {
+        this.videoWorkerQueueSize = videoWorkerQueueSize;
+        revision++;
+    }
+    
+    /**
+     * Video frames the consumer may hold (retained and not yet released) before {@link #getVideoBackpressurePolicy()}
+     * applies, 0 for no limit
+     */
+    public int getMaxOutstandingVideoFrames() {
+        return maxOutstandingVideoFrames;
+    }
+    
+    public void setMaxOutstandingVideoFrames(int maxOutstandingVideoFrames) {
+        this.maxOutstandingVideoFrames = maxOutstandingVideoFrames;
+        revision++;
+    }
+    
+    /**
+     * Policy for sessions the consumer doesn't choose one for, see {@link AirPlayConsumer#videoBackpressurePolicy(String)}
+     */
+    public VideoBackpressurePolicy getVideoBackpressurePolicy() {
+        return videoBackpressurePolicy;
+    }
+    
+    public void setVideoBackpressurePolicy(VideoBackpressurePolicy videoBackpressurePolicy) {
+        this.videoBackpressurePolicy = videoBackpressurePolicy;
+        revision++;
+    }
+    
+    /**
+     * A session without control requests for this long is closed and forgotten, 0 to keep idle sessions.
+     * Every request carrying the session id counts, and sessions with running video or audio are never idle
+     */
+    public long getSessionIdleTimeoutMillis() {
+        return sessionIdleTimeoutMillis;
+    }
+    
+    public void setSessionIdleTimeoutMillis(long sessionIdleTimeoutMillis) {
+        this.sessionIdleTimeoutMillis = sessionIdleTimeoutMillis;
+        revision++;
+    }
+    
+    /**
+     * Mirroring listeners kept bound ahead of RTSP SETUP, plus twice as many UDP channels for audio and timing,
+     * 0 to bind on demand
+     */
+    public int getMediaListenerPoolSize() {
+        return mediaListenerPoolSize;
+    }
+    
+    public void setMediaListenerPoolSize(int mediaListenerPoolSize) {
+        this.mediaListenerPoolSize = mediaListenerPoolSize;
+        revision++;
+    }
+    
+    /**
+     * Where the receiver's pairing key is kept, created on first start. Senders remember the key of a receiver,
+     * {@code null} generates a new one on every start
+     */
+    public File getIdentityFile() {
+        return identityFile;
+    }
+    
+    public void setIdentityFile(File identityFile) {
+        this.identityFile = identityFile;
+        revision++;
+    }
+    
+    /**
+     * Control messages and media packets kept for {@link AirPlayServer#getProtocolTrace()}, 0 to not trace
+     */
+    public int getProtocolTraceCapacity() {
+        return protocolTraceCapacity;
+    }
+    
+    public void setProtocolTraceCapacity(int protocolTraceCapacity) {
+        this.protocolTraceCapacity = protocolTraceCapacity;
+        revision++;
+    }
+    
+    /**
+     * Trace one session in this many, connections which haven't told their session yet are always traced
+     */
+    public int getProtocolTraceSessionSampling() {
+        return protocolTraceSessionSampling;
+    }
+    
+    public void setProtocolTraceSessionSampling(int protocolTraceSessionSampling) {
+        this.protocolTraceSessionSampling = protocolTraceSessionSampling;
+        revision++;
+    }
+    
+    /**
+     * Memory for HLS segments proxied through the control server's {@code /playlist} endpoint, see
+     * {@link AirPlayServer#getSegmentCacheStats()}. 0 to not proxy, the player then fetches segments from their
+     * upstream itself
+     */
+    public long getSegmentCacheMemoryBytes() {
+        return segmentCacheMemoryBytes;
+    }
+    
+    public void setSegmentCacheMemoryBytes(long segmentCacheMemoryBytes) {
+        this.segmentCacheMemoryBytes = segmentCacheMemoryBytes;
+        revision++;
+    }
+    
+    /**
+     * Disk space for proxied segments evicted from memory, 0 to keep them in memory only
+     */
+    public long getSegmentCacheDiskBytes() {
+        return segmentCacheDiskBytes;
+    }
+    
+    public void setSegmentCacheDiskBytes(long segmentCacheDiskBytes) {
+        this.segmentCacheDiskBytes = segmentCacheDiskBytes;
+        revision++;
+    }
+    
+    /**
+     * Where segments evicted from memory are kept, {@code null} for a temporary directory. Files are deleted when the
+     * server stops
+     */
+    public File getSegmentCacheDirectory() {
+        return segmentCacheDirectory;
+    }
+    
+    public void setSegmentCacheDirectory(File segmentCacheDirectory) {
+        this.segmentCacheDirectory = segmentCacheDirectory;
+        revision++;
+    }
+    
+    /**
+     * Segments fetched ahead of the one the player requests, following it in its media playlist
+     */
+    public int getSegmentPrefetchCount() {
+        return segmentPrefetchCount;
+    }
+    
+    public void setSegmentPrefetchCount(int segmentPrefetchCount) {
+        this.segmentPrefetchCount = segmentPrefetchCount;
+        revision++;
+    }
+    
+    /**
+     * How long a player's playlist request waits for the sender to post the playlist, answered with 504 after that
+     */
+    public long getPlaylistRequestTimeoutMillis() {
+        return playlistRequestTimeoutMillis;
+    }
+    
+    public void setPlaylistRequestTimeoutMillis(long playlistRequestTimeoutMillis) {
+        this.playlistRequestTimeoutMillis = playlistRequestTimeoutMillis;
+        revision++;
+    }
+    
+    /**
+     * Where proxied segments are fetched from, {@code null} for plain HTTP
+     */
+    public SegmentUpstream getSegmentUpstream() {
+        return segmentUpstream;
+    }
+    
+    public void setSegmentUpstream(SegmentUpstream segmentUpstream) {
+        this.segmentUpstream = segmentUpstream;
+        revision++;
     }
 }
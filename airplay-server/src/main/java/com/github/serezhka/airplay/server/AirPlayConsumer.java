@@ -9,12 +9,42 @@ public interface AirPlayConsumer {
 
     void onVideo(byte[] bytes);
 
+    /**
+     * Zero-copy variant of {@link #onVideo(byte[])} carrying NAL unit types, sender timestamp and presentation time.
+     * The frame is released after this method returns, call {@link VideoFrame#retain()} to keep it longer.
+     * <p>
+     * Default implementation copies the frame and calls {@link #onVideo(byte[])}.
+     */
+    default void onVideoFrame(VideoFrame videoFrame) {
+        onVideo(videoFrame.toByteArray());
+    }
+
+    /**
+     * Frames passed to {@link #onVideoFrame(VideoFrame)} and retained by the consumer count as outstanding until
+     * released. Once {@link AirPlayConfig#getMaxOutstandingVideoFrames()} is reached the returned policy applies.
+     *
+     * @return policy for the session, {@code null} for {@link AirPlayConfig#getVideoBackpressurePolicy()}
+     */
+    default VideoBackpressurePolicy videoBackpressurePolicy(String sessionId) {
+        return null;
+    }
+
     void onVideoSrcDisconnect();
 
     void onAudioFormat(AudioStreamInfo audioStreamInfo);
 
     void onAudio(byte[] bytes);
 
+    /**
+     * Buffer based variant of {@link #onAudio(byte[])} carrying sequence number, RTP timestamp and playout time.
+     * The frame data is only valid until this method returns.
+     * <p>
+     * Default implementation copies the frame and calls {@link #onAudio(byte[])}.
+     */
+    default void onAudioFrame(AudioFrame audioFrame) {
+        onAudio(audioFrame.toByteArray());
+    }
+
     void onAudioSrcDisconnect();
 
     // HLS stuff, youtube
@@ -30,6 +60,12 @@ public interface AirPlayConsumer {
     default void onMediaPlaylistResume() {
     }
 
+    /**
+     * @param position seconds from the start of the media
+     */
+    default void onMediaPlaylistSeek(double position) {
+    }
+
     default PlaybackInfo playbackInfo() {
         return new PlaybackInfo(0, 0);
     }
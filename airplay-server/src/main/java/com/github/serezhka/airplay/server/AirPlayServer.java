@@ -1,25 +1,103 @@
 package com.github.serezhka.airplay.server;
 
 import com.github.serezhka.airplay.lib.AirPlayBonjour;
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.server.internal.AirPlayTransport;
 import com.github.serezhka.airplay.server.internal.ControlServer;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
 public class AirPlayServer {
 
+    private static final Logger log = Logger.getLogger(AirPlayServer.class.getName());
+
     private final AirPlayBonjour airPlayBonjour;
+    private final AirPlayTransport transport;
     private final ControlServer controlServer;
 
     public AirPlayServer(AirPlayConfig airPlayConfig, AirPlayConsumer airPlayConsumer) {
-        airPlayBonjour = new AirPlayBonjour(airPlayConfig.getServerName());
-        controlServer = new ControlServer(airPlayConfig, airPlayConsumer);
+        ReceiverIdentity identity = loadIdentity(airPlayConfig);
+        airPlayBonjour = new AirPlayBonjour(airPlayConfig.getServerName(), identity);
+        transport = new AirPlayTransport(airPlayConfig);
+        controlServer = new ControlServer(airPlayConfig, airPlayConsumer, transport, identity);
     }
 
+    private static ReceiverIdentity loadIdentity(AirPlayConfig airPlayConfig) {
+        if (airPlayConfig.getIdentityFile() == null) {
+            return ReceiverIdentity.generate();
+        }
+        try {
+            return ReceiverIdentity.load(airPlayConfig.getIdentityFile());
+        } catch (IOException e) {
+            // senders can still pair, they just won't recognize the receiver after a restart
+            log.severe("Can't load receiver identity, using a temporary one: " + e.getMessage());
+            return ReceiverIdentity.generate();
+        }
+    }
+
+    /**
+     * Starts the server, again after {@link #stop()} too
+     */
     public void start() throws Exception {
+        transport.start();
         controlServer.start();
         airPlayBonjour.start(controlServer.getPort());
     }
 
+    /**
+     * @return sessions currently registered, active or waiting to be evicted
+     */
+    public int getLiveSessionCount() {
+        return controlServer.getSessionManager().getLiveSessions();
+    }
+
+    /**
+     * @return sessions closed so far because they were idle, torn down or the server was stopped
+     */
+    public long getEvictedSessionCount() {
+        return controlServer.getSessionManager().getEvictedSessions();
+    }
+
+    /**
+     * @return time to first frame and per phase connect latency of the mirroring sessions so far
+     */
+    public ConnectStats getConnectStats() {
+        return controlServer.getSessionManager().getConnectStats();
+    }
+
+    /**
+     * @return request counts and latency of each control route so far
+     */
+    public ControlStats getControlStats() {
+        return controlServer.getRoutes().getStats();
+    }
+
+    /**
+     * @return recent control messages and media packets, see {@link AirPlayConfig#getProtocolTraceCapacity()}
+     */
+    public ProtocolTrace getProtocolTrace() {
+        return transport.getProtocolTrace();
+    }
+
+    /**
+     * @return hit ratio and bytes saved by the HLS segment cache, see {@link AirPlayConfig#getSegmentCacheMemoryBytes()}
+     */
+    public SegmentCacheStats getSegmentCacheStats() {
+        return controlServer.getSegmentCacheStats();
+    }
+
+    /**
+     * @return snapshot of the streams of every registered session
+     */
+    public List<SessionStats> getSessionStats() {
+        return controlServer.getSessionManager().getSessionStats();
+    }
+
     public void stop() {
         airPlayBonjour.stop();
         controlServer.stop();
+        transport.shutdown();
     }
 }
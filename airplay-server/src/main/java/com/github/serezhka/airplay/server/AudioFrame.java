@@ -0,0 +1,78 @@
+package com.github.serezhka.airplay.server;
+
+import com.github.serezhka.airplay.lib.AudioStreamInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decrypted audio frame, one RTP packet of the audio stream.
+ * <p>
+ * The data is a view of a buffer reused by the server, it is only valid until
+ * {@link AirPlayConsumer#onAudioFrame(AudioFrame)} returns. Copy it, e.g. with {@link #toByteArray()}, to keep it.
+ */
+public class AudioFrame {
+
+    private final String sessionId;
+    private final AudioStreamInfo streamInfo;
+    private final ByteBuffer data;
+    private final int sequenceNumber;
+    private final long rtpTimestamp;
+    private final long presentationNanos;
+
+    public AudioFrame(String sessionId, AudioStreamInfo streamInfo, ByteBuffer data, int sequenceNumber,
+                      long rtpTimestamp, long presentationNanos) {
+        this.sessionId = sessionId;
+        this.streamInfo = streamInfo;
+        this.data = data;
+        this.sequenceNumber = sequenceNumber;
+        this.rtpTimestamp = rtpTimestamp;
+        this.presentationNanos = presentationNanos;
+    }
+
+    /**
+     * @return id of the session the frame belongs to
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return format of the stream, same as passed to {@link AirPlayConsumer#onAudioFormat(AudioStreamInfo)}
+     */
+    public AudioStreamInfo getStreamInfo() {
+        return streamInfo;
+    }
+
+    /**
+     * @return read-only view of the frame bytes
+     */
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public int getSize() {
+        return data.remaining();
+    }
+
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getRtpTimestamp() {
+        return rtpTimestamp;
+    }
+
+    /**
+     * @return local {@link System#nanoTime()} at which the frame is to be played, {@link Long#MIN_VALUE} until
+     * the first sync packet of the sender is received
+     */
+    public long getPresentationNanos() {
+        return presentationNanos;
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+}
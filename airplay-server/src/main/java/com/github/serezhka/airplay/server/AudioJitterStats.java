@@ -0,0 +1,82 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Snapshot of the audio jitter buffer of a session, see {@link SessionStats#getAudioJitter()}
+ */
+public class AudioJitterStats {
+
+    private final int depth;
+    private final int targetDepth;
+    private final long receivedPackets;
+    private final long releasedPackets;
+    private final long latePackets;
+    private final long lostPackets;
+    private final long resyncs;
+
+    public AudioJitterStats(int depth, int targetDepth, long receivedPackets, long releasedPackets, long latePackets,
+                            long lostPackets, long resyncs) {
+        this.depth = depth;
+        this.targetDepth = targetDepth;
+        this.receivedPackets = receivedPackets;
+        this.releasedPackets = releasedPackets;
+        this.latePackets = latePackets;
+        this.lostPackets = lostPackets;
+        this.resyncs = resyncs;
+    }
+
+    /**
+     * @return sequence positions held, including the missing ones
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return depth packets are held for, following the inter-arrival jitter
+     */
+    public int getTargetDepth() {
+        return targetDepth;
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets;
+    }
+
+    public long getReleasedPackets() {
+        return releasedPackets;
+    }
+
+    /**
+     * @return packets dropped because they were duplicates or arrived after their playout
+     */
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    /**
+     * @return packets skipped because they didn't arrive in time
+     */
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    /**
+     * @return sequence jumps taken as a restarted stream
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioJitterStats{" +
+                "depth=" + depth +
+                ", targetDepth=" + targetDepth +
+                ", received=" + receivedPackets +
+                ", released=" + releasedPackets +
+                ", late=" + latePackets +
+                ", lost=" + lostPackets +
+                ", resyncs=" + resyncs +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Steps of a mirroring connection, in the order a sender goes through them, see {@link ConnectStats}
+ */
+public enum ConnectPhase {
+
+    /**
+     * {@code GET /info} answered on the control connection the session was later resolved on
+     */
+    INFO("info"),
+
+    /**
+     * {@code /pair-setup} answered
+     */
+    PAIR_SETUP("pair-setup"),
+
+    /**
+     * Sender's signature verified on the second {@code /pair-verify}
+     */
+    PAIR_VERIFY("pair-verify"),
+
+    /**
+     * FairPlay key message received on the second {@code /fp-setup}
+     */
+    FAIRPLAY_SETUP("fp-setup"),
+
+    /**
+     * RTSP SETUP carrying the encrypted key answered
+     */
+    SETUP_KEYS("setup-keys"),
+
+    /**
+     * RTSP SETUP of the mirroring stream answered
+     */
+    SETUP_VIDEO("setup-video"),
+
+    /**
+     * First mirroring packet decrypted, includes the FairPlay key decryption
+     */
+    FIRST_DECRYPT("first-decrypt"),
+
+    /**
+     * First picture frame handed to {@link AirPlayConsumer#onVideoFrame(VideoFrame)}
+     */
+    FIRST_FRAME("first-frame");
+
+    private final String label;
+
+    ConnectPhase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
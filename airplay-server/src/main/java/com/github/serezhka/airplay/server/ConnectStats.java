@@ -0,0 +1,89 @@
+package com.github.serezhka.airplay.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect latency of the mirroring sessions served so far: time from the first recorded {@link ConnectPhase} to the
+ * first frame, and the time each phase took since the previous one the session went through.
+ */
+public class ConnectStats {
+
+    private static final ConnectPhase[] PHASES = ConnectPhase.values();
+
+    private final Map<ConnectPhase, LatencyHistogram> phases = new EnumMap<>(ConnectPhase.class);
+    private final LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+    private final AtomicLong incompleteConnects = new AtomicLong();
+
+    public ConnectStats() {
+        for (ConnectPhase phase : PHASES) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records a session which got its first frame
+     *
+     * @param phaseNanos {@link System#nanoTime()} of each phase indexed by {@link ConnectPhase#ordinal()}, 0 if the
+     *                   session skipped it
+     */
+    public void record(long[] phaseNanos) {
+        long startNanos = 0;
+        long previousNanos = 0;
+        for (ConnectPhase phase : PHASES) {
+            long nanos = phaseNanos[phase.ordinal()];
+            if (nanos == 0) {
+                continue;
+            }
+            if (previousNanos == 0) {
+                startNanos = nanos;
+            } else {
+                phases.get(phase).record(nanos - previousNanos, TimeUnit.NANOSECONDS);
+            }
+            previousNanos = nanos;
+        }
+        long firstFrameNanos = phaseNanos[ConnectPhase.FIRST_FRAME.ordinal()];
+        if (firstFrameNanos != 0) {
+            timeToFirstFrame.record(firstFrameNanos - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records a session which set up mirroring but ended before its first frame
+     */
+    public void recordIncomplete() {
+        incompleteConnects.incrementAndGet();
+    }
+
+    public LatencyHistogram getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * @return time from the previous phase the sessions went through to this one, empty for the first phase
+     */
+    public LatencyHistogram getPhase(ConnectPhase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @return sessions which set up mirroring but ended before their first frame
+     */
+    public long getIncompleteConnects() {
+        return incompleteConnects.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ConnectStats{timeToFirstFrame=[").append(timeToFirstFrame).append(']');
+        for (ConnectPhase phase : PHASES) {
+            LatencyHistogram histogram = phases.get(phase);
+            if (histogram.getCount() > 0) {
+                sb.append(", ").append(phase.getLabel()).append("=[").append(histogram).append(']');
+            }
+        }
+        return sb.append(", incomplete=").append(incompleteConnects.get()).append('}').toString();
+    }
+}
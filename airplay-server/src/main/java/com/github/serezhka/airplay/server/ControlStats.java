@@ -0,0 +1,123 @@
+package com.github.serezhka.airplay.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests served by the control server, per route. A route is named by its protocol, method and path, e.g.
+ * {@code RTSP/1.0 POST /pair-verify} or {@code RTSP/1.0 SETUP *}.
+ */
+public class ControlStats {
+
+    private final Map<String, RouteStats> routes = new LinkedHashMap<>();
+    private final AtomicLong unknownRequests = new AtomicLong();
+
+    /**
+     * Adds a route, called while the route table is built
+     */
+    public synchronized RouteStats addRoute(String route) {
+        return routes.computeIfAbsent(route, r -> new RouteStats());
+    }
+
+    public synchronized Map<String, RouteStats> getRoutes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(routes));
+    }
+
+    public synchronized RouteStats getRoute(String route) {
+        return routes.get(route);
+    }
+
+    public void recordUnknownRequest() {
+        unknownRequests.incrementAndGet();
+    }
+
+    /**
+     * @return requests which matched no route, answered with 404
+     */
+    public long getUnknownRequests() {
+        return unknownRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ControlStats{");
+        getRoutes().forEach((route, stats) -> {
+            if (stats.getRequests() > 0) {
+                sb.append(route).append("=[").append(stats).append("], ");
+            }
+        });
+        return sb.append("unknown=").append(unknownRequests.get()).append('}').toString();
+    }
+
+    public static class RouteStats {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong defaultResponses = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        public void recordRequest() {
+            requests.incrementAndGet();
+        }
+
+        public void recordResponse(long durationNanos) {
+            latency.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordFailure() {
+            failures.incrementAndGet();
+        }
+
+        public void recordDefaultResponse() {
+            defaultResponses.incrementAndGet();
+        }
+
+        public void recordTimeout() {
+            timeouts.incrementAndGet();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return time from the request to its response, for routes answered by another request too
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return requests whose handler threw, answered with 500
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return requests the handler left unanswered, answered with an empty 200
+         */
+        public long getDefaultResponses() {
+            return defaultResponses.get();
+        }
+
+        /**
+         * @return requests answered by another request which didn't come in time, answered with 504
+         */
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + " " + latency +
+                    (getFailures() > 0 ? " failures=" + getFailures() : "") +
+                    (getDefaultResponses() > 0 ? " default=" + getDefaultResponses() : "") +
+                    (getTimeouts() > 0 ? " timeouts=" + getTimeouts() : "");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.serezhka.airplay.server;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recent control messages and media packets of sampled sessions, kept in a lock-free ring buffer.
+ * <p>
+ * Recording only stores the fields of an event, nothing is formatted until {@link #dump()} is called. A disabled
+ * trace records nothing, callers check {@link #isSampled(String)} once per connection so it costs a field read.
+ * See {@link AirPlayConfig#getProtocolTraceCapacity()}.
+ */
+public class ProtocolTrace {
+
+    public static final ProtocolTrace DISABLED = new ProtocolTrace(0, 1);
+
+    public enum Kind {
+        REQUEST,
+        RESPONSE,
+        VIDEO,
+        AUDIO,
+        SESSION
+    }
+
+    private final AtomicReferenceArray<Event> ring;
+    private final int mask;
+    private final int sessionSampling;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * @param capacity        events kept, rounded up to a power of two, 0 to disable the trace
+     * @param sessionSampling trace one session in this many
+     */
+    public ProtocolTrace(int capacity, int sessionSampling) {
+        int size = capacity > 0 ? Integer.highestOneBit(Math.max(1, capacity - 1)) << 1 : 0;
+        ring = size > 0 ? new AtomicReferenceArray<>(size) : null;
+        mask = size - 1;
+        this.sessionSampling = Math.max(1, sessionSampling);
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * @param sessionId {@code null} for requests sent before the sender tells its session, always sampled
+     * @return whether events of the session are recorded, the same for every call with the same id
+     */
+    public boolean isSampled(String sessionId) {
+        return ring != null && (sessionId == null || sessionSampling == 1
+                || Math.floorMod(sessionId.hashCode(), sessionSampling) == 0);
+    }
+
+    /**
+     * Stores an event, the caller checked {@link #isSampled(String)}
+     *
+     * @param name   request method or session event
+     * @param detail request uri or event details
+     * @param value  response status, video payload type or audio sequence number
+     * @param size   content or payload length
+     */
+    public void record(String sessionId, Kind kind, String name, String detail, long value, long size) {
+        if (ring == null) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        ring.lazySet((int) seq & mask, new Event(seq, System.nanoTime(), sessionId, kind, name, detail, value, size));
+    }
+
+    /**
+     * @return events still in the ring buffer, oldest first
+     */
+    public List<Event> snapshot() {
+        List<Event> events = new ArrayList<>();
+        if (ring == null) {
+            return events;
+        }
+        long end = sequence.get();
+        long start = Math.max(0, end - ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            Event event = ring.get(i);
+            // slots being overwritten may already hold events past end
+            if (event != null && event.sequence >= start) {
+                events.add(event);
+            }
+        }
+        events.sort(Comparator.comparingLong(event -> event.sequence));
+        return events;
+    }
+
+    /**
+     * @return events still in the ring buffer, one per line, oldest first
+     */
+    public String dump() {
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+        StringBuilder sb = new StringBuilder();
+        for (Event event : snapshot()) {
+            long millis = startMillis + TimeUnit.NANOSECONDS.toMillis(event.nanos - startNanos);
+            sb.append(time.format(new Date(millis))).append(' ').append(event).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static final class Event {
+
+        private final long sequence;
+        private final long nanos;
+        private final String sessionId;
+        private final Kind kind;
+        private final String name;
+        private final String detail;
+        private final long value;
+        private final long size;
+
+        Event(long sequence, long nanos, String sessionId, Kind kind, String name, String detail, long value, long size) {
+            this.sequence = sequence;
+            this.nanos = nanos;
+            this.sessionId = sessionId;
+            this.kind = kind;
+            this.name = name;
+            this.detail = detail;
+            this.value = value;
+            this.size = size;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} of the event
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            String session = "[" + (sessionId != null ? sessionId : "-") + "] ";
+            switch (kind) {
+                case REQUEST:
+                    return session + "> " + name + " " + detail + " (" + size + " bytes)";
+                case RESPONSE:
+                    return session + "< " + value + " (" + size + " bytes)";
+                case VIDEO:
+                    return session + "video type " + value + " (" + size + " bytes)";
+                case AUDIO:
+                    return session + "audio seq " + value + " (" + size + " bytes)";
+                default:
+                    return session + name + (detail != null ? ": " + detail : "");
+            }
+        }
+    }
+}
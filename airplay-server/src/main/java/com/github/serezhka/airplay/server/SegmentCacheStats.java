@@ -0,0 +1,154 @@
+package com.github.serezhka.airplay.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HLS segments served by the control server's segment cache, see {@link AirPlayConfig#getSegmentCacheMemoryBytes()}.
+ * A request is a hit when its segment was in memory, on disk or already being prefetched, and a miss when it had to
+ * be fetched upstream.
+ */
+public class SegmentCacheStats {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private volatile long memoryBytes;
+    private volatile long diskBytes;
+
+    public void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    public void recordMemoryHit(int size) {
+        memoryHits.incrementAndGet();
+        bytesSaved.addAndGet(size);
+    }
+
+    public void recordDiskHit(int size) {
+        diskHits.incrementAndGet();
+        bytesSaved.addAndGet(size);
+    }
+
+    public void recordPrefetchHit(int size) {
+        prefetchHits.incrementAndGet();
+        bytesSaved.addAndGet(size);
+    }
+
+    /**
+     * @param prefetch whether the segment was fetched ahead of its request, otherwise it's a miss
+     */
+    public void recordFetch(int size, boolean prefetch) {
+        (prefetch ? prefetches : misses).incrementAndGet();
+        bytesFetched.addAndGet(size);
+    }
+
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    public void recordSize(long memoryBytes, long diskBytes) {
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return requests which joined a prefetch still in progress
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return requests answered with 502 because the upstream fetch failed
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return segments fetched ahead of their request
+     */
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    /**
+     * @return segments dropped from memory to make room, spilled to disk if there is a disk tier
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return bytes of requested segments served without fetching them upstream
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * @return bytes fetched upstream, on request or ahead of it
+     */
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public double getHitRatio() {
+        long requests = getRequests();
+        return requests > 0 ? (double) (getMemoryHits() + getDiskHits() + getPrefetchHits()) / requests : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentCacheStats{" +
+                "requests=" + getRequests() +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                ", memoryHits=" + getMemoryHits() +
+                ", diskHits=" + getDiskHits() +
+                ", prefetchHits=" + getPrefetchHits() +
+                ", misses=" + getMisses() +
+                ", failures=" + getFailures() +
+                ", prefetches=" + getPrefetches() +
+                ", evictions=" + getEvictions() +
+                ", bytesSaved=" + getBytesSaved() +
+                ", bytesFetched=" + getBytesFetched() +
+                ", memoryBytes=" + getMemoryBytes() +
+                ", diskBytes=" + getDiskBytes() +
+                '}';
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.serezhka.airplay.server;
+
+import java.io.IOException;
+
+/**
+ * Where the HLS segments proxied by the control server are fetched from, see
+ * {@link AirPlayConfig#getSegmentUpstream()}
+ */
+@FunctionalInterface
+public interface SegmentUpstream {
+
+    /**
+     * Called on a segment fetch thread, never on an event loop
+     *
+     * @param uri absolute segment URI as listed in the sender's media playlist
+     * @return segment bytes
+     */
+    byte[] fetch(String uri) throws IOException;
+}
@@ -0,0 +1,95 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Snapshot of the sender clock mapping of a session, see {@link SessionStats#getSenderClock()}
+ */
+public class SenderClockStats {
+
+    private final boolean synced;
+    private final long offsetNanos;
+    private final double driftPpm;
+    private final long roundTripNanos;
+    private final long dispersionNanos;
+    private final long accuracyNanos;
+    private final long totalSamples;
+    private final long rejectedSamples;
+
+    public SenderClockStats(boolean synced, long offsetNanos, double driftPpm, long roundTripNanos,
+                            long dispersionNanos, long accuracyNanos, long totalSamples, long rejectedSamples) {
+        this.synced = synced;
+        this.offsetNanos = offsetNanos;
+        this.driftPpm = driftPpm;
+        this.roundTripNanos = roundTripNanos;
+        this.dispersionNanos = dispersionNanos;
+        this.accuracyNanos = accuracyNanos;
+        this.totalSamples = totalSamples;
+        this.rejectedSamples = rejectedSamples;
+    }
+
+    /**
+     * @return whether a timing reply was received, the other values are 0 until then
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return sender clock minus local clock at the last update
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    /**
+     * @return relative frequency error of the sender clock, parts per million
+     */
+    public double getDriftPpm() {
+        return driftPpm;
+    }
+
+    /**
+     * @return round trip delay of the sample the offset was taken from
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    /**
+     * @return RMS distance of the recent offset samples from the filtered offset
+     */
+    public long getDispersionNanos() {
+        return dispersionNanos;
+    }
+
+    /**
+     * @return bound of the mapping error, {@link Long#MAX_VALUE} until synced
+     */
+    public long getAccuracyNanos() {
+        return accuracyNanos;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * @return samples discarded because of an impossible (negative) round trip
+     */
+    public long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    @Override
+    public String toString() {
+        return "SenderClockStats{" +
+                "synced=" + synced +
+                ", offsetNanos=" + offsetNanos +
+                ", driftPpm=" + driftPpm +
+                ", roundTripNanos=" + roundTripNanos +
+                ", dispersionNanos=" + dispersionNanos +
+                ", accuracyNanos=" + accuracyNanos +
+                ", samples=" + totalSamples +
+                ", rejected=" + rejectedSamples +
+                '}';
+    }
+}
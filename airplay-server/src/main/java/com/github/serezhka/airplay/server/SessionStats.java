@@ -0,0 +1,69 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Snapshot of the streams of one session, see {@link AirPlayServer#getSessionStats()}
+ */
+public class SessionStats {
+
+    private final String sessionId;
+    private final SenderClockStats senderClock;
+    private final VideoWorkerStats videoWorker;
+    private final VideoFlowStats videoFlow;
+    private final AudioJitterStats audioJitter;
+
+    public SessionStats(String sessionId, SenderClockStats senderClock, VideoWorkerStats videoWorker,
+                        VideoFlowStats videoFlow, AudioJitterStats audioJitter) {
+        this.sessionId = sessionId;
+        this.senderClock = senderClock;
+        this.videoWorker = videoWorker;
+        this.videoFlow = videoFlow;
+        this.audioJitter = audioJitter;
+    }
+
+    /**
+     * @return {@code Active-Remote} / {@code X-Apple-Session-ID} of the session
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return mapping of sender NTP timestamps to local time, video and audio timing are derived from
+     */
+    public SenderClockStats getSenderClock() {
+        return senderClock;
+    }
+
+    /**
+     * @return worker queue of the latest mirroring connection, {@code null} if the session never mirrored or video
+     * is processed on the event loop
+     */
+    public VideoWorkerStats getVideoWorker() {
+        return videoWorker;
+    }
+
+    /**
+     * @return consumer backpressure of the latest mirroring connection, {@code null} if the session never mirrored
+     */
+    public VideoFlowStats getVideoFlow() {
+        return videoFlow;
+    }
+
+    /**
+     * @return jitter buffer of the latest audio stream, {@code null} if the session never streamed audio
+     */
+    public AudioJitterStats getAudioJitter() {
+        return audioJitter;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionStats{" +
+                "sessionId='" + sessionId + '\'' +
+                ", senderClock=" + senderClock +
+                ", videoWorker=" + videoWorker +
+                ", videoFlow=" + videoFlow +
+                ", audioJitter=" + audioJitter +
+                '}';
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * What the server does when the consumer holds too many video frames, see
+ * {@link AirPlayConfig#getMaxOutstandingVideoFrames()}
+ */
+public enum VideoBackpressurePolicy {
+
+    /**
+     * Stop reading the mirroring socket until the consumer releases frames, the sender slows down
+     */
+    PAUSE_READ,
+
+    /**
+     * Keep reading but drop picture frames until the consumer releases frames and the next IDR frame arrives
+     */
+    DROP_TO_IDR
+}
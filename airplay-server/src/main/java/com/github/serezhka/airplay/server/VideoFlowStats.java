@@ -0,0 +1,76 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Snapshot of the consumer backpressure of a session, see {@link SessionStats#getVideoFlow()}
+ */
+public class VideoFlowStats {
+
+    private final VideoBackpressurePolicy policy;
+    private final int outstandingFrames;
+    private final int maxOutstandingFrames;
+    private final long deliveredFrames;
+    private final long droppedFrames;
+    private final long dropEpisodes;
+    private final long readPauses;
+
+    public VideoFlowStats(VideoBackpressurePolicy policy, int outstandingFrames, int maxOutstandingFrames,
+                          long deliveredFrames, long droppedFrames, long dropEpisodes, long readPauses) {
+        this.policy = policy;
+        this.outstandingFrames = outstandingFrames;
+        this.maxOutstandingFrames = maxOutstandingFrames;
+        this.deliveredFrames = deliveredFrames;
+        this.droppedFrames = droppedFrames;
+        this.dropEpisodes = dropEpisodes;
+        this.readPauses = readPauses;
+    }
+
+    public VideoBackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return frames handed to the consumer and not released yet
+     */
+    public int getOutstandingFrames() {
+        return outstandingFrames;
+    }
+
+    public int getMaxOutstandingFrames() {
+        return maxOutstandingFrames;
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return how many times dropping to the next IDR frame was started
+     */
+    public long getDropEpisodes() {
+        return dropEpisodes;
+    }
+
+    /**
+     * @return how many times reading of the mirroring socket was paused for the consumer
+     */
+    public long getReadPauses() {
+        return readPauses;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoFlowStats{" +
+                "policy=" + policy +
+                ", outstanding=" + outstandingFrames +
+                ", maxOutstanding=" + maxOutstandingFrames +
+                ", delivered=" + deliveredFrames +
+                ", dropped=" + droppedFrames +
+                ", dropEpisodes=" + dropEpisodes +
+                ", readPauses=" + readPauses +
+                '}';
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.serezhka.airplay.server;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decrypted Annex-B video frame backed by a pooled buffer.
+ * <p>
+ * The frame is reference counted: the server releases its reference once {@link AirPlayConsumer#onVideoFrame(VideoFrame)}
+ * returns, so a consumer that keeps the frame beyond the callback must {@link #retain()} it and {@link #release()} it
+ * when done. Retained frames count against {@link AirPlayConfig#getMaxOutstandingVideoFrames()}.
+ */
+public class VideoFrame {
+
+    public static final int NAL_TYPE_SLICE = 1;
+    public static final int NAL_TYPE_IDR = 5;
+    public static final int NAL_TYPE_SEI = 6;
+    public static final int NAL_TYPE_SPS = 7;
+    public static final int NAL_TYPE_PPS = 8;
+
+    private final String sessionId;
+    private final ByteBuf data;
+    private final boolean codecConfig;
+    private final boolean repeatedCodecConfig;
+    private final int nalTypes;
+    private final boolean reference;
+    private final long ntpTimestamp;
+    private final long presentationNanos;
+    private final Runnable releaseListener;
+
+    /**
+     * @param repeatedCodecConfig whether the frame is a codec config identical to the previous one
+     * @param nalTypes            bit {@code 1 << type} set for every NAL unit type present
+     * @param reference           whether any NAL unit has a non zero {@code nal_ref_idc}
+     * @param releaseListener     called once the last reference to the frame is released
+     */
+    public VideoFrame(String sessionId, ByteBuf data, boolean codecConfig, boolean repeatedCodecConfig, int nalTypes,
+                      boolean reference, long ntpTimestamp, long presentationNanos, Runnable releaseListener) {
+        this.sessionId = sessionId;
+        this.data = data;
+        this.codecConfig = codecConfig;
+        this.repeatedCodecConfig = repeatedCodecConfig;
+        this.nalTypes = nalTypes;
+        this.reference = reference;
+        this.ntpTimestamp = ntpTimestamp;
+        this.presentationNanos = presentationNanos;
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * @return id of the session the frame belongs to
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return read-only view of the frame bytes, valid until the frame is released
+     */
+    public ByteBuffer getData() {
+        return data.nioBuffer().asReadOnlyBuffer();
+    }
+
+    public int getSize() {
+        return data.readableBytes();
+    }
+
+    /**
+     * @return {@code true} if the frame carries SPS/PPS rather than picture NAL units
+     */
+    public boolean isCodecConfig() {
+        return codecConfig;
+    }
+
+    /**
+     * Senders repeat the codec config, usually before every IDR frame. A consumer which configured its decoder
+     * already may skip repeated ones, a decoder that was restarted needs the next one.
+     *
+     * @return {@code true} if the frame is a codec config identical to the previous one of the connection,
+     * {@link AirPlayConsumer#onVideoFormat} was not called for it
+     */
+    public boolean isRepeatedCodecConfig() {
+        return repeatedCodecConfig;
+    }
+
+    /**
+     * @return bit {@code 1 << type} is set for every NAL unit type present in the frame
+     */
+    public int getNalTypes() {
+        return nalTypes;
+    }
+
+    public boolean hasNalType(int nalType) {
+        return (nalTypes & (1 << nalType)) != 0;
+    }
+
+    /**
+     * @return {@code true} if the frame contains an IDR slice, decoding can start from it
+     */
+    public boolean isIdr() {
+        return hasNalType(NAL_TYPE_IDR);
+    }
+
+    /**
+     * @return {@code true} if the frame contains a coded slice, IDR or not
+     */
+    public boolean hasSlice() {
+        return (nalTypes & (1 << NAL_TYPE_SLICE | 1 << 2 | 1 << 3 | 1 << 4 | 1 << NAL_TYPE_IDR)) != 0;
+    }
+
+    public boolean hasSei() {
+        return hasNalType(NAL_TYPE_SEI);
+    }
+
+    public boolean hasParameterSets() {
+        return hasNalType(NAL_TYPE_SPS) || hasNalType(NAL_TYPE_PPS);
+    }
+
+    /**
+     * @return {@code false} if no other frame refers to this one ({@code nal_ref_idc} is 0), it can be dropped
+     * without breaking decoding of the following frames
+     */
+    public boolean isReference() {
+        return reference;
+    }
+
+    /**
+     * @return sender time of the frame, NTP 32.32 fixed point counting seconds since 1970
+     */
+    public long getNtpTimestamp() {
+        return ntpTimestamp;
+    }
+
+    /**
+     * @return local {@link System#nanoTime()} at which the frame is to be presented, {@link Long#MIN_VALUE} until
+     * the sender clock is known
+     */
+    public long getPresentationNanos() {
+        return presentationNanos;
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), bytes);
+        return bytes;
+    }
+
+    public VideoFrame retain() {
+        data.retain();
+        return this;
+    }
+
+    public boolean release() {
+        boolean deallocated = data.release();
+        if (deallocated && releaseListener != null) {
+            releaseListener.run();
+        }
+        return deallocated;
+    }
+
+    public int refCnt() {
+        return data.refCnt();
+    }
+}
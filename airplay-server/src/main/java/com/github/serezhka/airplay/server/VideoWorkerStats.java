@@ -0,0 +1,51 @@
+package com.github.serezhka.airplay.server;
+
+/**
+ * Snapshot of the video worker queue of a session, see {@link SessionStats#getVideoWorker()}
+ */
+public class VideoWorkerStats {
+
+    private final int pendingFrames;
+    private final int maxPendingFrames;
+    private final long queuedFrames;
+    private final long readPauses;
+
+    public VideoWorkerStats(int pendingFrames, int maxPendingFrames, long queuedFrames, long readPauses) {
+        this.pendingFrames = pendingFrames;
+        this.maxPendingFrames = maxPendingFrames;
+        this.queuedFrames = queuedFrames;
+        this.readPauses = readPauses;
+    }
+
+    /**
+     * @return frames queued for or being processed by the worker
+     */
+    public int getPendingFrames() {
+        return pendingFrames;
+    }
+
+    public int getMaxPendingFrames() {
+        return maxPendingFrames;
+    }
+
+    public long getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    /**
+     * @return how many times reading of the mirroring socket was paused because the queue was full
+     */
+    public long getReadPauses() {
+        return readPauses;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoWorkerStats{" +
+                "pending=" + pendingFrames +
+                ", maxPending=" + maxPendingFrames +
+                ", queued=" + queuedFrames +
+                ", readPauses=" + readPauses +
+                '}';
+    }
+}
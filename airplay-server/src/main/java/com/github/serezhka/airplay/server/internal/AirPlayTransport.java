@@ -0,0 +1,180 @@
+package com.github.serezhka.airplay.server.internal;
+
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.ProtocolTrace;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Netty runtime shared by the control server and every per-session media server.
+ * <p>
+ * Listeners accept on a single acceptor loop, RTSP/HTTP control connections are served by the control group
+ * and mirroring, audio and audio control traffic by the media group, so the number of event-loop threads
+ * depends on {@link AirPlayConfig} only and not on the number of connected senders.
+ * <p>
+ * If configured, mirrored video is decrypted and delivered on a separate worker group, see
+ * {@link AirPlayConfig#getVideoWorkerThreads()}.
+ * <p>
+ * Started when created. {@link #shutdown()} stops the groups and listeners, {@link #start()} creates new ones, so a
+ * server can be stopped and started again.
+ */
+public class AirPlayTransport {
+
+    private static final Logger log = Logger.getLogger(AirPlayTransport.class.getName());
+
+    private final AirPlayConfig airPlayConfig;
+    private final int videoWorkerQueueSize;
+    private final ProtocolTrace protocolTrace;
+
+    private volatile EventLoopGroup acceptorGroup;
+    private volatile EventLoopGroup controlGroup;
+    private volatile EventLoopGroup mediaGroup;
+    private volatile EventExecutorGroup videoWorkerGroup;
+    private volatile MediaListenerPool listenerPool;
+    private boolean started;
+
+    public AirPlayTransport(AirPlayConfig airPlayConfig) {
+        this.airPlayConfig = airPlayConfig;
+        videoWorkerQueueSize = Math.max(1, airPlayConfig.getVideoWorkerQueueSize());
+        protocolTrace = airPlayConfig.getProtocolTraceCapacity() > 0
+                ? new ProtocolTrace(airPlayConfig.getProtocolTraceCapacity(), airPlayConfig.getProtocolTraceSessionSampling())
+                : ProtocolTrace.DISABLED;
+        start();
+    }
+
+    /**
+     * Creates the event-loop groups and the listener pool, does nothing if they are running
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        acceptorGroup = eventLoopGroup(1, "airplay-acceptor");
+        controlGroup = eventLoopGroup(airPlayConfig.getControlThreads(), "airplay-control");
+        mediaGroup = eventLoopGroup(airPlayConfig.getMediaThreads(), "airplay-media");
+        videoWorkerGroup = airPlayConfig.getVideoWorkerThreads() > 0
+                ? new DefaultEventExecutorGroup(airPlayConfig.getVideoWorkerThreads(), new DefaultThreadFactory("airplay-video-worker"))
+                : null;
+        // not on the acceptor loop, claimed TCP listeners notify their bind futures there
+        listenerPool = new MediaListenerPool(mediaServerBootstrap(), mediaDatagramBootstrap(), GlobalEventExecutor.INSTANCE,
+                airPlayConfig.getMediaListenerPoolSize());
+        started = true;
+        log.info("AirPlay transport started, epoll: " + Epoll.isAvailable()
+                + ", control threads: " + airPlayConfig.getControlThreads()
+                + ", media threads: " + airPlayConfig.getMediaThreads()
+                + ", video worker threads: " + airPlayConfig.getVideoWorkerThreads()
+                + ", media listener pool: " + airPlayConfig.getMediaListenerPoolSize());
+    }
+
+    public EventLoopGroup getControlGroup() {
+        return controlGroup;
+    }
+
+    public EventLoopGroup getMediaGroup() {
+        return mediaGroup;
+    }
+
+    /**
+     * @return executors for the video worker stage, {@code null} if video is processed on the event loop
+     */
+    public EventExecutorGroup getVideoWorkerGroup() {
+        return videoWorkerGroup;
+    }
+
+    public int getVideoWorkerQueueSize() {
+        return videoWorkerQueueSize;
+    }
+
+    /**
+     * @return bootstrap for the RTSP/HTTP control listener
+     */
+    public ServerBootstrap controlServerBootstrap() {
+        return new ServerBootstrap()
+                .group(acceptorGroup, controlGroup)
+                .channel(serverSocketChannelClass())
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+    }
+
+    /**
+     * @return bootstrap for per-session TCP media listeners (mirroring stream)
+     */
+    public ServerBootstrap mediaServerBootstrap() {
+        return new ServerBootstrap()
+                .group(acceptorGroup, mediaGroup)
+                .channel(serverSocketChannelClass())
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+    }
+
+    /**
+     * @return bootstrap for per-session UDP media channels (audio data, audio control)
+     */
+    public Bootstrap mediaDatagramBootstrap() {
+        return new Bootstrap()
+                .group(mediaGroup)
+                .channel(datagramChannelClass());
+    }
+
+    /**
+     * @return pre-bound listeners for per-session media servers
+     */
+    public MediaListenerPool getListenerPool() {
+        return listenerPool;
+    }
+
+    /**
+     * @return trace of control messages and media packets, {@link ProtocolTrace#DISABLED} if not configured
+     */
+    public ProtocolTrace getProtocolTrace() {
+        return protocolTrace;
+    }
+
+    public synchronized void shutdown() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        listenerPool.close();
+        acceptorGroup.shutdownGracefully();
+        controlGroup.shutdownGracefully();
+        mediaGroup.shutdownGracefully();
+        if (videoWorkerGroup != null) {
+            videoWorkerGroup.shutdownGracefully();
+        }
+        log.info("AirPlay transport stopped");
+    }
+
+    private static EventLoopGroup eventLoopGroup(int threads, String poolName) {
+        ThreadFactory threadFactory = new DefaultThreadFactory(poolName);
+        return Epoll.isAvailable() ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return Epoll.isAvailable() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    private static Class<? extends DatagramChannel> datagramChannelClass() {
+        return Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+}
@@ -1,85 +1,103 @@
 package com.github.serezhka.airplay.server.internal;
 
 import com.github.serezhka.airplay.server.internal.handler.audio.AudioControlHandler;
-import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollDatagramChannel;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
-import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
 
 import java.net.InetSocketAddress;
 import java.util.logging.Logger;
 
-public class AudioControlServer implements Runnable {
+public class AudioControlServer {
     
     private static final Logger log = Logger.getLogger(AudioControlServer.class.getName());
 
-    private Thread thread;
-    private int port;
+    private static final int RESEND_REQUEST_TYPE = 0x55;
 
-    public void start() throws InterruptedException {
-        thread = new Thread(this);
-        thread.start();
-        synchronized (this) {
-            wait();
-        }
+    private final AirPlayTransport transport;
+
+    private Channel channel;
+    private AudioControlHandler audioControlHandler;
+    private volatile int port;
+    private int resendRequestSeqNum;
+    private volatile long resendRequests;
+
+    public AudioControlServer(AirPlayTransport transport) {
+        this.transport = transport;
     }
 
-    public void stop() {
-        if (thread != null) {
-            thread.interrupt();
-            thread = null;
+    /**
+     * @return bind future, {@link #getPort()} is known once it completes
+     */
+    public ChannelFuture start(AudioServer audioServer) {
+        audioControlHandler = new AudioControlHandler(audioServer.getAudioClock(), audioServer::offerRetransmittedPacket);
+        ChannelFuture bindFuture = transport.getListenerPool().claimDatagram(new ChannelInitializer<DatagramChannel>() {
+            @Override
+            public void initChannel(final DatagramChannel ch) {
+                ch.pipeline().addLast("audioControlHandler", audioControlHandler);
+            }
+        });
+        channel = bindFuture.channel();
+        if (bindFuture.isDone()) {
+            onBound(bindFuture);
+        } else {
+            bindFuture.addListener((ChannelFutureListener) this::onBound);
         }
+        return bindFuture;
     }
 
-    @Override
-    public void run() {
-        var bootstrap = new Bootstrap();
-        var workerGroup = eventLoopGroup();
-
-        try {
-            bootstrap
-                    .group(workerGroup)
-                    .channel(datagramChannelClass())
-                    .localAddress(new InetSocketAddress(0)) // bind random port
-                    .handler(new ChannelInitializer<DatagramChannel>() {
-                        @Override
-                        public void initChannel(final DatagramChannel ch) {
-                            ch.pipeline().addLast("audioControlHandler", new AudioControlHandler());
-                        }
-                    });
-
-            var channelFuture = bootstrap.bind().sync();
-
-            port = ((InetSocketAddress) channelFuture.channel().localAddress()).getPort();
+    private void onBound(ChannelFuture future) {
+        if (future.isSuccess()) {
+            port = ((InetSocketAddress) future.channel().localAddress()).getPort();
             log.info("AirPlay audio control server listening on port: " + port);
+        }
+    }
 
-            synchronized (this) {
-                this.notify();
-            }
-
-            channelFuture.channel().closeFuture().sync();
-        } catch (InterruptedException e) {
-            log.info("AirPlay audio control server interrupted");
-        } finally {
+    public void stop() {
+        if (channel != null) {
+            channel.close();
+            channel = null;
             log.info("AirPlay audio control server stopped");
-            workerGroup.shutdownGracefully();
         }
     }
 
+    public boolean isRunning() {
+        return channel != null;
+    }
+
     public int getPort() {
         return port;
     }
 
-    private EventLoopGroup eventLoopGroup() {
-        return Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+    /**
+     * Asks the sender to retransmit {@code count} audio packets starting from {@code firstSeqNum}.
+     * Ignored until the sender's control address is known.
+     */
+    public void requestResend(int firstSeqNum, int count) {
+        Channel channel = this.channel;
+        InetSocketAddress senderAddress = audioControlHandler != null ? audioControlHandler.getSenderAddress() : null;
+        if (channel == null || senderAddress == null) {
+            return;
+        }
+        ByteBuf request = channel.alloc().buffer(8);
+        request.writeByte(0x80);
+        request.writeByte(RESEND_REQUEST_TYPE | 0x80);
+        request.writeShort(resendRequestSeqNum++);
+        request.writeShort(firstSeqNum);
+        request.writeShort(count);
+        channel.writeAndFlush(new DatagramPacket(request, senderAddress));
+        resendRequests++;
+    }
+
+    public long getResendRequests() {
+        return resendRequests;
     }
 
-    private Class<? extends DatagramChannel> datagramChannelClass() {
-        return Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    public long getRetransmittedPackets() {
+        return audioControlHandler != null ? audioControlHandler.getRetransmittedPackets() : 0;
     }
-}
\ No newline at end of file
+}
@@ -1,98 +1,132 @@
 package com.github.serezhka.airplay.server.internal;
 
 import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.lib.AudioStreamInfo;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
 import com.github.serezhka.airplay.server.internal.decoder.AudioDecoder;
+import com.github.serezhka.airplay.server.internal.handler.audio.AudioClock;
 import com.github.serezhka.airplay.server.internal.handler.audio.AudioHandler;
-import io.netty.bootstrap.Bootstrap;
+import com.github.serezhka.airplay.server.internal.handler.audio.AudioJitterBuffer;
+import com.github.serezhka.airplay.server.internal.packet.AudioPacket;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollDatagramChannel;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.handler.codec.DatagramPacketDecoder;
 
 import java.net.InetSocketAddress;
 import java.util.logging.Logger;
 
-public class AudioServer implements Runnable {
+public class AudioServer {
     
     private static final Logger log = Logger.getLogger(AudioServer.class.getName());
 
+    private static final int DEFAULT_SAMPLE_RATE = 44100;
+    private static final int DEFAULT_SAMPLES_PER_FRAME = 352;
+
+    private final String sessionId;
     private final AirPlay airPlay;
+    private final AudioControlServer audioControlServer;
+    private final AirPlayTransport transport;
 
-    private Thread thread;
+    private volatile Channel channel;
     private AirPlayConsumer airPlayConsumer;
-    private int port;
+    private volatile AudioJitterBuffer jitterBuffer;
+    private AudioClock audioClock;
+    private volatile int port;
     
-    public AudioServer(AirPlay airPlay) {
+    public AudioServer(String sessionId, AirPlay airPlay, AudioControlServer audioControlServer, AirPlayTransport transport) {
+        this.sessionId = sessionId;
         this.airPlay = airPlay;
+        this.audioControlServer = audioControlServer;
+        this.transport = transport;
     }
     
+    public boolean isRunning() {
+        return channel != null;
+    }
+
     public int getPort() {
         return port;
     }
 
-    public void start(AirPlayConsumer airPlayConsumer) throws InterruptedException {
-        this.airPlayConsumer = airPlayConsumer;
-        thread = new Thread(this);
-        thread.start();
-        synchronized (this) {
-            wait();
-        }
+    /**
+     * @return jitter buffer of the running stream, {@code null} if the server was never started
+     */
+    public AudioJitterBuffer getJitterBuffer() {
+        return jitterBuffer;
     }
 
-    public void stop() {
-        if (thread != null) {
-            thread.interrupt();
-            thread = null;
-            airPlayConsumer = null;
-        }
+    /**
+     * @return RTP to local time mapping of the running stream, {@code null} if the server was never started
+     */
+    public AudioClock getAudioClock() {
+        return audioClock;
     }
 
-    @Override
-    public void run() {
-        Bootstrap bootstrap = new Bootstrap();
-        EventLoopGroup workerGroup = eventLoopGroup();
-
-        try {
-            bootstrap
-                    .group(workerGroup)
-                    .channel(datagramChannelClass())
-                    .localAddress(new InetSocketAddress(0)) // bind random port
-                    .handler(new ChannelInitializer<DatagramChannel>() {
-                        @Override
-                        public void initChannel(final DatagramChannel ch) {
-                            ch.pipeline().addLast("audioDecoder", new DatagramPacketDecoder(new AudioDecoder()));
-                            ch.pipeline().addLast("audioHandler", new AudioHandler(airPlay, airPlayConsumer));
-                        }
-                    });
-            io.netty.channel.ChannelFuture channelFuture = bootstrap.bind().sync();
-
-            port = ((InetSocketAddress) channelFuture.channel().localAddress()).getPort();
-            log.info("AirPlay audio server listening on port: " + port);
+    /**
+     * Hands a packet retransmitted over the audio control channel to the audio pipeline
+     */
+    public void offerRetransmittedPacket(AudioPacket audioPacket) {
+        Channel channel = this.channel;
+        if (channel != null) {
+            channel.pipeline().context("audioDecoder").fireChannelRead(audioPacket);
+        }
+    }
 
-            synchronized (this) {
-                this.notify();
+    /**
+     * @return bind future, {@link #getPort()} is known once it completes
+     */
+    public ChannelFuture start(AirPlayConsumer airPlayConsumer, AudioStreamInfo audioStreamInfo) {
+        this.airPlayConsumer = airPlayConsumer;
+        int sampleRate = audioStreamInfo.getAudioFormat() != null ? audioStreamInfo.getAudioFormat().getSampleRate() : DEFAULT_SAMPLE_RATE;
+        int samplesPerFrame = audioStreamInfo.getSamplesPerFrame() > 0 ? audioStreamInfo.getSamplesPerFrame() : DEFAULT_SAMPLES_PER_FRAME;
+        AudioJitterBuffer jitterBuffer = new AudioJitterBuffer(sampleRate, samplesPerFrame, audioControlServer::requestResend);
+        AudioClock audioClock = new AudioClock(sampleRate);
+        this.jitterBuffer = jitterBuffer;
+        this.audioClock = audioClock;
+        ChannelFuture bindFuture = transport.getListenerPool().claimDatagram(new ChannelInitializer<DatagramChannel>() {
+            @Override
+            public void initChannel(final DatagramChannel ch) {
+                ch.pipeline().addLast("audioDecoder", new DatagramPacketDecoder(new AudioDecoder()));
+                ch.pipeline().addLast("audioHandler", new AudioHandler(sessionId, audioStreamInfo,
+                        airPlay, airPlayConsumer, jitterBuffer, audioClock, transport.getProtocolTrace()));
             }
+        });
+        channel = bindFuture.channel();
+        if (bindFuture.isDone()) {
+            onBound(bindFuture);
+        } else {
+            bindFuture.addListener((ChannelFutureListener) this::onBound);
+        }
+        return bindFuture;
+    }
 
-            channelFuture.channel().closeFuture().sync();
-        } catch (InterruptedException e) {
-            log.info("AirPlay audio server interrupted");
-        } finally {
-            log.info("AirPlay audio server stopped");
-            workerGroup.shutdownGracefully();
+    private void onBound(ChannelFuture future) {
+        if (future.isSuccess()) {
+            port = ((InetSocketAddress) future.channel().localAddress()).getPort();
+            log.info("AirPlay audio server listening on port: " + port);
         }
     }
 
-    private EventLoopGroup eventLoopGroup() {
-        return Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+    /**
+     * Drops the packets buffered for playout, on the audio channel's event loop
+     */
+    public void flush() {
+        Channel channel = this.channel;
+        AudioJitterBuffer jitterBuffer = this.jitterBuffer;
+        if (channel != null && jitterBuffer != null) {
+            channel.eventLoop().execute(jitterBuffer::reset);
+        }
     }
 
-    private Class<? extends DatagramChannel> datagramChannelClass() {
-        return Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    public void stop() {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            airPlayConsumer = null;
+            log.info("AirPlay audio server stopped");
+        }
     }
 }
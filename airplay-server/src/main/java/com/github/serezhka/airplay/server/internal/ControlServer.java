@@ -1,114 +1,115 @@
 package com.github.serezhka.airplay.server.internal;
 
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
 import com.github.serezhka.airplay.server.AirPlayConfig;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.ProtocolTrace;
+import com.github.serezhka.airplay.server.SegmentCacheStats;
 import com.github.serezhka.airplay.server.internal.handler.control.ControlHandler;
+import com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes;
+import com.github.serezhka.airplay.server.internal.handler.control.ProtocolTraceHandler;
+import com.github.serezhka.airplay.server.internal.handler.playlist.HttpSegmentUpstream;
+import com.github.serezhka.airplay.server.internal.handler.playlist.SegmentCache;
 import com.github.serezhka.airplay.server.internal.handler.session.SessionManager;
-import io.netty.bootstrap.ServerBootstrap;
+import com.github.serezhka.airplay.server.internal.handler.util.PropertyListCache;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.rtsp.RtspDecoder;
 import io.netty.handler.codec.rtsp.RtspEncoder;
-import io.netty.handler.logging.ByteBufFormat;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.logging.Logger;
 
-public class ControlServer implements Runnable {
+public class ControlServer {
     
     private static final Logger log = Logger.getLogger(ControlServer.class.getName());
 
-    private final SessionManager sessionManager = new SessionManager();
+    private final SessionManager sessionManager;
+    private final ControlRoutes routes = ControlHandler.createRoutes();
+    private final PropertyListCache responses;
+    private final SegmentCacheStats segmentCacheStats = new SegmentCacheStats();
 
     private final AirPlayConfig airPlayConfig;
     private final AirPlayConsumer airPlayConsumer;
+    private final AirPlayTransport transport;
 
-    private Thread thread;
+    private Channel channel;
     private int port;
+    // null unless segments are proxied
+    private SegmentCache segmentCache;
     
-    public ControlServer(AirPlayConfig airPlayConfig, AirPlayConsumer airPlayConsumer) {
+    public ControlServer(AirPlayConfig airPlayConfig, AirPlayConsumer airPlayConsumer, AirPlayTransport transport,
+                         ReceiverIdentity identity) {
         this.airPlayConfig = airPlayConfig;
         this.airPlayConsumer = airPlayConsumer;
+        this.transport = transport;
+        this.responses = new PropertyListCache(airPlayConfig);
+        this.sessionManager = new SessionManager(transport, airPlayConsumer, identity,
+                airPlayConfig.getSessionIdleTimeoutMillis());
     }
     
     public int getPort() {
         return port;
     }
 
-    public void start() throws InterruptedException {
-        thread = new Thread(this);
-        thread.start();
-        synchronized (this) {
-            wait();
-        }
+    public SessionManager getSessionManager() {
+        return sessionManager;
     }
 
-    public void stop() {
-        if (thread != null) {
-            thread.interrupt();
-            thread = null;
-        }
+    public ControlRoutes getRoutes() {
+        return routes;
     }
 
-    @Override
-    public void run() {
-        ServerBootstrap serverBootstrap = new ServerBootstrap();
-        EventLoopGroup bossGroup = eventLoopGroup();
-        EventLoopGroup workerGroup = eventLoopGroup();
-        try {
-            serverBootstrap
-                    .group(bossGroup, workerGroup)
-                    .channel(serverSocketChannelClass())
-                    .localAddress(new InetSocketAddress(0)) // bind random port
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(final SocketChannel ch) {
-                            ch.pipeline().addLast(
-                                    new RtspDecoder(),
-                                    new RtspEncoder(),
-                                    new HttpObjectAggregator(64 * 1024),
-                                    new LoggingHandler(LogLevel.INFO, ByteBufFormat.SIMPLE),
-                                    new ControlHandler(airPlayConsumer));
+    public SegmentCacheStats getSegmentCacheStats() {
+        return segmentCacheStats;
+    }
+
+    public void start() throws InterruptedException, IOException {
+        ProtocolTrace protocolTrace = transport.getProtocolTrace();
+        if (airPlayConfig.getSegmentCacheMemoryBytes() > 0) {
+            segmentCache = new SegmentCache(
+                    airPlayConfig.getSegmentUpstream() != null ? airPlayConfig.getSegmentUpstream() : new HttpSegmentUpstream(),
+                    airPlayConfig.getSegmentCacheMemoryBytes(), airPlayConfig.getSegmentCacheDiskBytes(),
+                    airPlayConfig.getSegmentCacheDirectory(), segmentCacheStats);
+        }
+        SegmentCache segmentCache = this.segmentCache;
+        var channelFuture = transport.controlServerBootstrap()
+                .localAddress(new InetSocketAddress(0)) // bind random port
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(final SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new RtspDecoder(),
+                                new RtspEncoder(),
+                                new HttpObjectAggregator(64 * 1024));
+                        if (protocolTrace.isEnabled()) {
+                            ch.pipeline().addLast(new ProtocolTraceHandler(protocolTrace));
                         }
-                    })
-                    .childOption(ChannelOption.TCP_NODELAY, true)
-                    .childOption(ChannelOption.SO_REUSEADDR, true)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
-            io.netty.channel.ChannelFuture channelFuture = serverBootstrap.bind().sync();
+                        ch.pipeline().addLast(new ControlHandler(airPlayConfig, airPlayConsumer, sessionManager, routes, responses,
+                                segmentCache));
+                    }
+                })
+                .bind().sync();
 
-            port = ((InetSocketAddress) channelFuture.channel().localAddress()).getPort();
-            log.info("AirPlay control server listening on port: " + port);
+        channel = channelFuture.channel();
+        port = ((InetSocketAddress) channel.localAddress()).getPort();
+        sessionManager.startEviction();
+        log.info("AirPlay control server listening on port: " + port);
+    }
 
-            synchronized (this) {
-                this.notify();
+    public void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+            channel = null;
+            sessionManager.stop();
+            if (segmentCache != null) {
+                segmentCache.close();
+                segmentCache = null;
             }
-
-            channelFuture.channel().closeFuture().sync();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
             log.info("AirPlay control server stopped");
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
         }
     }
-
-    private EventLoopGroup eventLoopGroup() {
-        return Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup();
-    }
-
-    private Class<? extends ServerSocketChannel> serverSocketChannelClass() {
-        return Epoll.isAvailable() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
-    }
 }
@@ -0,0 +1,205 @@
+package com.github.serezhka.airplay.server.internal;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Media listeners bound to random ports ahead of time, so RTSP SETUP can answer with a port without waiting for
+ * a bind. A claimed listener is replaced by a new one bound in the background.
+ * <p>
+ * TCP listeners dispatch accepted connections to the child handler set on claim. UDP channels get the claimer's
+ * handler added to their pipeline. If the pool is empty the listener is bound on demand, as before.
+ */
+public class MediaListenerPool {
+
+    private static final Logger log = Logger.getLogger(MediaListenerPool.class.getName());
+
+    private static final AttributeKey<ChannelHandler> CHILD_HANDLER = AttributeKey.valueOf("airplay.childHandler");
+
+    private final ServerBootstrap serverBootstrap;
+    private final Bootstrap datagramBootstrap;
+    private final EventExecutor replenishExecutor;
+    private final int serverTarget;
+    private final int datagramTarget;
+
+    private final Queue<Channel> serverChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Channel> datagramChannels = new ConcurrentLinkedQueue<>();
+    private int pendingServerBinds;
+    private int pendingDatagramBinds;
+    private volatile boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param replenishExecutor runs the binds replacing claimed listeners, so claiming costs no channel creation
+     * @param size              TCP listeners kept ready, twice as many UDP channels are kept since an audio SETUP
+     *                          takes two
+     */
+    MediaListenerPool(ServerBootstrap serverBootstrap, Bootstrap datagramBootstrap, EventExecutor replenishExecutor,
+                      int size) {
+        this.serverBootstrap = serverBootstrap
+                .localAddress(new InetSocketAddress(0)) // bind random port
+                .childHandler(new ChildDispatcher());
+        this.datagramBootstrap = datagramBootstrap
+                .localAddress(new InetSocketAddress(0)) // bind random port
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        // handlers are added on claim
+                    }
+                });
+        this.serverTarget = Math.max(0, size);
+        this.datagramTarget = 2 * serverTarget;
+        this.replenishExecutor = replenishExecutor;
+        replenishExecutor.execute(this::replenish);
+    }
+
+    /**
+     * Never blocks, the returned future is already done unless the pool was empty
+     *
+     * @param childHandler handler of accepted connections, usually a {@link ChannelInitializer}
+     * @return bind future of the TCP listener
+     */
+    public ChannelFuture claimServer(ChannelHandler childHandler) {
+        ChannelFuture bindFuture = claim(serverChannels, serverBootstrap);
+        bindFuture.channel().attr(CHILD_HANDLER).set(childHandler);
+        return bindFuture;
+    }
+
+    /**
+     * Never blocks, the returned future is already done unless the pool was empty
+     *
+     * @param handler handler added to the channel pipeline, usually a {@link ChannelInitializer}
+     * @return bind future of the UDP channel
+     */
+    public ChannelFuture claimDatagram(ChannelHandler handler) {
+        ChannelFuture bindFuture = claim(datagramChannels, datagramBootstrap);
+        bindFuture.channel().pipeline().addLast(handler);
+        return bindFuture;
+    }
+
+    private ChannelFuture claim(Queue<Channel> channels, AbstractBootstrap<?, ?> bootstrap) {
+        Channel channel = poll(channels);
+        ChannelFuture bindFuture;
+        if (channel == null) {
+            misses.incrementAndGet();
+            bindFuture = bootstrap.bind();
+        } else {
+            hits.incrementAndGet();
+            bindFuture = channel.newSucceededFuture();
+        }
+        replenishExecutor.execute(this::replenish);
+        return bindFuture;
+    }
+
+    private static Channel poll(Queue<Channel> channels) {
+        Channel channel;
+        while ((channel = channels.poll()) != null) {
+            if (channel.isActive()) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts binds for missing listeners, doesn't wait for them
+     */
+    private synchronized void replenish() {
+        if (closed) {
+            return;
+        }
+        while (serverChannels.size() + pendingServerBinds < serverTarget) {
+            pendingServerBinds++;
+            serverBootstrap.bind().addListener((ChannelFuture future) -> onBound(future, serverChannels, true));
+        }
+        while (datagramChannels.size() + pendingDatagramBinds < datagramTarget) {
+            pendingDatagramBinds++;
+            datagramBootstrap.bind().addListener((ChannelFuture future) -> onBound(future, datagramChannels, false));
+        }
+    }
+
+    private synchronized void onBound(ChannelFuture future, Queue<Channel> channels, boolean server) {
+        if (server) {
+            pendingServerBinds--;
+        } else {
+            pendingDatagramBinds--;
+        }
+        if (!future.isSuccess()) {
+            log.warning("Can't pre-bind media listener: " + future.cause());
+            return;
+        }
+        if (closed) {
+            future.channel().close();
+        } else {
+            channels.offer(future.channel());
+        }
+    }
+
+    /**
+     * Closes the listeners not claimed yet
+     */
+    public synchronized void close() {
+        closed = true;
+        Channel channel;
+        while ((channel = serverChannels.poll()) != null) {
+            channel.close();
+        }
+        while ((channel = datagramChannels.poll()) != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return claims served by a pre-bound listener
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return claims which had to bind on demand
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getAvailableServers() {
+        return serverChannels.size();
+    }
+
+    public int getAvailableDatagrams() {
+        return datagramChannels.size();
+    }
+
+    /**
+     * Hands accepted connections to the handler the listener was claimed with
+     */
+    @ChannelHandler.Sharable
+    private static class ChildDispatcher extends ChannelInitializer<Channel> {
+
+        @Override
+        protected void initChannel(Channel ch) {
+            ChannelHandler childHandler = ch.parent().attr(CHILD_HANDLER).get();
+            if (childHandler == null) {
+                ch.close(); // listener not claimed yet
+                return;
+            }
+            ch.pipeline().addLast(childHandler);
+        }
+    }
+}
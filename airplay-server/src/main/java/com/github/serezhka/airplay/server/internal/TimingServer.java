@@ -0,0 +1,120 @@
+package com.github.serezhka.airplay.server.internal;
+
+import com.github.serezhka.airplay.server.internal.handler.timing.SenderClock;
+import com.github.serezhka.airplay.server.internal.handler.timing.TimingHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Per-session NTP timing channel. Answers timing requests of the sender and polls the sender's timing port,
+ * so that {@link #getSenderClock()} maps sender NTP timestamps to local time.
+ */
+public class TimingServer {
+
+    private static final Logger log = Logger.getLogger(TimingServer.class.getName());
+
+    private static final int FAST_REQUESTS = 4;
+    private static final long FAST_INTERVAL_MILLIS = 250;
+    private static final long INTERVAL_MILLIS = 3000;
+
+    private final AirPlayTransport transport;
+    private final SenderClock senderClock;
+
+    private Channel channel;
+    private TimingHandler timingHandler;
+    private InetSocketAddress senderTimingAddress;
+    private volatile int port;
+    private int requestSeqNum;
+    private volatile long sentRequests;
+
+    public TimingServer(AirPlayTransport transport) {
+        this.transport = transport;
+        this.senderClock = new SenderClock();
+    }
+
+    /**
+     * @param senderTimingAddress sender's timing address to poll, {@code null} to only answer requests
+     * @return bind future, {@link #getPort()} is known once it completes
+     */
+    public ChannelFuture start(InetSocketAddress senderTimingAddress) {
+        this.senderTimingAddress = senderTimingAddress;
+        timingHandler = new TimingHandler(senderClock);
+        ChannelFuture bindFuture = transport.getListenerPool().claimDatagram(new ChannelInitializer<DatagramChannel>() {
+            @Override
+            public void initChannel(final DatagramChannel ch) {
+                ch.pipeline().addLast("timingHandler", timingHandler);
+            }
+        });
+        channel = bindFuture.channel();
+        if (bindFuture.isDone()) {
+            onBound(bindFuture);
+        } else {
+            bindFuture.addListener((ChannelFutureListener) this::onBound);
+        }
+        return bindFuture;
+    }
+
+    private void onBound(ChannelFuture future) {
+        if (!future.isSuccess()) {
+            return;
+        }
+        port = ((InetSocketAddress) future.channel().localAddress()).getPort();
+        if (senderTimingAddress != null) {
+            future.channel().eventLoop().execute(() -> sendRequest(future.channel()));
+        }
+        log.info("AirPlay timing server listening on port: " + port + ", sender timing address: " + senderTimingAddress);
+    }
+
+    public void stop() {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            log.info("AirPlay timing server stopped");
+        }
+    }
+
+    public boolean isRunning() {
+        return channel != null;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public SenderClock getSenderClock() {
+        return senderClock;
+    }
+
+    public long getSentRequests() {
+        return sentRequests;
+    }
+
+    public long getServedRequests() {
+        return timingHandler != null ? timingHandler.getServedRequests() : 0;
+    }
+
+    private void sendRequest(Channel channel) {
+        if (!channel.isActive()) {
+            return;
+        }
+        ByteBuf request = channel.alloc().buffer(TimingHandler.TIMING_PACKET_SIZE);
+        request.writeByte(0x80);
+        request.writeByte(TimingHandler.TIMING_REQUEST_TYPE | 0x80);
+        request.writeShort(requestSeqNum++);
+        request.writeZero(20);
+        request.writeLong(senderClock.localNtpTime(System.nanoTime()));
+        channel.writeAndFlush(new DatagramPacket(request, senderTimingAddress));
+        sentRequests++;
+        long delay = sentRequests < FAST_REQUESTS ? FAST_INTERVAL_MILLIS : INTERVAL_MILLIS;
+        channel.eventLoop().schedule(() -> sendRequest(channel), delay, TimeUnit.MILLISECONDS);
+    }
+}
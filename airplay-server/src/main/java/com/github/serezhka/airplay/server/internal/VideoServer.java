@@ -1,103 +1,145 @@
 package com.github.serezhka.airplay.server.internal;
 
 import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.lib.VideoStreamInfo;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.VideoBackpressurePolicy;
 import com.github.serezhka.airplay.server.internal.decoder.VideoDecoder;
+import com.github.serezhka.airplay.server.internal.handler.session.ConnectTrace;
+import com.github.serezhka.airplay.server.internal.handler.timing.SenderClock;
+import com.github.serezhka.airplay.server.internal.handler.video.CodecConfigCache;
+import com.github.serezhka.airplay.server.internal.handler.video.ReadSuspender;
+import com.github.serezhka.airplay.server.internal.handler.video.VideoDecryptHandler;
+import com.github.serezhka.airplay.server.internal.handler.video.VideoFlowControl;
 import com.github.serezhka.airplay.server.internal.handler.video.VideoHandler;
-import io.netty.bootstrap.ServerBootstrap;
+import com.github.serezhka.airplay.server.internal.handler.video.VideoWorkerGate;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 import java.net.InetSocketAddress;
 import java.util.logging.Logger;
 
-public class VideoServer implements Runnable {
+public class VideoServer {
     
     private static final Logger log = Logger.getLogger(VideoServer.class.getName());
 
+    private final String sessionId;
     private final AirPlay airPlay;
+    private final SenderClock senderClock;
+    private final ConnectTrace connectTrace;
+    private final AirPlayTransport transport;
+    private final CodecConfigCache codecConfigCache = new CodecConfigCache();
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
-    private Thread thread;
+    private volatile Channel channel;
     private AirPlayConsumer airPlayConsumer;
-    private int port;
+    private volatile VideoWorkerGate workerGate;
+    private volatile VideoFlowControl flowControl;
+    private volatile int port;
     
-    public VideoServer(AirPlay airPlay) {
+    public VideoServer(String sessionId, AirPlay airPlay, SenderClock senderClock, ConnectTrace connectTrace,
+                       AirPlayTransport transport) {
+        this.sessionId = sessionId;
         this.airPlay = airPlay;
+        this.senderClock = senderClock;
+        this.connectTrace = connectTrace;
+        this.transport = transport;
+    }
+    
+    public boolean isRunning() {
+        return channel != null;
     }
     
     public int getPort() {
         return port;
     }
 
-    public void start(AirPlayConsumer airPlayConsumer) throws InterruptedException {
-        this.airPlayConsumer = airPlayConsumer;
-        thread = new Thread(this);
-        thread.start();
-        synchronized (this) {
-            wait();
-        }
+    /**
+     * @return worker queue of the latest mirroring connection, {@code null} if video is processed on the event loop
+     */
+    public VideoWorkerGate getWorkerGate() {
+        return workerGate;
     }
 
-    public void stop() {
-        if (thread != null) {
-            thread.interrupt();
-            thread = null;
-            airPlayConsumer = null;
-        }
+    /**
+     * @return consumer backpressure state of the latest mirroring connection
+     */
+    public VideoFlowControl getFlowControl() {
+        return flowControl;
     }
 
-    @Override
-    public void run() {
-        ServerBootstrap serverBootstrap = new ServerBootstrap();
-        EventLoopGroup bossGroup = eventLoopGroup();
-        EventLoopGroup workerGroup = eventLoopGroup();
-        try {
-            serverBootstrap
-                    .group(bossGroup, workerGroup)
-                    .channel(serverSocketChannelClass())
-                    .localAddress(new InetSocketAddress(0)) // bind random port
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(final SocketChannel ch) {
-                            ch.pipeline().addLast("videoDecoder", new VideoDecoder());
-                            ch.pipeline().addLast("videoHandler", new VideoHandler(airPlay, airPlayConsumer));
-                        }
-                    })
-                    .childOption(ChannelOption.TCP_NODELAY, true)
-                    .childOption(ChannelOption.SO_REUSEADDR, true)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
-            io.netty.channel.ChannelFuture channelFuture = serverBootstrap.bind().sync();
-
-            port = ((InetSocketAddress) channelFuture.channel().localAddress()).getPort();
-            log.info("AirPlay video server listening on port: " + port);
+    /**
+     * @return last SPS/PPS of the session and the stream info derived from it
+     */
+    public CodecConfigCache getCodecConfigCache() {
+        return codecConfigCache;
+    }
 
-            synchronized (this) {
-                this.notify();
+    /**
+     * @param videoStreamInfo      stream info of the SETUP request, completed from the SPS once it's received
+     * @param maxOutstandingFrames frames the consumer may hold before {@code backpressurePolicy} applies, 0 for no limit
+     * @return bind future, {@link #getPort()} is known once it completes
+     */
+    public ChannelFuture start(AirPlayConsumer airPlayConsumer, VideoStreamInfo videoStreamInfo,
+                               VideoBackpressurePolicy backpressurePolicy, int maxOutstandingFrames) {
+        this.airPlayConsumer = airPlayConsumer;
+        codecConfigCache.reset(videoStreamInfo);
+        ChannelFuture bindFuture = transport.getListenerPool().claimServer(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(final SocketChannel ch) {
+                channels.add(ch);
+                codecConfigCache.clearConfig();
+                ReadSuspender readSuspender = new ReadSuspender(ch);
+                VideoFlowControl videoFlowControl = new VideoFlowControl(backpressurePolicy, maxOutstandingFrames, readSuspender);
+                flowControl = videoFlowControl;
+                VideoHandler videoHandler = new VideoHandler(sessionId, airPlayConsumer, senderClock, videoFlowControl,
+                        codecConfigCache, connectTrace);
+                EventExecutorGroup workerGroup = transport.getVideoWorkerGroup();
+                if (workerGroup == null) {
+                    ch.pipeline().addLast("videoDecoder", new VideoDecoder(airPlay, true, transport.getProtocolTrace(), sessionId));
+                    ch.pipeline().addLast("videoHandler", videoHandler);
+                } else {
+                    // decrypt, NAL rewriting and delivery run on one worker per connection, in order
+                    VideoWorkerGate gate = new VideoWorkerGate(transport.getVideoWorkerQueueSize(), readSuspender);
+                    workerGate = gate;
+                    ch.pipeline().addLast("videoDecoder", new VideoDecoder(airPlay, false, transport.getProtocolTrace(), sessionId));
+                    ch.pipeline().addLast("videoWorkerGate", gate);
+                    ch.pipeline().addLast(workerGroup, "videoDecrypt", new VideoDecryptHandler(airPlay, gate));
+                    ch.pipeline().addLast(workerGroup, "videoHandler", videoHandler);
+                }
             }
-
-            channelFuture.channel().closeFuture().sync();
-        } catch (InterruptedException e) {
-            log.info("AirPlay video server interrupted");
-        } finally {
-            log.info("AirPlay video server stopped");
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+        });
+        channel = bindFuture.channel();
+        channels.add(channel);
+        // a pre-bound listener is already bound, set the port now rather than from its event loop
+        if (bindFuture.isDone()) {
+            onBound(bindFuture);
+        } else {
+            bindFuture.addListener((ChannelFutureListener) this::onBound);
         }
+        return bindFuture;
     }
 
-    private EventLoopGroup eventLoopGroup() {
-        return Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+    private void onBound(ChannelFuture future) {
+        if (future.isSuccess()) {
+            port = ((InetSocketAddress) future.channel().localAddress()).getPort();
+            log.info("AirPlay video server listening on port: " + port);
+        }
     }
 
-    private Class<? extends ServerSocketChannel> serverSocketChannelClass() {
-        return Epoll.isAvailable() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    public void stop() {
+        if (channel != null) {
+            channels.close();
+            channel = null;
+            airPlayConsumer = null;
+            log.info("AirPlay video server stopped");
+        }
     }
 }
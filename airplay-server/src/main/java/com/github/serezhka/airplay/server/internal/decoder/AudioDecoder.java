@@ -9,21 +9,25 @@ import java.util.List;
 
 public class AudioDecoder extends MessageToMessageDecoder<ByteBuf> {
 
+    private static final int RTP_HEADER_SIZE = 12;
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) {
-        byte[] headerBytes = new byte[12];
-        msg.readBytes(headerBytes);
-
-        int flag = headerBytes[0] & 0xFF;
-        int type = headerBytes[1] & 0x7F;
-
-        int seqNumber = ((headerBytes[2] & 0xFF) << 8) | (headerBytes[3] & 0xFF);
+        out.add(decodePacket(msg));
+    }
 
-        long timestamp = (headerBytes[7] & 0xFF) | ((headerBytes[6] & 0xFF) << 8) |
-                ((headerBytes[5] & 0xFF) << 16) | ((headerBytes[4] & 0xFF) << 24);
+    /**
+     * Decodes RTP audio packet, also used for packets retransmitted over the audio control channel
+     */
+    public static AudioPacket decodePacket(ByteBuf msg) {
+        int index = msg.readerIndex();
 
-        long ssrc = (headerBytes[11] & 0xFF) | ((headerBytes[6] & 0xFF) << 8) |
-                ((headerBytes[9] & 0xFF) << 16) | ((headerBytes[8] & 0xFF) << 24);
+        int flag = msg.getUnsignedByte(index);
+        int type = msg.getUnsignedByte(index + 1) & 0x7F;
+        int seqNumber = msg.getUnsignedShort(index + 2);
+        long timestamp = msg.getUnsignedInt(index + 4);
+        long ssrc = msg.getUnsignedInt(index + 8);
+        msg.skipBytes(RTP_HEADER_SIZE);
 
         AudioPacket audioPacket = AudioPacket.builder()
                 .flag(flag)
@@ -35,6 +39,6 @@ public class AudioDecoder extends MessageToMessageDecoder<ByteBuf> {
                 .encodedAudioSize(msg.readableBytes())
                 .build();
         audioPacket.encodedAudio(packet -> msg.readBytes(packet, 0, msg.readableBytes()));
-        out.add(audioPacket);
+        return audioPacket;
     }
 }
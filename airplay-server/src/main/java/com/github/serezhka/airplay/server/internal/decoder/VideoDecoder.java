@@ -1,57 +1,138 @@
 package com.github.serezhka.airplay.server.internal.decoder;
 
+import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.server.ProtocolTrace;
 import com.github.serezhka.airplay.server.internal.packet.VideoPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.logging.Logger;
 
-public class VideoDecoder extends ReplayingDecoder<VideoDecoder.DecoderState> {
+/**
+ * Streaming decoder of the mirroring stream.
+ * <p>
+ * The payload of a picture packet is copied into a pooled frame buffer and decrypted (AES-CTR) chunk by chunk as TCP
+ * segments arrive, so the frame is emitted as soon as its last byte is received and no decrypt work is left for
+ * large key frames.
+ * <p>
+ * With a video worker stage the decoder only frames the stream and decryption is left to
+ * {@link com.github.serezhka.airplay.server.internal.handler.video.VideoDecryptHandler}.
+ */
+public class VideoDecoder extends ByteToMessageDecoder {
     
     private static final Logger log = Logger.getLogger(VideoDecoder.class.getName());
 
+    private static final int HEADER_SIZE = 128;
+
     public enum DecoderState {
         READ_HEADER,
-        READ_PAYLOAD
+        READ_PAYLOAD,
+        SKIP_PAYLOAD
     }
 
-    public VideoDecoder() {
-        super(DecoderState.READ_HEADER);
-    }
+    private final AirPlay airPlay;
+    private final boolean decrypt;
+    private final ProtocolTrace trace;
+    private final String sessionId;
+    private final boolean traced;
 
+    private DecoderState state = DecoderState.READ_HEADER;
     private int payloadSize;
     private short payloadType;
     // private short payloadOption;
-    // private long timestamp;
+    private long timestamp;
+
+    private ByteBuf frame;
+    private int remaining;
+    private boolean decryptFailed;
+
+    public VideoDecoder(AirPlay airPlay) {
+        this(airPlay, true, ProtocolTrace.DISABLED, null);
+    }
+
+    /**
+     * @param decrypt whether picture payloads are decrypted while being read
+     * @param trace   records the header of every packet if the session is sampled
+     */
+    public VideoDecoder(AirPlay airPlay, boolean decrypt, ProtocolTrace trace, String sessionId) {
+        this.airPlay = airPlay;
+        this.decrypt = decrypt;
+        this.trace = trace;
+        this.sessionId = sessionId;
+        this.traced = trace.isSampled(sessionId);
+    }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
-        switch (state()) {
-            case READ_HEADER:
-                ByteBuf headerBuf = in.readSlice(128);
-                payloadSize = (int) headerBuf.readUnsignedIntLE();
-                payloadType = (short) (headerBuf.readUnsignedShortLE() & 0xff);
-                // payloadOption = (short) headerBuf.readUnsignedShortLE();
-                // timestamp = headerBuf.readLongLE();
-                checkpoint(DecoderState.READ_PAYLOAD);
-            case READ_PAYLOAD:
-                if (payloadType == 0 || payloadType == 1) {
-                    ByteBuf payloadBuf = in.readSlice(payloadSize);
-                    byte[] payloadBytes = new byte[payloadSize];
-                    payloadBuf.readBytes(payloadBytes);
-                    checkpoint(DecoderState.READ_HEADER);
-                    out.add(new VideoPacket(payloadType, payloadSize, payloadBytes));
-                } else {
-                    log.info("Video packet with type: {}, length: {} bytes is skipped" + payloadType + ", " + payloadSize);
-                    in.skipBytes(payloadSize);
-                    checkpoint(DecoderState.READ_HEADER);
+        while (in.isReadable()) {
+            switch (state) {
+                case READ_HEADER:
+                    if (in.readableBytes() < HEADER_SIZE) {
+                        return;
+                    }
+                    ByteBuf headerBuf = in.readSlice(HEADER_SIZE);
+                    payloadSize = (int) headerBuf.readUnsignedIntLE();
+                    payloadType = (short) (headerBuf.readUnsignedShortLE() & 0xff);
+                    headerBuf.skipBytes(2); // payloadOption = (short) headerBuf.readUnsignedShortLE();
+                    timestamp = headerBuf.readLongLE();
+                    remaining = payloadSize;
+                    if (traced) {
+                        trace.record(sessionId, ProtocolTrace.Kind.VIDEO, null, null, payloadType, payloadSize);
+                    }
+                    if (payloadType == 0 || payloadType == 1) {
+                        frame = ctx.alloc().directBuffer(payloadSize, payloadSize);
+                        decryptFailed = false;
+                        state = DecoderState.READ_PAYLOAD;
+                    } else {
+                        short skippedType = payloadType;
+                        int skippedSize = payloadSize;
+                        log.fine(() -> "Video packet with type: " + skippedType + ", length: " + skippedSize + " bytes is skipped");
+                        state = DecoderState.SKIP_PAYLOAD;
+                    }
+                    break;
+                case READ_PAYLOAD:
+                    int chunkSize = Math.min(remaining, in.readableBytes());
+                    int chunkIndex = frame.writerIndex();
+                    frame.writeBytes(in, chunkSize);
+                    remaining -= chunkSize;
+                    if (decrypt && payloadType == 0 && !decryptFailed) {
+                        try {
+                            airPlay.decryptVideo(frame.nioBuffer(chunkIndex, chunkSize));
+                        } catch (Exception e) {
+                            log.severe(e.getMessage());
+                            decryptFailed = true;
+                        }
+                    }
+                    break;
+                case SKIP_PAYLOAD:
+                    int skipSize = Math.min(remaining, in.readableBytes());
+                    in.skipBytes(skipSize);
+                    remaining -= skipSize;
+                    break;
+                default:
+                    throw new Error("Shouldn't reach here.");
+            }
+            if (state != DecoderState.READ_HEADER && remaining == 0) {
+                if (state == DecoderState.READ_PAYLOAD) {
+                    if (decryptFailed) {
+                        frame.release();
+                    } else {
+                        out.add(new VideoPacket(payloadType, payloadSize, timestamp, frame));
+                    }
+                    frame = null;
                 }
-                break;
-            default:
-                throw new Error("Shouldn't reach here.");
+                state = DecoderState.READ_HEADER;
+            }
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        if (frame != null) {
+            frame.release();
+            frame = null;
         }
     }
 }
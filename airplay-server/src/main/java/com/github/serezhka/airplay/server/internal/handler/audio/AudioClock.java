@@ -0,0 +1,132 @@
+package com.github.serezhka.airplay.server.internal.handler.audio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps RTP timestamps of the audio stream to local {@link System#nanoTime()} playout instants.
+ * <p>
+ * Fed by sync packets (type 0x54) received on the audio control channel. Each sync packet names the RTP timestamp
+ * the sender is playing right now and the latency the receiver should add. The mapping is anchored at the arrival
+ * time of sync packets; arrival jitter is smoothed by moving the anchor only by a fraction of the observed error,
+ * a large error (flush, sender restart) re-anchors it immediately.
+ * <p>
+ * Written from the audio control event loop, read from any thread.
+ */
+public class AudioClock {
+
+    private static final int ERROR_SMOOTHING = 8;
+    private static final long RESYNC_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final int sampleRate;
+
+    private volatile Anchor anchor;
+    private volatile long syncPackets;
+    private volatile long resyncs;
+    private volatile long lastErrorNanos;
+
+    public AudioClock(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param rtpTimestamp             RTP timestamp the sender plays at {@code ntpTime}
+     * @param rtpTimestampLessLatency  same timestamp minus the requested receiver latency
+     * @param ntpTime                  sender NTP time of the sync packet, 32.32 fixed point
+     * @param localNanos               local time the sync packet was received at
+     */
+    public void onSync(long rtpTimestamp, long rtpTimestampLessLatency, long ntpTime, long localNanos) {
+        long latencyNanos = framesToNanos((int) (rtpTimestamp - rtpTimestampLessLatency));
+        Anchor current = anchor;
+        long anchorNanos = localNanos;
+        if (current != null) {
+            long predicted = current.localNanos + framesToNanos((int) (rtpTimestamp - current.rtpTimestamp));
+            long error = localNanos - predicted;
+            lastErrorNanos = error;
+            if (Math.abs(error) < RESYNC_THRESHOLD_NANOS) {
+                anchorNanos = predicted + error / ERROR_SMOOTHING;
+            } else {
+                resyncs++;
+            }
+        }
+        anchor = new Anchor(rtpTimestamp, anchorNanos, latencyNanos, ntpTime);
+        syncPackets++;
+    }
+
+    public boolean isSynced() {
+        return anchor != null;
+    }
+
+    /**
+     * @return local {@link System#nanoTime()} at which the sample with the given RTP timestamp has to be played,
+     * or {@link Long#MIN_VALUE} until the first sync packet is received
+     */
+    public long toLocalNanos(long rtpTimestamp) {
+        Anchor current = anchor;
+        if (current == null) {
+            return Long.MIN_VALUE;
+        }
+        return current.localNanos + current.latencyNanos + framesToNanos((int) (rtpTimestamp - current.rtpTimestamp));
+    }
+
+    /**
+     * @return RTP timestamp of the sample which has to be played at the given local time
+     */
+    public long toRtpTimestamp(long localNanos) {
+        Anchor current = anchor;
+        if (current == null) {
+            return -1;
+        }
+        long frames = (localNanos - current.localNanos - current.latencyNanos) * sampleRate / TimeUnit.SECONDS.toNanos(1);
+        return (current.rtpTimestamp + frames) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return sender NTP time of the last sync packet, 32.32 fixed point
+     */
+    public long getLastSyncNtpTime() {
+        Anchor current = anchor;
+        return current != null ? current.ntpTime : 0;
+    }
+
+    public long getLatencyNanos() {
+        Anchor current = anchor;
+        return current != null ? current.latencyNanos : 0;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getSyncPackets() {
+        return syncPackets;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * @return difference between the arrival of the last sync packet and its predicted arrival
+     */
+    public long getLastErrorNanos() {
+        return lastErrorNanos;
+    }
+
+    private long framesToNanos(int frames) {
+        return frames * TimeUnit.SECONDS.toNanos(1) / sampleRate;
+    }
+
+    private static final class Anchor {
+        private final long rtpTimestamp;
+        private final long localNanos;
+        private final long latencyNanos;
+        private final long ntpTime;
+
+        private Anchor(long rtpTimestamp, long localNanos, long latencyNanos, long ntpTime) {
+            this.rtpTimestamp = rtpTimestamp;
+            this.localNanos = localNanos;
+            this.latencyNanos = latencyNanos;
+            this.ntpTime = ntpTime;
+        }
+    }
+}
@@ -1,22 +1,79 @@
 package com.github.serezhka.airplay.server.internal.handler.audio;
 
+import com.github.serezhka.airplay.server.internal.decoder.AudioDecoder;
+import com.github.serezhka.airplay.server.internal.packet.AudioPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class AudioControlHandler extends SimpleChannelInboundHandler<DatagramPacket> {
     
     private static final Logger log = Logger.getLogger(AudioControlHandler.class.getName());
 
+    private static final int SYNC_TYPE = 0x54;
+    private static final int RETRANSMIT_REPLY_TYPE = 0x56;
+    private static final int SYNC_PACKET_SIZE = 20;
+    private static final int RETRANSMIT_HEADER_SIZE = 4;
+    private static final int RTP_HEADER_SIZE = 12;
+
+    private final AudioClock audioClock;
+    private final Consumer<AudioPacket> retransmittedPacketConsumer;
+
+    private volatile InetSocketAddress senderAddress;
+    private volatile long retransmittedPackets;
+
+    public AudioControlHandler(AudioClock audioClock, Consumer<AudioPacket> retransmittedPacketConsumer) {
+        this.audioClock = audioClock;
+        this.retransmittedPacketConsumer = retransmittedPacketConsumer;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
+        senderAddress = msg.sender();
         ByteBuf content = msg.content();
         int contentLength = content.readableBytes();
-        byte[] contentBytes = new byte[contentLength];
-        content.readBytes(contentBytes);
-        int type = contentBytes[1] & ~0x80;
-        log.fine("Got audio control packet, type: " + type + ", length: " + contentLength);
+        if (contentLength < 2) {
+            return;
+        }
+        int index = content.readerIndex();
+        int type = content.getUnsignedByte(index + 1) & 0x7F;
+        switch (type) {
+            case SYNC_TYPE:
+                if (contentLength >= SYNC_PACKET_SIZE) {
+                    long rtpTimestampLessLatency = content.getUnsignedInt(index + 4);
+                    long ntpTime = content.getLong(index + 8);
+                    long rtpTimestamp = content.getUnsignedInt(index + 16);
+                    audioClock.onSync(rtpTimestamp, rtpTimestampLessLatency, ntpTime, System.nanoTime());
+                }
+                break;
+            case RETRANSMIT_REPLY_TYPE:
+                if (contentLength >= RETRANSMIT_HEADER_SIZE + RTP_HEADER_SIZE) {
+                    content.skipBytes(RETRANSMIT_HEADER_SIZE);
+                    retransmittedPacketConsumer.accept(AudioDecoder.decodePacket(content));
+                    retransmittedPackets++;
+                }
+                break;
+            default:
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(() -> "Got audio control packet, type: " + type + ", length: " + contentLength);
+                }
+        }
+    }
+
+    /**
+     * @return control address of the sender, known once it sent the first control packet
+     */
+    public InetSocketAddress getSenderAddress() {
+        return senderAddress;
+    }
+
+    public long getRetransmittedPackets() {
+        return retransmittedPackets;
     }
 }
@@ -1,65 +1,120 @@
 package com.github.serezhka.airplay.server.internal.handler.audio;
 
 import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.lib.AudioStreamInfo;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.AudioFrame;
+import com.github.serezhka.airplay.server.ProtocolTrace;
 import com.github.serezhka.airplay.server.internal.packet.AudioPacket;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.ScheduledFuture;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class AudioHandler extends ChannelInboundHandlerAdapter {
     
     private static final Logger log = Logger.getLogger(AudioHandler.class.getName());
 
+    private static final long DRAIN_INTERVAL_MILLIS = 5;
+    private static final long PLAYOUT_LEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int MAX_BATCH = 32;
+
+    private final String sessionId;
+    private final AudioStreamInfo audioStreamInfo;
     private final AirPlay airPlay;
     private final AirPlayConsumer dataConsumer;
+    private final AudioJitterBuffer jitterBuffer;
+    private final AudioClock audioClock;
+    private final ProtocolTrace trace;
+    private final boolean traced;
+
+    // reused for every drain, frames handed to the consumer are views of batchDst
+    private final AudioPacket[] batch = new AudioPacket[MAX_BATCH];
+    private final byte[][] batchSrc = new byte[MAX_BATCH][];
+    private final byte[][] batchDst = new byte[MAX_BATCH][0];
+    private final int[] batchLengths = new int[MAX_BATCH];
 
-    private final AudioPacket[] buffer = new AudioPacket[512];
+    private ScheduledFuture<?> drainTask;
     
-    public AudioHandler(AirPlay airPlay, AirPlayConsumer dataConsumer) {
+    public AudioHandler(String sessionId, AudioStreamInfo audioStreamInfo, AirPlay airPlay, AirPlayConsumer dataConsumer,
+                        AudioJitterBuffer jitterBuffer, AudioClock audioClock, ProtocolTrace trace) {
+        this.sessionId = sessionId;
+        this.audioStreamInfo = audioStreamInfo;
         this.airPlay = airPlay;
         this.dataConsumer = dataConsumer;
-        // 初始化buffer
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = new AudioPacket();
-        }
+        this.jitterBuffer = jitterBuffer;
+        this.audioClock = audioClock;
+        this.trace = trace;
+        this.traced = trace.isSampled(sessionId);
+        jitterBuffer.setPlayoutClock(audioClock, PLAYOUT_LEAD_NANOS);
     }
 
-    private int prevSeqNum;
-    private int packetsInBuffer;
-
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        AudioPacket packet = (AudioPacket) msg;
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        // releases packets held for depth or skips lost ones when no new packets arrive
+        drainTask = ctx.executor().scheduleAtFixedRate(this::drain,
+                DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-        // TODO handle bad cases (missing packets, curSeqNum - prevSeqNum > buffer.length, ...)
-        int curSeqNum = packet.getSequenceNumber();
-        if (curSeqNum <= prevSeqNum) {
-            return;
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (drainTask != null) {
+            drainTask.cancel(false);
+            drainTask = null;
         }
+        jitterBuffer.reset();
+    }
 
-        buffer[curSeqNum % buffer.length] = packet;
-        packetsInBuffer++;
-
-        while (dequeue(curSeqNum)) {
-            curSeqNum++;
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        AudioPacket audioPacket = (AudioPacket) msg;
+        if (traced) {
+            trace.record(sessionId, ProtocolTrace.Kind.AUDIO, null, null, audioPacket.getSequenceNumber(),
+                    audioPacket.getEncodedAudioSize());
         }
+        jitterBuffer.put(audioPacket, System.nanoTime());
+        drain();
     }
 
-    private boolean dequeue(int curSeqNo) throws Exception {
-        if (curSeqNo - prevSeqNum == 1 || prevSeqNum == 0) {
-            AudioPacket audioPacket = buffer[curSeqNo % buffer.length];
-            if (audioPacket != null && audioPacket.isAvailable()) {
-                airPlay.decryptAudio(audioPacket.getEncodedAudio(), audioPacket.getEncodedAudioSize());
-                dataConsumer.onAudio(Arrays.copyOfRange(audioPacket.getEncodedAudio(), 0, audioPacket.getEncodedAudioSize()));
-                audioPacket.available(false);
-                prevSeqNum = curSeqNo;
-                packetsInBuffer--;
-                return true;
+    private void drain() {
+        int count;
+        do {
+            count = 0;
+            AudioPacket audioPacket;
+            while (count < MAX_BATCH && (audioPacket = jitterBuffer.poll(System.nanoTime())) != null) {
+                batch[count] = audioPacket;
+                batchSrc[count] = audioPacket.getEncodedAudio();
+                batchLengths[count] = audioPacket.getEncodedAudioSize();
+                if (batchDst[count].length < batchLengths[count]) {
+                    batchDst[count] = new byte[batchSrc[count].length];
+                }
+                count++;
+            }
+            if (count > 0) {
+                deliver(count);
+            }
+        } while (count == MAX_BATCH);
+    }
+
+    private void deliver(int count) {
+        try {
+            airPlay.decryptAudio(batchSrc, batchLengths, batchDst, count);
+            for (int i = 0; i < count; i++) {
+                AudioPacket audioPacket = batch[i];
+                dataConsumer.onAudioFrame(new AudioFrame(sessionId, audioStreamInfo,
+                        ByteBuffer.wrap(batchDst[i], 0, batchLengths[i]), audioPacket.getSequenceNumber(),
+                        audioPacket.getTimestamp(), audioClock.toLocalNanos(audioPacket.getTimestamp())));
+            }
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i] = null;
+                batchSrc[i] = null;
             }
         }
-        return false;
     }
 }
@@ -0,0 +1,276 @@
+package com.github.serezhka.airplay.server.internal.handler.audio;
+
+import com.github.serezhka.airplay.server.AudioJitterStats;
+import com.github.serezhka.airplay.server.internal.packet.AudioPacket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reorders RTP audio packets and releases them in sequence order.
+ * <p>
+ * Sequence numbers are compared modulo 2^16, so the buffer survives the sequence wrap. A jump of {@link #CAPACITY}
+ * or more, forward or back, is taken as a restarted stream and the buffer resyncs to it. The release depth follows the
+ * inter-arrival jitter estimate (RFC 3550, 6.4.1) between {@link #MIN_DEPTH} and {@link #MAX_DEPTH} packets.
+ * Missing packets are reported to the {@link LossListener} once, when the gap is noticed, and skipped after
+ * {@link #LOSS_TIMEOUT_NANOS} or when the buffer overflows.
+ * <p>
+ * Once a playout {@link AudioClock} is synced, packets are released {@code leadNanos} before their playout instant
+ * instead, and a missing packet is given up when the packet after it is due.
+ * <p>
+ * Not thread safe, meant to be used from the audio channel event loop. Counters may be read from any thread.
+ */
+public class AudioJitterBuffer {
+
+    public interface LossListener {
+
+        /**
+         * Called when {@code count} packets starting from {@code firstSeqNum} are detected as missing
+         */
+        void onMissing(int firstSeqNum, int count);
+    }
+
+    static final int CAPACITY = 512;
+    static final int MIN_DEPTH = 2;
+    static final int MAX_DEPTH = 128;
+    static final long LOSS_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long MAX_HOLD_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final AudioPacket[] packets = new AudioPacket[CAPACITY];
+    private final long[] arrivals = new long[CAPACITY];
+
+    private final LossListener lossListener;
+    private final int sampleRate;
+    private final long packetNanos;
+
+    private AudioClock playoutClock;
+    private long leadNanos;
+
+    private boolean started;
+    private int nextSeqNum;
+    private int highestSeqNum;
+    private long gapSince;
+
+    private long prevArrival;
+    private long prevTimestamp;
+    private double jitterNanos;
+
+    private volatile int targetDepth = MIN_DEPTH;
+    private volatile int depth;
+    private volatile long receivedPackets;
+    private volatile long releasedPackets;
+    private volatile long latePackets;
+    private volatile long lostPackets;
+    private volatile long resyncs;
+
+    public AudioJitterBuffer(int sampleRate, int samplesPerFrame, LossListener lossListener) {
+        this.sampleRate = sampleRate;
+        this.packetNanos = TimeUnit.SECONDS.toNanos(samplesPerFrame) / sampleRate;
+        this.lossListener = lossListener;
+    }
+
+    /**
+     * Schedules releases by playout time of the given clock once it is synced
+     *
+     * @param leadNanos how long before its playout instant a packet is released
+     */
+    public void setPlayoutClock(AudioClock playoutClock, long leadNanos) {
+        this.playoutClock = playoutClock;
+        this.leadNanos = leadNanos;
+    }
+
+    /**
+     * Signed distance from {@code b} to {@code a} in 16-bit sequence space
+     */
+    static int seqDiff(int a, int b) {
+        return (short) (a - b);
+    }
+
+    public void put(AudioPacket packet, long nowNanos) {
+        int seqNum = packet.getSequenceNumber();
+        receivedPackets++;
+
+        if (!started) {
+            started = true;
+            nextSeqNum = seqNum;
+            highestSeqNum = seqNum;
+            prevArrival = nowNanos;
+            prevTimestamp = packet.getTimestamp();
+        }
+
+        int offset = seqDiff(seqNum, nextSeqNum);
+        if (offset >= CAPACITY || offset <= -CAPACITY) {
+            resync(packet, nowNanos);
+        } else if (offset < 0) {
+            latePackets++;
+            return;
+        }
+
+        int slot = seqNum & MASK;
+        if (packets[slot] != null) {
+            latePackets++; // duplicate
+            return;
+        }
+        packets[slot] = packet;
+        arrivals[slot] = nowNanos;
+
+        int gap = seqDiff(seqNum, highestSeqNum);
+        if (gap > 0) {
+            if (gap > 1 && lossListener != null) {
+                lossListener.onMissing((highestSeqNum + 1) & 0xFFFF, gap - 1);
+            }
+            highestSeqNum = seqNum;
+            updateJitter(packet, nowNanos);
+        }
+        depth = seqDiff(highestSeqNum, nextSeqNum) + 1;
+    }
+
+    /**
+     * @return next packet in sequence order which is due for playout, or {@code null}
+     */
+    public AudioPacket poll(long nowNanos) {
+        while (started && seqDiff(highestSeqNum, nextSeqNum) >= 0) {
+            int slot = nextSeqNum & MASK;
+            int bufferedDepth = seqDiff(highestSeqNum, nextSeqNum) + 1;
+            AudioPacket packet = packets[slot];
+            if (packet != null) {
+                if (bufferedDepth <= MAX_DEPTH && !isDue(packet, slot, bufferedDepth, nowNanos)) {
+                    return null;
+                }
+                packets[slot] = null;
+                advance();
+                releasedPackets++;
+                return packet;
+            }
+            if (gapSince == 0) {
+                gapSince = nowNanos;
+            }
+            if (bufferedDepth <= MAX_DEPTH && !isLost(bufferedDepth, nowNanos)) {
+                return null;
+            }
+            lostPackets++;
+            advance();
+        }
+        return null;
+    }
+
+    private boolean isDue(AudioPacket packet, int slot, int bufferedDepth, long nowNanos) {
+        long untilPlayout = playoutNanos(packet, nowNanos);
+        if (untilPlayout != Long.MAX_VALUE) {
+            return untilPlayout <= leadNanos;
+        }
+        return bufferedDepth >= targetDepth || nowNanos - arrivals[slot] >= targetDepth * packetNanos;
+    }
+
+    private boolean isLost(int bufferedDepth, long nowNanos) {
+        for (int i = 1; i < bufferedDepth; i++) {
+            AudioPacket later = packets[(nextSeqNum + i) & MASK];
+            if (later != null) {
+                long untilPlayout = playoutNanos(later, nowNanos);
+                if (untilPlayout != Long.MAX_VALUE) {
+                    return untilPlayout <= leadNanos;
+                }
+                break;
+            }
+        }
+        return nowNanos - gapSince >= LOSS_TIMEOUT_NANOS;
+    }
+
+    /**
+     * @return nanos until the packet has to be played, {@link Long#MAX_VALUE} if unknown
+     */
+    private long playoutNanos(AudioPacket packet, long nowNanos) {
+        if (playoutClock == null || !playoutClock.isSynced()) {
+            return Long.MAX_VALUE;
+        }
+        long untilPlayout = playoutClock.toLocalNanos(packet.getTimestamp()) - nowNanos;
+        return untilPlayout < MAX_HOLD_NANOS ? untilPlayout : Long.MAX_VALUE; // mapping is off, fall back to depth
+    }
+
+    /**
+     * Drops the buffered packets, the next packet starts the sequence again, e.g. after an RTSP FLUSH
+     */
+    public void reset() {
+        for (int i = 0; i < CAPACITY; i++) {
+            packets[i] = null;
+        }
+        started = false;
+        gapSince = 0;
+        depth = 0;
+    }
+
+    private void advance() {
+        nextSeqNum = (nextSeqNum + 1) & 0xFFFF;
+        gapSince = 0;
+        depth = Math.max(0, seqDiff(highestSeqNum, nextSeqNum) + 1);
+    }
+
+    /**
+     * Restarts the sequence from the packet, the jitter estimate starts over too so the first inter-arrival time
+     * after the jump isn't taken as jitter
+     */
+    private void resync(AudioPacket packet, long nowNanos) {
+        reset();
+        resyncs++;
+        started = true;
+        nextSeqNum = packet.getSequenceNumber();
+        highestSeqNum = nextSeqNum;
+        prevArrival = nowNanos;
+        prevTimestamp = packet.getTimestamp();
+        jitterNanos = 0;
+        targetDepth = MIN_DEPTH;
+    }
+
+    private void updateJitter(AudioPacket packet, long nowNanos) {
+        int timestampDelta = (int) (packet.getTimestamp() - prevTimestamp); // RTP timestamps wrap at 2^32
+        long d = Math.abs((nowNanos - prevArrival) - TimeUnit.SECONDS.toNanos(timestampDelta) / sampleRate);
+        prevArrival = nowNanos;
+        prevTimestamp = packet.getTimestamp();
+        jitterNanos += (d - jitterNanos) / 16;
+        int depthForJitter = (int) Math.ceil(3 * jitterNanos / packetNanos) + 1;
+        targetDepth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depthForJitter));
+    }
+
+    /**
+     * @return sequence positions currently held, including the missing ones
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getTargetDepth() {
+        return targetDepth;
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets;
+    }
+
+    public long getReleasedPackets() {
+        return releasedPackets;
+    }
+
+    /**
+     * @return packets dropped because they were duplicates or arrived after their playout
+     */
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    /**
+     * @return packets skipped because they didn't arrive in time
+     */
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    public AudioJitterStats getStats() {
+        return new AudioJitterStats(depth, targetDepth, receivedPackets, releasedPackets, latePackets, lostPackets,
+                resyncs);
+    }
+}
@@ -1,22 +1,25 @@
 package com.github.serezhka.airplay.server.internal.handler.control;
 
-import com.dd.plist.BinaryPropertyListParser;
-import com.dd.plist.NSData;
-import com.dd.plist.NSDictionary;
+import com.github.serezhka.airplay.lib.AirPlay;
 import com.github.serezhka.airplay.lib.AudioStreamInfo;
+import com.github.serezhka.airplay.lib.MediaStreamInfo;
 import com.github.serezhka.airplay.lib.VideoStreamInfo;
 import com.github.serezhka.airplay.server.AirPlayConfig;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.ConnectPhase;
+import com.github.serezhka.airplay.server.VideoBackpressurePolicy;
+import com.github.serezhka.airplay.server.internal.handler.playlist.PlaylistCache;
+import com.github.serezhka.airplay.server.internal.handler.playlist.PlaylistRewriter;
+import com.github.serezhka.airplay.server.internal.handler.playlist.SegmentCache;
 import com.github.serezhka.airplay.server.internal.handler.session.Session;
 import com.github.serezhka.airplay.server.internal.handler.session.SessionManager;
+import com.github.serezhka.airplay.server.internal.handler.util.PropertyListCache;
+import com.github.serezhka.airplay.server.internal.handler.util.PropertyListReader;
 import com.github.serezhka.airplay.server.internal.handler.util.PropertyListUtil;
-import io.lindstrom.m3u8.model.*;
-import io.lindstrom.m3u8.parser.MasterPlaylistParser;
-import io.lindstrom.m3u8.parser.MediaPlaylistParser;
-import io.lindstrom.m3u8.parser.ParsingMode;
-import io.lindstrom.m3u8.parser.PlaylistParserException;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -24,106 +27,189 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.rtsp.*;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseCombiner;
 
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
-import java.util.Base64;
 import java.util.Optional;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.Callable;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.ANY_PATH;
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.Reply.*;
+import static com.github.serezhka.airplay.server.internal.handler.util.PropertyListReader.NONE;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static io.netty.handler.codec.rtsp.RtspVersions.RTSP_1_0;
 
 public class ControlHandler extends ChannelInboundHandlerAdapter {
     
     private static final Logger log = Logger.getLogger(ControlHandler.class.getName());
 
-    private final SessionManager sessionManager = new SessionManager();
-    private final AirPlayConfig airPlayConfig = new AirPlayConfig();
+    private final SessionManager sessionManager;
+    private final AirPlayConfig airPlayConfig;
     private final AirPlayConsumer airPlayConsumer;
+    private final Set<Session> connectionSessions = new HashSet<>();
+    private final ControlRoutes routes;
+    private final PropertyListCache responses;
+    // null unless segments are proxied
+    private final SegmentCache segmentCache;
+    private final Map<FullHttpRequest, PendingRequest> pendingRequests = new IdentityHashMap<>();
+    private long infoNanos;
     
-    public ControlHandler(AirPlayConsumer airPlayConsumer) {
+    public ControlHandler(AirPlayConfig airPlayConfig, AirPlayConsumer airPlayConsumer, SessionManager sessionManager,
+                          ControlRoutes routes, PropertyListCache responses, SegmentCache segmentCache) {
+        this.airPlayConfig = airPlayConfig;
         this.airPlayConsumer = airPlayConsumer;
+        this.sessionManager = sessionManager;
+        this.routes = routes;
+        this.responses = responses;
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * @return route table of the requests this handler serves, shared by the handlers of a control server
+     */
+    public static ControlRoutes createRoutes() {
+        HttpMethod flush = HttpMethod.valueOf("FLUSH");
+        return new ControlRoutes()
+                .add(RTSP_1_0, HttpMethod.GET, "/info", NOW, ControlHandler::handleGetInfo)
+                .add(RTSP_1_0, HttpMethod.POST, "/pair-setup", NOW, ControlHandler::handlePairSetup)
+                .add(RTSP_1_0, HttpMethod.POST, "/pair-verify", NOW, ControlHandler::handlePairVerify)
+                .add(RTSP_1_0, HttpMethod.POST, "/fp-setup", NOW, ControlHandler::handleFairPlaySetup)
+                .add(RTSP_1_0, RtspMethods.SETUP, ANY_PATH, LATER, ControlHandler::handleRtspSetup)
+                .add(RTSP_1_0, HttpMethod.POST, "/feedback", NOW, ControlHandler::handleRtspFeedback)
+                .add(RTSP_1_0, RtspMethods.GET_PARAMETER, ANY_PATH, NOW, ControlHandler::handleRtspGetParameter)
+                .add(RTSP_1_0, RtspMethods.RECORD, ANY_PATH, NOW, ControlHandler::handleRtspRecord)
+                .add(RTSP_1_0, RtspMethods.SET_PARAMETER, ANY_PATH, NOW, ControlHandler::handleRtspSetParameter)
+                .add(RTSP_1_0, flush, ANY_PATH, NOW, ControlHandler::handleRtspFlush)
+                .add(RTSP_1_0, RtspMethods.TEARDOWN, ANY_PATH, NOW, ControlHandler::handleRtspTeardown)
+                .add(RTSP_1_0, HttpMethod.POST, "/audioMode", NOW, ControlHandler::handleRtspAudioMode)
+                .add(HTTP_1_1, HttpMethod.GET, "/server-info", NOW, ControlHandler::handleGetServerInfo)
+                .add(HTTP_1_1, HttpMethod.POST, "/fp-setup", NOW, ControlHandler::handleFairPlayStreamingSetup)
+                .add(HTTP_1_1, HttpMethod.POST, "/fp-setup2", NOW, ControlHandler::handleFairPlayStreamingSetup)
+                .add(HTTP_1_1, HttpMethod.POST, "/reverse", NOW, ControlHandler::handleReverse)
+                .add(HTTP_1_1, HttpMethod.POST, "/play", NOW, ControlHandler::handlePlay)
+                .add(HTTP_1_1, HttpMethod.PUT, "/setProperty", NOW, ControlHandler::handleSetProperty)
+                .add(HTTP_1_1, HttpMethod.POST, "/rate", NOW, ControlHandler::handleRate)
+                .add(HTTP_1_1, HttpMethod.GET, "/playback-info", NOW, ControlHandler::handlePlaybackInfo)
+                .add(HTTP_1_1, HttpMethod.POST, "/action", NOW, ControlHandler::handleAction)
+                .add(HTTP_1_1, HttpMethod.POST, "/getProperty", NOW, ControlHandler::handleGetProperty)
+                .add(HTTP_1_1, HttpMethod.POST, "/scrub", NOW, ControlHandler::handleScrub)
+                .add(HTTP_1_1, HttpMethod.POST, "/stop", NOW, ControlHandler::handleStop)
+                .add(HTTP_1_1, HttpMethod.GET, "/playlist/segment", LATER, ControlHandler::handleGetSegment)
+                .add(HTTP_1_1, HttpMethod.GET, "/playlist/*", FORWARDED, ControlHandler::handleGetPlaylist);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // sessions of a closed control connection are evicted unless the sender comes back on another one
+        connectionSessions.forEach(Session::end);
+        connectionSessions.clear();
+        pendingRequests.clear();
+        super.channelInactive(ctx);
     }
 
     @Override
     public final void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof FullHttpRequest) {
             FullHttpRequest request = (FullHttpRequest) msg;
-            if (RtspVersions.RTSP_1_0.equals(request.protocolVersion())) {
-                if (HttpMethod.GET.equals(request.method()) && "/info".equals(request.uri())) {
-                    handleGetInfo(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && "/pair-setup".equals(request.uri())) {
-                    handlePairSetup(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && "/pair-verify".equals(request.uri())) {
-                    handlePairVerify(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && "/fp-setup".equals(request.uri())) {
-                    handleFairPlaySetup(ctx, request);
-                } else if (RtspMethods.SETUP.equals(request.method())) {
-                    handleRtspSetup(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && "/feedback".equals(request.uri())) {
-                    handleRtspFeedback(ctx, request);
-                } else if (RtspMethods.GET_PARAMETER.equals(request.method())) {
-                    handleRtspGetParameter(ctx, request);
-                } else if (RtspMethods.RECORD.equals(request.method())) {
-                    handleRtspRecord(ctx, request);
-                } else if (RtspMethods.SET_PARAMETER.equals(request.method())) {
-                    handleRtspSetParameter(ctx, request);
-                } else if ("FLUSH".equals(request.method().toString())) {
-                    handleRtspFlush(ctx, request);
-                } else if (RtspMethods.TEARDOWN.equals(request.method())) {
-                    handleRtspTeardown(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && request.uri().equals("/audioMode")) {
-                    handleRtspAudioMode(ctx, request);
-                } else {
-                    log.severe("Unknown control request: " + request.protocolVersion() + " " + request.method() + " " + request.uri());
-                    DefaultFullHttpResponse response = createRtspResponse(request);
-                    response.setStatus(HttpResponseStatus.NOT_FOUND);
-                    sendResponse(ctx, request, response);
-                }
-            } else if (HttpVersion.HTTP_1_1.equals(request.protocolVersion())) {
-                QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
-                if (HttpMethod.GET.equals(request.method()) && decoder.path().equals("/server-info")) {
-                    handleGetServerInfo(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/fp-setup")) {
-                    // TODO handleFairPlaySetup(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/fp-setup2")) {
-                    // TODO handleFairPlaySetup2(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/reverse")) {
-                    handleReverse(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/play")) {
-                    handlePlay(ctx, request);
-                } else if (HttpMethod.PUT.equals(request.method()) && decoder.path().equals("/setProperty")) {
-                    handleSetProperty(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/rate")) {
-                    handleRate(ctx, request);
-                } else if (HttpMethod.GET.equals(request.method()) && decoder.path().equals("/playback-info")) {
-                    handlePlaybackInfo(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/action")) {
-                    handleAction(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/getProperty")) {
-                    handleGetProperty(ctx, request);
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/scrub")) {
-                    log.info(request.uri()); // TODO
-                } else if (HttpMethod.POST.equals(request.method()) && decoder.path().equals("/stop")) {
-                    log.info(request.uri()); // TODO
-                } else if (HttpMethod.GET.equals(request.method()) && decoder.path().startsWith("/playlist")) {
-                    handleGetPlaylist(ctx, request);
-                } else {
-                    log.severe("Unknown control request: " + request.protocolVersion() + " " + request.method() + " " + request.uri());
-                    DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
-                    sendResponse(ctx, request, response);
-                }
+            ControlRoutes.Route route = routes.resolve(request);
+            if (route == null) {
+                log.severe("Unknown control request: " + request.protocolVersion() + " " + request.method() + " " + request.uri());
+                routes.getStats().recordUnknownRequest();
+                DefaultFullHttpResponse response = createResponse(request);
+                response.setStatus(HttpResponseStatus.NOT_FOUND);
+                sendResponse(ctx, request, response);
+            } else {
+                dispatch(ctx, request, route);
             }
         } else if (msg instanceof FullHttpResponse) {
             FullHttpResponse response = (FullHttpResponse) msg;
             // reverse connection response
         } else {
-            log.severe("Unknown control message type: {}" + msg);
+            log.severe("Unknown control message type: " + msg);
+        }
+    }
+
+    /**
+     * Runs the route's handler and makes sure the request gets an answer, 500 if the handler throws
+     */
+    private void dispatch(ChannelHandlerContext ctx, FullHttpRequest request, ControlRoutes.Route route) {
+        long startNanos = System.nanoTime();
+        route.stats.recordRequest();
+        pendingRequests.put(request, new PendingRequest(route, startNanos));
+        String sessionId = sessionId(request);
+        if (sessionId != null) {
+            // keep-alives like /feedback don't resolve their session, they still keep it from being idle
+            sessionManager.touchSession(sessionId);
+        }
+        try {
+            route.handler.handle(this, ctx, request);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Control request failed: " + route.name, e);
+            route.stats.recordFailure();
+            if (pendingRequests.containsKey(request)) {
+                DefaultFullHttpResponse response = createResponse(request);
+                response.setStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                sendResponse(ctx, request, response);
+            }
+            return;
+        }
+        if (route.reply == FORWARDED) {
+            if (pendingRequests.containsKey(request)) {
+                ctx.executor().schedule(() -> timeOutForwarded(ctx, request),
+                        airPlayConfig.getPlaylistRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+        } else if (route.reply == NOW && pendingRequests.containsKey(request)) {
+            route.stats.recordDefaultResponse();
+            sendResponse(ctx, request, createResponse(request));
         }
     }
 
+    /**
+     * @return responder which answers the forwarded request on its own connection, unless it was answered meanwhile
+     */
+    private Consumer<FullHttpResponse> forwardedResponder(ChannelHandlerContext ctx, FullHttpRequest request) {
+        return response -> ctx.executor().execute(() -> {
+            if (pendingRequests.containsKey(request)) {
+                sendResponse(ctx, request, response);
+            } else {
+                response.release();
+            }
+        });
+    }
+
+    private void timeOutForwarded(ChannelHandlerContext ctx, FullHttpRequest request) {
+        PendingRequest pending = pendingRequests.get(request);
+        if (pending == null) {
+            return;
+        }
+        log.warning(() -> "No response to forward in time: " + request.uri());
+        pending.route.stats.recordTimeout();
+        DefaultFullHttpResponse response = createResponse(request);
+        response.setStatus(HttpResponseStatus.GATEWAY_TIMEOUT);
+        sendResponse(ctx, request, response);
+    }
+
+    /**
+     * FairPlay streaming setup of HTTP video, only sent for FairPlay protected media which this receiver can't
+     * decrypt. Mirroring's FairPlay setup is the RTSP one. Answered with an empty 200 by the dispatcher, so the
+     * sender goes on to {@code /play}, where unsupported clients are answered with 501.
+     */
+    private void handleFairPlayStreamingSetup(ChannelHandlerContext ctx, FullHttpRequest request) {
+        log.info(() -> "FairPlay streaming setup not supported: " + request.uri());
+    }
+
     /**
      * Resolves session by the request headers:<br/>
      * {@code Active-Remote} for RTSP<br/>
@@ -132,17 +218,27 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
      * @param request incoming request
      * @return active session
      */
-    private Session resolveSession(FullHttpRequest request) {
-        String sessionId = Optional.ofNullable(request.headers().get("Active-Remote"))
+    private static String sessionId(FullHttpRequest request) {
+        return Optional.ofNullable(request.headers().get("Active-Remote"))
                 .orElseGet(() -> request.headers().get("X-Apple-Session-ID"));
-        return sessionManager.getSession(sessionId);
+    }
+
+    private Session resolveSession(FullHttpRequest request) {
+        Session session = sessionManager.getSession(sessionId(request));
+        connectionSessions.add(session);
+        if (infoNanos != 0) {
+            // /info comes before the sender sends its session id
+            session.getConnectTrace().mark(ConnectPhase.INFO, infoNanos);
+        }
+        return session;
     }
 
     private void handleGetInfo(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
-        byte[] info = PropertyListUtil.prepareInfoResponse(airPlayConfig);
+        byte[] info = responses.getInfoResponse();
         DefaultFullHttpResponse response = createRtspResponse(request);
         response.content().writeBytes(info);
         sendResponse(ctx, request, response);
+        infoNanos = System.nanoTime();
     }
 
     private void handlePairSetup(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
@@ -150,6 +246,7 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
         DefaultFullHttpResponse response = createRtspResponse(request);
         session.getAirPlay().pairSetup(new ByteBufOutputStream(response.content()));
         sendResponse(ctx, request, response);
+        session.getConnectTrace().mark(ConnectPhase.PAIR_SETUP);
     }
 
     private void handlePairVerify(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
@@ -173,30 +270,172 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
         sendResponse(ctx, request, response);
     }*/
 
+    /**
+     * Passes the keys or the stream of an RTSP SETUP to the session's {@link AirPlay}
+     *
+     * @return stream to set up, empty for the SETUP with the keys
+     */
+    private static Optional<MediaStreamInfo> readRtspSetup(AirPlay airPlay, ByteBuf content) {
+        PropertyListReader setup = new PropertyListReader(content);
+        int root = setup.getRoot();
+        int ekey = setup.find(root, "ekey");
+        int eiv = setup.find(root, "eiv");
+        if (ekey != NONE && eiv != NONE) {
+            int timingPort = setup.find(root, "timingPort");
+            airPlay.rtspSetupEncryption(setup.getBytes(ekey), setup.getBytes(eiv),
+                    timingPort != NONE ? (int) setup.getLong(timingPort) : 0);
+            return Optional.empty();
+        }
+        int stream = firstStream(setup);
+        if (stream == NONE) {
+            log.severe(() -> "Unknown RTSP setup content\n" + PropertyListUtil.toXmlPropertyList(content));
+            return Optional.empty();
+        }
+        log.fine(() -> "RTSP SETUP streams:\n" + PropertyListUtil.toXmlPropertyList(content));
+        long type = setup.getLong(setup.find(stream, "type"));
+        if (type == 110) {
+            int streamConnectionId = setup.find(stream, "streamConnectionID");
+            return Optional.of(airPlay.rtspSetupVideo(streamConnectionId != NONE
+                    ? Long.toUnsignedString(setup.getLong(streamConnectionId)) : null));
+        } else if (type == 96) {
+            int compressionType = setup.find(stream, "ct");
+            int audioFormat = setup.find(stream, "audioFormat");
+            int samplesPerFrame = setup.find(stream, "spf");
+            return Optional.of(airPlay.rtspSetupAudio(
+                    compressionType != NONE ? setup.getLong(compressionType) : -1,
+                    audioFormat != NONE ? setup.getLong(audioFormat) : -1,
+                    samplesPerFrame != NONE ? (int) setup.getLong(samplesPerFrame) : 0));
+        }
+        log.severe("Unknown stream type: " + type);
+        return Optional.empty();
+    }
+
+    /**
+     * @return type of the stream torn down, empty if the whole session is
+     */
+    private static Optional<MediaStreamInfo.StreamType> readTeardownStreamType(ByteBuf content) {
+        PropertyListReader teardown = new PropertyListReader(content);
+        log.fine(() -> "RTSP TEARDOWN streams:\n" + PropertyListUtil.toXmlPropertyList(content));
+        int stream = firstStream(teardown);
+        if (stream == NONE) {
+            return Optional.empty();
+        }
+        long type = teardown.getLong(teardown.find(stream, "type"));
+        if (type == 110) {
+            return Optional.of(MediaStreamInfo.StreamType.VIDEO);
+        } else if (type == 96) {
+            return Optional.of(MediaStreamInfo.StreamType.AUDIO);
+        }
+        log.severe("Unknown stream type: " + type);
+        return Optional.empty();
+    }
+
+    /**
+     * @return first dictionary of the {@code streams} array, {@link PropertyListReader#NONE} if there is none
+     */
+    private static int firstStream(PropertyListReader request) {
+        int streams = request.find(request.getRoot(), "streams");
+        if (streams == NONE || request.size(streams) == 0) {
+            return NONE;
+        }
+        if (request.size(streams) > 1) {
+            log.warning("Request contains more than one stream info");
+        }
+        return request.get(streams, 0);
+    }
+
     private void handleRtspSetup(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
         Session session = resolveSession(request);
         DefaultFullHttpResponse response = createRtspResponse(request);
-        Optional<com.github.serezhka.airplay.lib.MediaStreamInfo> mediaStreamInfo = session.getAirPlay().rtspSetup(new ByteBufInputStream(request.content()));
+        Optional<MediaStreamInfo> mediaStreamInfo = readRtspSetup(session.getAirPlay(), request.content());
         if (mediaStreamInfo.isPresent()) {
             switch (mediaStreamInfo.get().getStreamType()) {
                 case AUDIO:
-                    airPlayConsumer.onAudioFormat((AudioStreamInfo) mediaStreamInfo.get());
-                    session.getAudioServer().start(airPlayConsumer);
-                    session.getAudioControlServer().start();
-                    byte[] setup = PropertyListUtil.prepareSetupAudioResponse(session.getAudioServer().getPort(),
-                            session.getAudioControlServer().getPort());
-                    response.content().writeBytes(setup);
-                    break;
+                    AudioStreamInfo audioStreamInfo = (AudioStreamInfo) mediaStreamInfo.get();
+                    airPlayConsumer.onAudioFormat(audioStreamInfo);
+                    ChannelFuture audioBound = session.getAudioServer().start(airPlayConsumer, audioStreamInfo);
+                    ChannelFuture audioControlBound = session.getAudioControlServer().start(session.getAudioServer());
+                    sendSetupResponse(ctx, request, response,
+                            () -> responses.getSetupAudioResponse(session.getAudioServer().getPort(),
+                                    session.getAudioControlServer().getPort()),
+                            audioBound, audioControlBound);
+                    return;
                 case VIDEO:
-                    airPlayConsumer.onVideoFormat((VideoStreamInfo) mediaStreamInfo.get());
-                    session.getVideoServer().start(airPlayConsumer);
-                    byte[] setupVideo = PropertyListUtil.prepareSetupVideoResponse(session.getVideoServer().getPort(),
-                            ((ServerSocketChannel) ctx.channel().parent()).localAddress().getPort(), 0);
-                    response.content().writeBytes(setupVideo);
-                    break;
+                    VideoStreamInfo videoStreamInfo = (VideoStreamInfo) mediaStreamInfo.get();
+                    airPlayConsumer.onVideoFormat(videoStreamInfo);
+                    VideoBackpressurePolicy backpressurePolicy = airPlayConsumer.videoBackpressurePolicy(session.getId());
+                    ChannelFuture videoBound = session.getVideoServer().start(airPlayConsumer, videoStreamInfo,
+                            backpressurePolicy != null ? backpressurePolicy : airPlayConfig.getVideoBackpressurePolicy(),
+                            airPlayConfig.getMaxOutstandingVideoFrames());
+                    ChannelFuture timingBound = startTimingServer(ctx, session);
+                    int eventPort = ((ServerSocketChannel) ctx.channel().parent()).localAddress().getPort();
+                    sendSetupResponse(ctx, request, response,
+                            () -> responses.getSetupVideoResponse(session.getVideoServer().getPort(),
+                                    eventPort, session.getTimingServer().getPort()),
+                            videoBound, timingBound)
+                            .addListener(future -> {
+                                if (future.isSuccess()) {
+                                    session.getConnectTrace().mark(ConnectPhase.SETUP_VIDEO);
+                                }
+                            });
+                    return;
             }
         }
         sendResponse(ctx, request, response);
+        session.getConnectTrace().mark(ConnectPhase.SETUP_KEYS);
+    }
+
+    /**
+     * Writes the SETUP response once the media listeners are bound, the event loop doesn't wait for them
+     *
+     * @return completed after the response is written, failed if a listener couldn't be bound
+     */
+    private Promise<Void> sendSetupResponse(ChannelHandlerContext ctx, FullHttpRequest request, DefaultFullHttpResponse response,
+                                   Callable<byte[]> content, ChannelFuture... bindFutures) {
+        Promise<Void> bound = ctx.executor().newPromise();
+        bound.addListener(future -> {
+            try {
+                if (future.isSuccess()) {
+                    response.content().writeBytes(content.call());
+                } else {
+                    log.severe("Can't bind media listener: " + future.cause());
+                    response.setStatus(RtspResponseStatuses.INTERNAL_SERVER_ERROR);
+                }
+            } catch (Exception e) {
+                log.severe("Can't prepare SETUP response: " + e.getMessage());
+                response.setStatus(RtspResponseStatuses.INTERNAL_SERVER_ERROR);
+            }
+            sendResponse(ctx, request, response);
+        });
+        if (allSucceeded(bindFutures)) {
+            // listeners taken from the pool, answer right away instead of going through their event loops
+            bound.setSuccess(null);
+            return bound;
+        }
+        PromiseCombiner combiner = new PromiseCombiner(ctx.executor());
+        combiner.addAll(bindFutures);
+        combiner.finish(bound);
+        return bound;
+    }
+
+    private static boolean allSucceeded(ChannelFuture... futures) {
+        for (ChannelFuture future : futures) {
+            if (!future.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ChannelFuture startTimingServer(ChannelHandlerContext ctx, Session session) {
+        if (session.getTimingServer().isRunning()) {
+            return ctx.channel().newSucceededFuture();
+        }
+        int senderTimingPort = session.getAirPlay().getTimingPort();
+        InetSocketAddress senderTimingAddress = senderTimingPort > 0
+                ? new InetSocketAddress(((InetSocketAddress) ctx.channel().remoteAddress()).getAddress(), senderTimingPort)
+                : null;
+        return session.getTimingServer().start(senderTimingAddress);
     }
 
     private void handleRtspFeedback(ChannelHandlerContext ctx, FullHttpRequest request) {
@@ -227,15 +466,21 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void handleRtspFlush(ChannelHandlerContext ctx, FullHttpRequest request) {
+        // the sender restarts the stream from another position, buffered packets of the old one mustn't play
+        String sessionId = sessionId(request);
+        Session session = sessionId != null ? sessionManager.findSession(sessionId) : null;
+        if (session != null) {
+            session.getAudioServer().flush();
+        }
         DefaultFullHttpResponse response = createRtspResponse(request);
         sendResponse(ctx, request, response);
     }
 
     private void handleRtspTeardown(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
         Session session = resolveSession(request);
-        Optional<com.github.serezhka.airplay.lib.MediaStreamInfo> mediaStreamInfo = session.getAirPlay().rtspTeardown(new ByteBufInputStream(request.content()));
-        if (mediaStreamInfo.isPresent()) {
-            switch (mediaStreamInfo.get().getStreamType()) {
+        Optional<MediaStreamInfo.StreamType> streamType = readTeardownStreamType(request.content());
+        if (streamType.isPresent()) {
+            switch (streamType.get()) {
                 case AUDIO:
                     airPlayConsumer.onAudioSrcDisconnect();
                     session.getAudioServer().stop();
@@ -244,6 +489,7 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
                 case VIDEO:
                     airPlayConsumer.onVideoSrcDisconnect();
                     session.getVideoServer().stop();
+                    session.getTimingServer().stop();
                     break;
             }
         } else {
@@ -252,6 +498,11 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
             session.getAudioServer().stop();
             session.getAudioControlServer().stop();
             session.getVideoServer().stop();
+            session.getTimingServer().stop();
+        }
+        if (!session.isAudioRunning() && !session.isVideoRunning()) {
+            session.end();
+            session.getConnectTrace().finish();
         }
         DefaultFullHttpResponse response = createRtspResponse(request);
         sendResponse(ctx, request, response);
@@ -263,7 +514,7 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void handleGetServerInfo(ChannelHandlerContext ctx, FullHttpRequest request) {
-        byte[] serverInfo = PropertyListUtil.prepareServerInfoResponse();
+        byte[] serverInfo = responses.getServerInfoResponse();
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, "text/x-apple-plist+xml");
         response.content().writeBytes(serverInfo);
@@ -285,14 +536,16 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void handlePlay(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
-        NSDictionary play = (NSDictionary) BinaryPropertyListParser.parse(new ByteBufInputStream(request.content()));
-        log.info("Request content:\n{}" + play.toXMLPropertyList());
+        PropertyListReader play = new PropertyListReader(request.content());
+        log.fine(() -> "Request content:\n" + PropertyListUtil.toXmlPropertyList(request.content()));
 
-        String clientProcName = play.get("clientProcName").toJavaObject(String.class);
+        int clientProcNameRef = play.find(play.getRoot(), "clientProcName");
+        String clientProcName = clientProcNameRef != NONE ? play.getString(clientProcNameRef) : null;
         if ("YouTube".equals(clientProcName)) {
             Session session = resolveSession(request);
-            String playlistUri = play.get("Content-Location").toJavaObject(String.class);
+            String playlistUri = play.getString(play.find(play.getRoot(), "Content-Location"));
             String playlistUriLocal = playlistUriToLocal(playlistUri, playlistBaseUrl(ctx), session.getId());
+            session.getPlaylistCache().clear();
 
             // TODO Create MediaPlaylist record with UUID
             airPlayConsumer.onMediaPlaylist(playlistUriLocal);
@@ -300,7 +553,7 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
             DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
             sendResponse(ctx, request, response);
         } else {
-            log.severe("Client proc name [{}] is not supported!" + clientProcName);
+            log.severe("Client proc name [" + clientProcName + "] is not supported!");
             DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_IMPLEMENTED);
             sendResponse(ctx, request, response);
         }
@@ -308,9 +561,8 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
 
     private void handleSetProperty(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
         QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
-        log.info("Path: {}, Query params: {}" + decoder.path() + ", " + decoder.parameters());
-        NSDictionary play = (NSDictionary) BinaryPropertyListParser.parse(new ByteBufInputStream(request.content()));
-        log.info("Request content:\n{}" + ", " + play.toXMLPropertyList());
+        log.fine(() -> "Path: " + decoder.path() + ", query params: " + decoder.parameters());
+        log.fine(() -> "Request content:\n" + PropertyListUtil.toXmlPropertyList(request.content()));
 
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
         sendResponse(ctx, request, response);
@@ -330,88 +582,87 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
         sendResponse(ctx, request, response);
     }
 
+    private void handleScrub(ChannelHandlerContext ctx, FullHttpRequest request) {
+        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        List<String> positions = decoder.parameters().get("position");
+        double position;
+        try {
+            position = positions != null ? Double.parseDouble(positions.get(0)) : Double.NaN;
+        } catch (NumberFormatException e) {
+            position = Double.NaN;
+        }
+        if (Double.isNaN(position) || Double.isInfinite(position) || position < 0) {
+            sendResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST));
+            return;
+        }
+
+        airPlayConsumer.onMediaPlaylistSeek(position);
+
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        sendResponse(ctx, request, response);
+    }
+
+    private void handleStop(ChannelHandlerContext ctx, FullHttpRequest request) {
+        // the sender stops what it played, a session is never created for that
+        String sessionId = sessionId(request);
+        Session session = sessionId != null ? sessionManager.findSession(sessionId) : null;
+        if (session != null) {
+            session.getPlaylistCache().clear();
+        }
+        airPlayConsumer.onMediaPlaylistRemove();
+
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        sendResponse(ctx, request, response);
+    }
+
     private void handlePlaybackInfo(ChannelHandlerContext ctx, FullHttpRequest request) {
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, "text/x-apple-plist+xml");
-        byte[] playbackInfo = PropertyListUtil.preparePlaybackInfoResponse(airPlayConsumer.playbackInfo());
+        byte[] playbackInfo = responses.getPlaybackInfoResponse(airPlayConsumer.playbackInfo());
         response.content().writeBytes(playbackInfo);
         sendResponse(ctx, request, response);
     }
 
     private void handleAction(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
-        NSDictionary action = (NSDictionary) BinaryPropertyListParser.parse(new ByteBufInputStream(request.content()));
-        log.info("Request content:\n{}" + action.toXMLPropertyList());
+        PropertyListReader action = new PropertyListReader(request.content());
+        log.fine(() -> "Request content:\n" + PropertyListUtil.toXmlPropertyList(request.content()));
 
-        String type = action.get("type").toJavaObject(String.class);
+        int typeRef = action.find(action.getRoot(), "type");
+        String type = typeRef != NONE ? action.getString(typeRef) : null;
         if ("unhandledURLResponse".equals(type)) {
-            NSDictionary params = (NSDictionary) action.get("params");
-            String fcupResponseURL = params.get("FCUP_Response_URL").toJavaObject(String.class);
-            String fcupResponseBase64 = ((NSData) (params.get("FCUP_Response_Data"))).getBase64EncodedData();
-            String fcupResponse = new String(Base64.getDecoder().decode(fcupResponseBase64));
+            int params = action.find(action.getRoot(), "params");
+            String fcupResponseURL = action.getString(action.find(params, "FCUP_Response_URL"));
+            String fcupResponse = action.getData(action.find(params, "FCUP_Response_Data")).toString(StandardCharsets.UTF_8);
             Session session = resolveSession(request);
 
-            if (session.getPlaylistRequestContexts().containsKey(fcupResponseURL)) {
-                if (fcupResponseURL.contains("master.m3u8")) {
-                    ChannelHandlerContext context = session.getPlaylistRequestContexts().get(fcupResponseURL);
-                    DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-                    response.content().writeCharSequence(masterPlaylistToLocalUrls(fcupResponse, playlistBaseUrl(ctx), session.getId()), StandardCharsets.UTF_8);
-                    HttpUtil.setContentLength(response, response.content().readableBytes());
-                    context.writeAndFlush(response);
-                    session.getPlaylistRequestContexts().remove(fcupResponseURL);
-                } else if (fcupResponseURL.contains("mediadata.m3u8")) {
-                    MediaPlaylistParser parser = new MediaPlaylistParser(ParsingMode.LENIENT);
-                    MediaPlaylist mediaPlaylist = parser.readPlaylist(fcupResponse);
-
-                    // 手动处理condensedUrl，替换Stream API
-                    Map<String, String> condensedUrl = new HashMap<>();
-                    
-                    // 查找YT-EXT-CONDENSED-URL注释
-                    for (String comment : mediaPlaylist.comments()) {
-                        if (comment.startsWith("YT-EXT-CONDENSED-URL:")) {
-                            String attributes = comment.replace("YT-EXT-CONDENSED-URL:", "");
-                            
-                            // 手动解析属性，替换flatMap和Pattern.results()
-                            Pattern pattern = Pattern.compile("([A-Z0-9\\-]+)=(?:\"([^\"]+)\"|([^,]+))");
-                            Matcher matcher = pattern.matcher(attributes);
-                            while (matcher.find()) {
-                                String key = matcher.group(1);
-                                String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
-                                condensedUrl.put(key, value);
-                            }
-                            break; // 只处理第一个匹配的注释
-                        }
-                    }
-
-                    if (!condensedUrl.isEmpty()) {
-                        // 手动处理mediaSegments，替换Stream API
-                        java.util.List<MediaSegment> newMediaSegments = new java.util.ArrayList<>();
-                        for (MediaSegment segment : mediaPlaylist.mediaSegments()) {
-                            String prefix = condensedUrl.get("PREFIX");
-                            String[] paramNames = condensedUrl.get("PARAMS").split(",");
-                            String[] paramValues = segment.uri().replaceFirst(prefix, "").split("/");
-                            StringBuilder paramResult = new StringBuilder();
-                            for (int i = 0; i < paramNames.length; i++) {
-                                paramResult.append("/").append(paramNames[i]).append("/").append(paramValues[i]);
-                            }
-                            MediaSegment newSegment = MediaSegment.builder()
-                                    .from(segment)
-                                    .uri(condensedUrl.get("BASE-URI") + paramResult.toString())
-                                    .build();
-                            newMediaSegments.add(newSegment);
+            Consumer<FullHttpResponse> responder = session.getPlaylistRequests().remove(fcupResponseURL);
+            if (responder != null) {
+                boolean master = fcupResponseURL.contains("master.m3u8");
+                if (master || fcupResponseURL.contains("mediadata.m3u8")) {
+                    PlaylistCache playlistCache = session.getPlaylistCache();
+                    byte[] playlist = playlistCache.get(fcupResponseURL, fcupResponse);
+                    if (playlist == null) {
+                        String baseUrl = playlistBaseUrl(ctx);
+                        List<String> segments = new ArrayList<>();
+                        String rewritten;
+                        if (master) {
+                            rewritten = PlaylistRewriter.rewriteMaster(fcupResponse, uri -> playlistUriToLocal(uri, baseUrl, session.getId()));
+                        } else if (segmentCache != null) {
+                            rewritten = PlaylistRewriter.rewriteMedia(fcupResponse, uri -> {
+                                if (!uri.startsWith("http://") && !uri.startsWith("https://")) {
+                                    return uri;
+                                }
+                                segments.add(uri);
+                                return segmentUriToLocal(uri, baseUrl, session.getId());
+                            });
+                        } else {
+                            rewritten = PlaylistRewriter.rewriteMedia(fcupResponse);
                         }
-                        
-                        mediaPlaylist = MediaPlaylist.builder()
-                                .from(mediaPlaylist)
-                                .mediaSegments(newMediaSegments)
-                                .build();
+                        playlist = rewritten.getBytes(StandardCharsets.UTF_8);
+                        playlistCache.put(fcupResponseURL, fcupResponse, playlist,
+                                master || PlaylistRewriter.isComplete(fcupResponse), segments);
                     }
-
-                    ChannelHandlerContext context = session.getPlaylistRequestContexts().get(fcupResponseURL);
-                    DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-                    response.content().writeCharSequence(parser.writePlaylistAsString(mediaPlaylist), StandardCharsets.UTF_8);
-                    HttpUtil.setContentLength(response, response.content().readableBytes());
-                    context.writeAndFlush(response);
-                    session.getPlaylistRequestContexts().remove(fcupResponseURL);
+                    responder.accept(createPlaylistResponse(playlist));
                 }
             }
         } else if ("playlistRemove".equals(type)) {
@@ -429,6 +680,7 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
             	</dict>
             </dict>
             </plist>*/
+            resolveSession(request).getPlaylistCache().clear();
             airPlayConsumer.onMediaPlaylistRemove();
         }
 
@@ -439,19 +691,70 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
     private void handleGetProperty(ChannelHandlerContext ctx, FullHttpRequest request) {
         // TODO get requested param and respond accordingly
         QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
-        log.info("Path: {}, Query params: {}" + decoder.path() + ", " + decoder.parameters());
+        log.fine(() -> "Path: " + decoder.path() + ", query params: " + decoder.parameters());
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
         sendResponse(ctx, request, response);
     }
 
     private void handleGetPlaylist(ChannelHandlerContext ctx, FullHttpRequest request) {
         String playlistUriRemote = playlistPathToRemote(request.uri());
-        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
-        Session session = sessionManager.getSession(decoder.parameters().get("session").get(0));
-        session.getPlaylistRequestContexts().put(playlistUriRemote, ctx);
+        Session session = findPlayerSession(request);
+        if (session == null) {
+            sendResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND));
+            return;
+        }
+        byte[] playlist = session.getPlaylistCache().getComplete(playlistUriRemote);
+        if (playlist != null) {
+            sendResponse(ctx, request, createPlaylistResponse(playlist));
+            return;
+        }
+        session.getPlaylistRequests().put(playlistUriRemote, forwardedResponder(ctx, request));
         sendEventRequest(session, playlistUriRemote);
     }
 
+    /**
+     * Serves a segment of a cached media playlist from the segment cache and prefetches the segments following it
+     */
+    private void handleGetSegment(ChannelHandlerContext ctx, FullHttpRequest request) {
+        List<String> uris = new QueryStringDecoder(request.uri()).parameters().get("uri");
+        Session session = findPlayerSession(request);
+        List<String> next = session != null && uris != null && segmentCache != null
+                ? session.getPlaylistCache().getSegmentsAfter(uris.get(0), airPlayConfig.getSegmentPrefetchCount())
+                : null;
+        if (next == null) {
+            // not a segment of this session's playlists, the control port doesn't proxy anything else
+            sendResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND));
+            return;
+        }
+        String uri = uris.get(0);
+        segmentCache.get(uri).whenComplete((segment, e) -> ctx.executor().execute(() -> {
+            if (e != null) {
+                log.warning(() -> "Segment fetch failed: " + uri + ", " + e.getMessage());
+                sendResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY));
+            } else {
+                sendResponse(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.wrappedBuffer(segment)));
+            }
+        }));
+        segmentCache.prefetch(next);
+    }
+
+    /**
+     * @return session named by the {@code session} query parameter of a player request, {@code null} if missing or
+     * unknown. The player isn't authenticated, so it must not create sessions
+     */
+    private Session findPlayerSession(FullHttpRequest request) {
+        List<String> sessionIds = new QueryStringDecoder(request.uri()).parameters().get("session");
+        return sessionIds != null ? sessionManager.findSession(sessionIds.get(0)) : null;
+    }
+
+    private String segmentUriToLocal(String segmentUri, String baseUrl, String sessionId) {
+        QueryStringEncoder queryEncoder = new QueryStringEncoder(baseUrl + "/segment");
+        queryEncoder.addParam("session", sessionId);
+        queryEncoder.addParam("uri", segmentUri);
+        return queryEncoder.toString();
+    }
+
     private String playlistUriToLocal(String playlistUri, String baseUrl, String sessionId) {
         String playlistUriLocal = playlistUri.replace("mlhls://localhost", baseUrl);
         QueryStringEncoder queryEncoder = new QueryStringEncoder(playlistUriLocal);
@@ -469,41 +772,17 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
         return String.format("http://localhost:%s/playlist", port);
     }
 
-    private String masterPlaylistToLocalUrls(String masterPlaylist, String baseUrl, String sessionId) throws PlaylistParserException {
-        MasterPlaylistParser parser = new MasterPlaylistParser();
-        MasterPlaylist playlist = parser.readPlaylist(masterPlaylist);
-
-        // 手动处理alternativeRenditions，替换Stream API
-        java.util.List<AlternativeRendition> newAlternativeRenditions = new java.util.ArrayList<>();
-        for (AlternativeRendition rendition : playlist.alternativeRenditions()) {
-            if (rendition.uri().isPresent()) {
-                AlternativeRendition newRendition = AlternativeRendition.builder()
-                        .from(rendition)
-                        .uri(playlistUriToLocal(rendition.uri().get(), baseUrl, sessionId))
-                        .build();
-                newAlternativeRenditions.add(newRendition);
-            } else {
-                newAlternativeRenditions.add(rendition);
-            }
-        }
-
-        // 手动处理variants，替换Stream API
-        java.util.List<Variant> newVariants = new java.util.ArrayList<>();
-        for (Variant variant : playlist.variants()) {
-            Variant newVariant = Variant.builder()
-                    .from(variant)
-                    .uri(playlistUriToLocal(variant.uri(), baseUrl, sessionId))
-                    .build();
-            newVariants.add(newVariant);
-        }
-
-        playlist = MasterPlaylist.builder()
-                .from(playlist)
-                .alternativeRenditions(newAlternativeRenditions)
-                .variants(newVariants)
-                .build();
+    private static DefaultFullHttpResponse createPlaylistResponse(byte[] playlist) {
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(playlist));
+        HttpUtil.setContentLength(response, playlist.length);
+        return response;
+    }
 
-        return parser.writePlaylistAsString(playlist);
+    private DefaultFullHttpResponse createResponse(FullHttpRequest request) {
+        return RtspVersions.RTSP_1_0.equals(request.protocolVersion())
+                ? createRtspResponse(request)
+                : new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
     }
 
     private DefaultFullHttpResponse createRtspResponse(FullHttpRequest request) {
@@ -520,6 +799,10 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void sendResponse(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
+        PendingRequest pending = pendingRequests.remove(request);
+        if (pending != null) {
+            pending.route.stats.recordResponse(System.nanoTime() - pending.startNanos);
+        }
         HttpUtil.setContentLength(response, response.content().readableBytes());
         ChannelFuture future = ctx.writeAndFlush(response);
         if (!HttpUtil.isKeepAlive(request)) {
@@ -538,4 +821,15 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
 
         session.getReverseContexts().get("event").writeAndFlush(event);
     }
+
+    private static final class PendingRequest {
+
+        final ControlRoutes.Route route;
+        final long startNanos;
+
+        PendingRequest(ControlRoutes.Route route, long startNanos) {
+            this.route = route;
+            this.startNanos = startNanos;
+        }
+    }
 }
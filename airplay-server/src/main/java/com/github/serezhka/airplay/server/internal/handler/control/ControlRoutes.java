@@ -0,0 +1,103 @@
+package com.github.serezhka.airplay.server.internal.handler.control;
+
+import com.github.serezhka.airplay.server.ControlStats;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Control requests by protocol, method and path. Built once per control server and shared by its connections, a
+ * request resolves with at most three hash lookups.
+ * <p>
+ * A path is either exact, {@link #ANY_PATH} for methods whose uri isn't a path (RTSP {@code SETUP rtsp://...}), or a
+ * first path segment followed by {@code /*}, e.g. {@code /playlist/*}.
+ */
+public class ControlRoutes {
+
+    static final String ANY_PATH = "*";
+
+    /**
+     * How a route answers its request
+     */
+    enum Reply {
+        /**
+         * Before the handler returns, otherwise the request is answered with an empty 200
+         */
+        NOW,
+        /**
+         * Later through the handler's connection, e.g. once media listeners are bound
+         */
+        LATER,
+        /**
+         * By another request, e.g. a playlist request is answered when the sender posts the playlist to
+         * {@code /action}, or right away when the playlist is cached. Stays pending until then, answered with 504
+         * if that doesn't happen in time
+         */
+        FORWARDED
+    }
+
+    @FunctionalInterface
+    interface RouteHandler {
+        void handle(ControlHandler handler, ChannelHandlerContext ctx, FullHttpRequest request) throws Exception;
+    }
+
+    static final class Route {
+
+        final String name;
+        final Reply reply;
+        final RouteHandler handler;
+        final ControlStats.RouteStats stats;
+
+        Route(String name, Reply reply, RouteHandler handler, ControlStats.RouteStats stats) {
+            this.name = name;
+            this.reply = reply;
+            this.handler = handler;
+            this.stats = stats;
+        }
+    }
+
+    private final Map<HttpVersion, Map<HttpMethod, Map<String, Route>>> routes = new HashMap<>();
+    private final ControlStats stats = new ControlStats();
+
+    ControlRoutes add(HttpVersion protocol, HttpMethod method, String path, Reply reply, RouteHandler handler) {
+        String name = protocol + " " + method + " " + path;
+        Route previous = routes.computeIfAbsent(protocol, p -> new HashMap<>())
+                .computeIfAbsent(method, m -> new HashMap<>())
+                .put(path, new Route(name, reply, handler, stats.addRoute(name)));
+        if (previous != null) {
+            throw new IllegalArgumentException("Duplicate control route: " + name);
+        }
+        return this;
+    }
+
+    /**
+     * @return route of the request, {@code null} if there is none
+     */
+    Route resolve(FullHttpRequest request) {
+        Map<HttpMethod, Map<String, Route>> methods = routes.get(request.protocolVersion());
+        Map<String, Route> paths = methods != null ? methods.get(request.method()) : null;
+        if (paths == null) {
+            return null;
+        }
+        String path = path(request.uri());
+        Route route = paths.get(path);
+        if (route == null) {
+            int segmentEnd = path.indexOf('/', 1);
+            route = paths.get((segmentEnd > 0 ? path.substring(0, segmentEnd) : path) + "/*");
+        }
+        return route != null ? route : paths.get(ANY_PATH);
+    }
+
+    private static String path(String uri) {
+        int query = uri.indexOf('?');
+        return query >= 0 ? uri.substring(0, query) : uri;
+    }
+
+    public ControlStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.serezhka.airplay.server.internal.handler.control;
+
+import com.github.serezhka.airplay.server.ProtocolTrace;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.util.Objects;
+
+/**
+ * Records the control requests and responses of a connection into a {@link ProtocolTrace}, only added to the
+ * pipeline while the trace is enabled. Messages pass through untouched.
+ */
+public class ProtocolTraceHandler extends ChannelDuplexHandler {
+
+    private final ProtocolTrace trace;
+
+    // session of the request being answered, responses don't carry it
+    private String sessionId;
+    private boolean sampled;
+
+    public ProtocolTraceHandler(ProtocolTrace trace) {
+        this.trace = trace;
+        this.sampled = trace.isSampled(null);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            String requestSessionId = request.headers().get("Active-Remote");
+            if (requestSessionId == null) {
+                requestSessionId = request.headers().get("X-Apple-Session-ID");
+            }
+            if (!Objects.equals(sessionId, requestSessionId)) {
+                sessionId = requestSessionId;
+                sampled = trace.isSampled(sessionId);
+            }
+            if (sampled) {
+                trace.record(sessionId, ProtocolTrace.Kind.REQUEST, request.method().name(), request.uri(), 0, size(msg));
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (sampled && msg instanceof HttpResponse) {
+            trace.record(sessionId, ProtocolTrace.Kind.RESPONSE, null, null,
+                    ((HttpResponse) msg).status().code(), size(msg));
+        }
+        ctx.write(msg, promise);
+    }
+
+    private static int size(Object msg) {
+        return msg instanceof ByteBufHolder ? ((ByteBufHolder) msg).content().readableBytes() : 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import com.github.serezhka.airplay.server.SegmentUpstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches segments with a plain HTTP GET, the default {@link SegmentUpstream}
+ */
+public class HttpSegmentUpstream implements SegmentUpstream {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final int READ_TIMEOUT_MILLIS = 15_000;
+
+    @Override
+    public byte[] fetch(String uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Segment fetch failed with " + status + ": " + uri);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return readAllBytes(in, connection.getContentLength());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * {@link InputStream#readAllBytes()} is Java 9, not available on older Android
+     */
+    private static byte[] readAllBytes(InputStream in, int contentLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? contentLength : 64 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewritten playlists of a session by their {@code mlhls://} URI.
+ * <p>
+ * Playlists which don't change, master playlists and media playlists with all their segments, are served without
+ * asking the sender again. Others are still fetched from the sender on every reload, but aren't rewritten again
+ * unless their content changed.
+ * <p>
+ * The segments of cached media playlists are kept in order too, only those are proxied and their successors are
+ * what gets prefetched.
+ */
+public class PlaylistCache {
+
+    private static final int MAX_PLAYLISTS = 16;
+
+    private final Map<String, Entry> playlists = new LinkedHashMap<>(MAX_PLAYLISTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_PLAYLISTS;
+        }
+    };
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @return rewritten playlist which doesn't change, {@code null} if it has to be fetched from the sender
+     */
+    public synchronized byte[] getComplete(String remoteUri) {
+        Entry entry = playlists.get(remoteUri);
+        if (entry != null && entry.complete) {
+            hits++;
+            return entry.rewritten;
+        }
+        return null;
+    }
+
+    /**
+     * @param source playlist as returned by the sender
+     * @return rewritten playlist if the source is the one cached, {@code null} otherwise
+     */
+    public synchronized byte[] get(String remoteUri, String source) {
+        Entry entry = playlists.get(remoteUri);
+        if (entry != null && entry.source.equals(source)) {
+            hits++;
+            return entry.rewritten;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @param complete whether the playlist doesn't change when reloaded
+     * @param segments upstream URIs of the proxied segments, in playlist order
+     */
+    public synchronized void put(String remoteUri, String source, byte[] rewritten, boolean complete,
+                                 List<String> segments) {
+        playlists.put(remoteUri, new Entry(source, rewritten, complete, segments));
+    }
+
+    /**
+     * @return up to {@code count} segments following the segment in its playlist, {@code null} if no cached playlist
+     * has the segment
+     */
+    public synchronized List<String> getSegmentsAfter(String segmentUri, int count) {
+        for (Entry entry : playlists.values()) {
+            Integer index = entry.segmentIndexes.get(segmentUri);
+            if (index != null) {
+                return entry.segments.subList(index + 1, Math.min(index + 1 + Math.max(count, 0), entry.segments.size()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the playlists, called when the sender plays or removes a media item
+     */
+    public synchronized void clear() {
+        playlists.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static final class Entry {
+
+        final String source;
+        final byte[] rewritten;
+        final boolean complete;
+        final List<String> segments;
+        final Map<String, Integer> segmentIndexes;
+
+        Entry(String source, byte[] rewritten, boolean complete, List<String> segments) {
+            this.source = source;
+            this.rewritten = rewritten;
+            this.complete = complete;
+            this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+            segmentIndexes = new HashMap<>(segments.size() * 2);
+            for (int i = 0; i < this.segments.size(); i++) {
+                segmentIndexes.putIfAbsent(this.segments.get(i), i);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the HLS playlists a sender returns for {@code mlhls://} URIs in one pass over their lines, everything
+ * but the rewritten URIs is copied as is.
+ */
+public class PlaylistRewriter {
+
+    private static final String CONDENSED_URL_TAG = "#YT-EXT-CONDENSED-URL:";
+    private static final String MEDIA_TAG = "#EXT-X-MEDIA:";
+    private static final String END_LIST_TAG = "#EXT-X-ENDLIST";
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("([A-Z0-9\\-]+)=(?:\"([^\"]+)\"|([^,]+))");
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+
+    private PlaylistRewriter() {
+    }
+
+    /**
+     * Relocalizes the variant URIs and the {@code URI} attributes of {@code #EXT-X-MEDIA} renditions
+     */
+    public static String rewriteMaster(String playlist, UnaryOperator<String> localUri) {
+        StringBuilder sb = new StringBuilder(playlist.length() + 256);
+        int start = 0;
+        while (start < playlist.length()) {
+            int end = lineEnd(playlist, start);
+            String line = playlist.substring(start, end);
+            if (line.startsWith(MEDIA_TAG)) {
+                Matcher matcher = URI_ATTRIBUTE.matcher(line);
+                if (matcher.find()) {
+                    sb.append(line, 0, matcher.start(1))
+                            .append(localUri.apply(matcher.group(1)))
+                            .append(line, matcher.end(1), line.length());
+                } else {
+                    sb.append(line);
+                }
+            } else if (isUri(line)) {
+                sb.append(localUri.apply(line.trim()));
+            } else {
+                sb.append(line);
+            }
+            sb.append('\n');
+            start = next(playlist, end);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Expands segment URIs condensed by {@code #YT-EXT-CONDENSED-URL}: the leading {@code PREFIX} is dropped and the
+     * remaining path values are paired with the {@code PARAMS} names after the {@code BASE-URI}
+     *
+     * @return the playlist itself if it has no condensed URLs
+     */
+    public static String rewriteMedia(String playlist) {
+        return playlist.contains(CONDENSED_URL_TAG) ? rewriteMedia(playlist, UnaryOperator.identity()) : playlist;
+    }
+
+    /**
+     * Expands condensed segment URIs as {@link #rewriteMedia(String)} does, then maps every segment URI, e.g. to
+     * proxy the segments
+     */
+    public static String rewriteMedia(String playlist, UnaryOperator<String> segmentUri) {
+        CondensedUrl condensedUrl = CondensedUrl.find(playlist);
+        StringBuilder sb = new StringBuilder(playlist.length() * 2);
+        StringBuilder expanded = new StringBuilder();
+        int start = 0;
+        while (start < playlist.length()) {
+            int end = lineEnd(playlist, start);
+            String line = playlist.substring(start, end);
+            if (isUri(line)) {
+                String uri = line.trim();
+                sb.append(segmentUri.apply(condensedUrl != null ? condensedUrl.expand(uri, expanded) : uri));
+            } else {
+                sb.append(line);
+            }
+            sb.append('\n');
+            start = next(playlist, end);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return whether the playlist has all its segments, so it doesn't change when reloaded
+     */
+    public static boolean isComplete(String mediaPlaylist) {
+        return mediaPlaylist.contains(END_LIST_TAG);
+    }
+
+    private static boolean isUri(String line) {
+        return !line.isEmpty() && line.charAt(0) != '#' && !line.trim().isEmpty();
+    }
+
+    /**
+     * @return end of the line at the index, without its {@code \r\n} or {@code \n}
+     */
+    private static int lineEnd(String playlist, int index) {
+        int end = playlist.indexOf('\n', index);
+        if (end < 0) {
+            end = playlist.length();
+        }
+        return end > index && playlist.charAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private static int next(String playlist, int lineEnd) {
+        if (lineEnd < playlist.length() && playlist.charAt(lineEnd) == '\r') {
+            lineEnd++;
+        }
+        return lineEnd + 1;
+    }
+
+    private static final class CondensedUrl {
+
+        private final String prefix;
+        private final String baseUri;
+        private final String[] paramNames;
+
+        private CondensedUrl(String prefix, String baseUri, String[] paramNames) {
+            this.prefix = prefix;
+            this.baseUri = baseUri;
+            this.paramNames = paramNames;
+        }
+
+        /**
+         * @return the first {@code #YT-EXT-CONDENSED-URL} of the playlist, {@code null} if it has none with
+         * {@code PARAMS}
+         */
+        static CondensedUrl find(String playlist) {
+            int tag = playlist.indexOf(CONDENSED_URL_TAG);
+            if (tag < 0) {
+                return null;
+            }
+            Map<String, String> attributes = new HashMap<>();
+            Matcher matcher = ATTRIBUTE.matcher(playlist.substring(tag + CONDENSED_URL_TAG.length(), lineEnd(playlist, tag)));
+            while (matcher.find()) {
+                attributes.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+            }
+            String params = attributes.get("PARAMS");
+            return params != null
+                    ? new CondensedUrl(attributes.getOrDefault("PREFIX", ""), attributes.getOrDefault("BASE-URI", ""), params.split(","))
+                    : null;
+        }
+
+        String expand(String uri, StringBuilder sb) {
+            // only a leading PREFIX is part of the condensing, the values may contain it too
+            String path = uri.startsWith(prefix) ? uri.substring(prefix.length()) : uri;
+            String[] paramValues = path.split("/");
+            sb.setLength(0);
+            sb.append(baseUri);
+            for (int i = 0; i < paramNames.length && i < paramValues.length; i++) {
+                sb.append('/').append(paramNames[i]).append('/').append(paramValues[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
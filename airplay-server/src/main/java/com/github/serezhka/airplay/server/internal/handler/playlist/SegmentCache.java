@@ -0,0 +1,287 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import com.github.serezhka.airplay.server.SegmentCacheStats;
+import com.github.serezhka.airplay.server.SegmentUpstream;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HLS segments proxied by the control server, shared by its sessions and keyed by their upstream URI.
+ * <p>
+ * Segments are kept in memory and evicted least recently used first once the memory tier exceeds its size. Evicted
+ * segments spill to the disk tier, if there is one, which evicts its own least recently used files the same way. A
+ * segment read from disk is kept there and put back in memory. Upstream fetches and disk reads run on the cache's
+ * fetch threads, a segment requested while it's being fetched joins that fetch.
+ */
+public class SegmentCache {
+
+    private static final Logger log = Logger.getLogger(SegmentCache.class.getName());
+
+    private static final int FETCH_THREADS = 2;
+
+    private final SegmentUpstream upstream;
+    private final SegmentCacheStats stats;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    // null without a disk tier
+    private final File directory;
+    private final boolean temporaryDirectory;
+    private final ExecutorService executor;
+
+    private final Map<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, DiskSegment> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<byte[]>> fetches = new HashMap<>();
+    private long memoryBytes;
+    private long diskBytes;
+    private long nextFile;
+
+    /**
+     * @param maxDiskBytes size of the disk tier, 0 to keep segments in memory only
+     * @param directory    where the disk tier is kept, {@code null} for a temporary directory
+     */
+    public SegmentCache(SegmentUpstream upstream, long maxMemoryBytes, long maxDiskBytes, File directory,
+                        SegmentCacheStats stats) throws IOException {
+        this.upstream = upstream;
+        this.stats = stats;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        if (maxDiskBytes <= 0) {
+            this.directory = null;
+            temporaryDirectory = false;
+        } else if (directory == null) {
+            this.directory = Files.createTempDirectory("airplay-segments").toFile();
+            temporaryDirectory = true;
+        } else {
+            Files.createDirectories(directory.toPath());
+            this.directory = directory;
+            temporaryDirectory = false;
+        }
+        executor = Executors.newFixedThreadPool(FETCH_THREADS, new DefaultThreadFactory("airplay-segment", true));
+    }
+
+    /**
+     * @return the segment, completed right away if it's in memory
+     */
+    public CompletableFuture<byte[]> get(String uri) {
+        stats.recordRequest();
+        CompletableFuture<byte[]> fetch;
+        synchronized (this) {
+            byte[] segment = memory.get(uri);
+            if (segment != null) {
+                stats.recordMemoryHit(segment.length);
+                return CompletableFuture.completedFuture(segment);
+            }
+            fetch = fetches.get(uri);
+            if (fetch == null) {
+                return fetch(uri, false).whenComplete(this::recordFailure);
+            }
+        }
+        return fetch.whenComplete((segment, e) -> {
+            if (segment != null) {
+                stats.recordPrefetchHit(segment.length);
+            }
+            recordFailure(segment, e);
+        });
+    }
+
+    /**
+     * Fetches the segments which aren't cached or being fetched already
+     */
+    public synchronized void prefetch(List<String> uris) {
+        for (String uri : uris) {
+            if (!memory.containsKey(uri) && !disk.containsKey(uri) && !fetches.containsKey(uri)) {
+                fetch(uri, true);
+            }
+        }
+    }
+
+    /**
+     * Stops fetching and deletes the disk tier
+     */
+    public void close() {
+        executor.shutdownNow();
+        List<File> files;
+        synchronized (this) {
+            files = new ArrayList<>();
+            disk.values().forEach(segment -> files.add(segment.file));
+            memory.clear();
+            disk.clear();
+            memoryBytes = 0;
+            diskBytes = 0;
+            stats.recordSize(0, 0);
+        }
+        files.forEach(File::delete);
+        if (temporaryDirectory) {
+            directory.delete();
+        }
+    }
+
+    public SegmentCacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Called holding the lock, the fetch is registered before its task can finish and unregistered before it
+     * completes, so a request following a failed fetch fetches again
+     */
+    private CompletableFuture<byte[]> fetch(String uri, boolean prefetch) {
+        CompletableFuture<byte[]> fetch = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                byte[] segment;
+                try {
+                    segment = load(uri, prefetch);
+                } catch (RuntimeException e) {
+                    fetched(uri, fetch);
+                    fetch.completeExceptionally(e);
+                    return;
+                }
+                fetched(uri, fetch);
+                fetch.complete(segment);
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            fetch.completeExceptionally(e);
+            return fetch;
+        }
+        fetches.put(uri, fetch);
+        return fetch;
+    }
+
+    private synchronized void fetched(String uri, CompletableFuture<byte[]> fetch) {
+        fetches.remove(uri, fetch);
+    }
+
+    private byte[] load(String uri, boolean prefetch) {
+        byte[] segment = readDisk(uri);
+        if (segment != null) {
+            if (!prefetch) {
+                stats.recordDiskHit(segment.length);
+            }
+        } else {
+            try {
+                segment = upstream.fetch(uri);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            stats.recordFetch(segment.length, prefetch);
+        }
+        store(uri, segment);
+        return segment;
+    }
+
+    private void store(String uri, byte[] segment) {
+        List<Map.Entry<String, byte[]>> spilled = new ArrayList<>();
+        synchronized (this) {
+            if (segment.length <= maxMemoryBytes) {
+                byte[] previous = memory.put(uri, segment);
+                memoryBytes += segment.length - (previous != null ? previous.length : 0);
+            } else if (!disk.containsKey(uri)) {
+                spilled.add(new AbstractMap.SimpleEntry<>(uri, segment));
+            }
+            Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                eldest.remove();
+                memoryBytes -= entry.getValue().length;
+                stats.recordEviction();
+                if (directory != null && !disk.containsKey(entry.getKey())) {
+                    spilled.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()));
+                }
+            }
+            stats.recordSize(memoryBytes, diskBytes);
+        }
+        for (Map.Entry<String, byte[]> entry : spilled) {
+            writeDisk(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private byte[] readDisk(String uri) {
+        DiskSegment segment;
+        synchronized (this) {
+            segment = disk.get(uri);
+        }
+        if (segment == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(segment.file.toPath());
+        } catch (IOException e) {
+            // evicted meanwhile, fetched upstream again
+            return null;
+        }
+    }
+
+    private void writeDisk(String uri, byte[] segment) {
+        if (directory == null || segment.length > maxDiskBytes) {
+            return;
+        }
+        File file;
+        synchronized (this) {
+            file = new File(directory, "segment-" + nextFile++ + ".ts");
+        }
+        try {
+            Files.write(file.toPath(), segment);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Can't spill segment to disk", e);
+            file.delete();
+            return;
+        }
+        List<File> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (executor.isShutdown()) {
+                evicted.add(file);
+            } else {
+                DiskSegment previous = disk.put(uri, new DiskSegment(file, segment.length));
+                diskBytes += segment.length;
+                if (previous != null) {
+                    diskBytes -= previous.size;
+                    evicted.add(previous.file);
+                }
+                Iterator<DiskSegment> eldest = disk.values().iterator();
+                while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+                    DiskSegment eldestSegment = eldest.next();
+                    eldest.remove();
+                    diskBytes -= eldestSegment.size;
+                    evicted.add(eldestSegment.file);
+                }
+                stats.recordSize(memoryBytes, diskBytes);
+            }
+        }
+        evicted.forEach(File::delete);
+    }
+
+    private void recordFailure(byte[] segment, Throwable e) {
+        if (e != null) {
+            stats.recordFailure();
+        }
+    }
+
+    private static final class DiskSegment {
+
+        final File file;
+        final int size;
+
+        DiskSegment(File file, int size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.serezhka.airplay.server.internal.handler.session;
+
+import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.server.ConnectPhase;
+import com.github.serezhka.airplay.server.ConnectStats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * When a session went through each {@link ConnectPhase}. Control and video handlers mark their phases, pairing and
+ * FairPlay phases are read from the session's {@link AirPlay}. The trace is added to {@link ConnectStats} on the
+ * first frame, logged and started over when the session ends.
+ */
+public class ConnectTrace {
+
+    private static final Logger log = Logger.getLogger(ConnectTrace.class.getName());
+
+    private static final ConnectPhase[] PHASES = ConnectPhase.values();
+
+    private final String sessionId;
+    private final AirPlay airPlay;
+    private final ConnectStats connectStats;
+    private final AtomicLongArray marks = new AtomicLongArray(PHASES.length);
+
+    /**
+     * Times before it belong to a previous connect of the session, 0 until the first one finishes
+     */
+    private volatile long sinceNanos;
+
+    ConnectTrace(String sessionId, AirPlay airPlay, ConnectStats connectStats) {
+        this.sessionId = sessionId;
+        this.airPlay = airPlay;
+        this.connectStats = connectStats;
+    }
+
+    /**
+     * Marks the phase as reached now, unless it already was
+     */
+    public void mark(ConnectPhase phase) {
+        mark(phase, System.nanoTime());
+    }
+
+    /**
+     * @return {@code true} if this call marked the phase
+     */
+    public boolean mark(ConnectPhase phase, long nanos) {
+        return marks.get(phase.ordinal()) == 0 && isCurrent(nanos)
+                && marks.compareAndSet(phase.ordinal(), 0, nanos);
+    }
+
+    /**
+     * Called by the video handler on the first picture frame, records the trace in the stats
+     */
+    public void onFirstFrame() {
+        if (mark(ConnectPhase.FIRST_FRAME, System.nanoTime())) {
+            connectStats.record(getPhaseNanos());
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of each phase indexed by {@link ConnectPhase#ordinal()}, 0 if not reached
+     */
+    public long[] getPhaseNanos() {
+        long[] phaseNanos = new long[PHASES.length];
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = marks.get(i);
+        }
+        phaseNanos[ConnectPhase.PAIR_VERIFY.ordinal()] = sinceStart(airPlay.getPairVerifiedNanos());
+        phaseNanos[ConnectPhase.FAIRPLAY_SETUP.ordinal()] = sinceStart(airPlay.getFairPlaySetupNanos());
+        phaseNanos[ConnectPhase.FIRST_DECRYPT.ordinal()] = sinceStart(airPlay.getFirstVideoDecryptNanos());
+        return phaseNanos;
+    }
+
+    private long sinceStart(long nanos) {
+        return nanos != 0 && isCurrent(nanos) ? nanos : 0;
+    }
+
+    private boolean isCurrent(long nanos) {
+        long since = sinceNanos;
+        return since == 0 || nanos - since >= 0;
+    }
+
+    /**
+     * @return time from the first recorded phase to the first frame, -1 if no frame yet
+     */
+    public long getTimeToFirstFrameNanos() {
+        long[] phaseNanos = getPhaseNanos();
+        long firstFrameNanos = phaseNanos[ConnectPhase.FIRST_FRAME.ordinal()];
+        if (firstFrameNanos == 0) {
+            return -1;
+        }
+        for (long nanos : phaseNanos) {
+            if (nanos != 0) {
+                return firstFrameNanos - nanos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Logs the trace and starts a new one, called when the session is torn down or closed
+     */
+    public synchronized void finish() {
+        long[] phaseNanos = getPhaseNanos();
+        boolean videoSetUp = phaseNanos[ConnectPhase.SETUP_VIDEO.ordinal()] != 0;
+        boolean firstFrame = phaseNanos[ConnectPhase.FIRST_FRAME.ordinal()] != 0;
+        if (videoSetUp || firstFrame) {
+            if (!firstFrame) {
+                connectStats.recordIncomplete();
+            }
+            log.info("Connect trace of session " + sessionId + ": " + format(phaseNanos) + "\n" + connectStats);
+        }
+        sinceNanos = System.nanoTime();
+        for (int i = 0; i < PHASES.length; i++) {
+            marks.set(i, 0);
+        }
+    }
+
+    private static String format(long[] phaseNanos) {
+        StringBuilder sb = new StringBuilder();
+        long startNanos = 0;
+        long previousNanos = 0;
+        for (ConnectPhase phase : PHASES) {
+            long nanos = phaseNanos[phase.ordinal()];
+            if (nanos == 0) {
+                continue;
+            }
+            if (previousNanos == 0) {
+                startNanos = nanos;
+                sb.append(phase.getLabel()).append(" 0ms");
+            } else {
+                sb.append(", ").append(phase.getLabel()).append(" +").append(millis(nanos - previousNanos));
+            }
+            previousNanos = nanos;
+        }
+        long firstFrameNanos = phaseNanos[ConnectPhase.FIRST_FRAME.ordinal()];
+        sb.append(firstFrameNanos != 0 ? ", time to first frame " + millis(firstFrameNanos - startNanos) : ", no frame");
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
@@ -1,43 +1,148 @@
 package com.github.serezhka.airplay.server.internal.handler.session;
 
 import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.server.ConnectStats;
+import com.github.serezhka.airplay.server.ProtocolTrace;
+import com.github.serezhka.airplay.server.SessionStats;
+import com.github.serezhka.airplay.server.internal.AirPlayTransport;
 import com.github.serezhka.airplay.server.internal.AudioControlServer;
 import com.github.serezhka.airplay.server.internal.AudioServer;
+import com.github.serezhka.airplay.server.internal.TimingServer;
 import com.github.serezhka.airplay.server.internal.VideoServer;
+import com.github.serezhka.airplay.server.internal.handler.audio.AudioJitterBuffer;
+import com.github.serezhka.airplay.server.internal.handler.playlist.PlaylistCache;
+import com.github.serezhka.airplay.server.internal.handler.video.VideoFlowControl;
+import com.github.serezhka.airplay.server.internal.handler.video.VideoWorkerGate;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 public class Session {
 
+    private static final Logger log = Logger.getLogger(Session.class.getName());
+
     private final String id;
 
     private final AirPlay airPlay;
     private final VideoServer videoServer;
     private final AudioServer audioServer;
     private final AudioControlServer audioControlServer;
+    private final TimingServer timingServer;
     private final Map<String, ChannelHandlerContext> reverseContexts;
-    private final Map<String, ChannelHandlerContext> playlistRequestContexts;
+    private final Map<String, Consumer<FullHttpResponse>> playlistRequests;
+    private final PlaylistCache playlistCache;
+    private final ConnectTrace connectTrace;
+    private final ProtocolTrace protocolTrace;
+
+    private volatile long lastActivityNanos;
+    private volatile boolean ended;
+    private boolean closed;
 
-    Session(String id) {
+    Session(String id, AirPlayTransport transport, ReceiverIdentity identity, ConnectStats connectStats) {
         this.id = id;
-        airPlay = new AirPlay();
-        videoServer = new VideoServer(airPlay);
-        audioServer = new AudioServer(airPlay);
-        audioControlServer = new AudioControlServer();
+        airPlay = new AirPlay(identity);
+        connectTrace = new ConnectTrace(id, airPlay, connectStats);
+        timingServer = new TimingServer(transport);
+        videoServer = new VideoServer(id, airPlay, timingServer.getSenderClock(), connectTrace, transport);
+        audioControlServer = new AudioControlServer(transport);
+        audioServer = new AudioServer(id, airPlay, audioControlServer, transport);
         reverseContexts = new ConcurrentHashMap<>();
-        playlistRequestContexts = new ConcurrentHashMap<>();
+        playlistRequests = new ConcurrentHashMap<>();
+        playlistCache = new PlaylistCache();
+        lastActivityNanos = System.nanoTime();
+        protocolTrace = transport.getProtocolTrace();
+        if (protocolTrace.isSampled(id)) {
+            protocolTrace.record(id, ProtocolTrace.Kind.SESSION, "created", null, 0, 0);
+        }
+    }
+
+    /**
+     * Marks the session as used by a control request
+     *
+     * @return {@code false} if the session is already closed
+     */
+    synchronized boolean touch() {
+        if (closed) {
+            return false;
+        }
+        lastActivityNanos = System.nanoTime();
+        ended = false;
+        return true;
+    }
+
+    /**
+     * Marks the session as torn down or its control connection as gone, it's evicted soon unless used again
+     */
+    public void end() {
+        ended = true;
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    public long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    public boolean isVideoRunning() {
+        return videoServer.isRunning();
+    }
+
+    public boolean isAudioRunning() {
+        return audioServer.isRunning();
+    }
+
+    /**
+     * Stops the media servers, which closes their channels and releases buffered packets and frames, and drops
+     * the contexts of reverse connections, the waiting playlist requests and the cached playlists
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        audioServer.stop();
+        audioControlServer.stop();
+        videoServer.stop();
+        timingServer.stop();
+        reverseContexts.clear();
+        playlistRequests.clear();
+        playlistCache.clear();
+        connectTrace.finish();
+        if (protocolTrace.isSampled(id)) {
+            protocolTrace.record(id, ProtocolTrace.Kind.SESSION, "closed", null, 0, 0);
+        }
+        log.info("Session closed: " + id);
     }
     
     public String getId() {
         return id;
     }
+
+    public SessionStats getStats() {
+        VideoWorkerGate workerGate = videoServer.getWorkerGate();
+        VideoFlowControl flowControl = videoServer.getFlowControl();
+        AudioJitterBuffer jitterBuffer = audioServer.getJitterBuffer();
+        return new SessionStats(id, timingServer.getSenderClock().getStats(),
+                workerGate != null ? workerGate.getStats() : null,
+                flowControl != null ? flowControl.getStats() : null,
+                jitterBuffer != null ? jitterBuffer.getStats() : null);
+    }
     
     public AirPlay getAirPlay() {
         return airPlay;
     }
     
+    public ConnectTrace getConnectTrace() {
+        return connectTrace;
+    }
+    
     public VideoServer getVideoServer() {
         return videoServer;
     }
@@ -50,11 +155,23 @@ public class Session {
         return audioControlServer;
     }
     
+    public TimingServer getTimingServer() {
+        return timingServer;
+    }
+    
     public Map<String, ChannelHandlerContext> getReverseContexts() {
         return reverseContexts;
     }
     
-    public Map<String, ChannelHandlerContext> getPlaylistRequestContexts() {
-        return playlistRequestContexts;
+    /**
+     * @return responders of player requests waiting for the playlist the sender posts to {@code /action}, by
+     * remote playlist uri
+     */
+    public Map<String, Consumer<FullHttpResponse>> getPlaylistRequests() {
+        return playlistRequests;
+    }
+    
+    public PlaylistCache getPlaylistCache() {
+        return playlistCache;
     }
 }
@@ -1,21 +1,182 @@
 package com.github.serezhka.airplay.server.internal.handler.session;
 
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.ConnectStats;
+import com.github.serezhka.airplay.server.SessionStats;
+import com.github.serezhka.airplay.server.internal.AirPlayTransport;
+import io.netty.util.concurrent.ScheduledFuture;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
+/**
+ * Sessions of all control connections, keyed by {@code Active-Remote} / {@code X-Apple-Session-ID}.
+ * <p>
+ * Sessions idle for {@link com.github.serezhka.airplay.server.AirPlayConfig#getSessionIdleTimeoutMillis()} while not
+ * streaming, and sessions torn down or left by their control connection and not used again within
+ * {@link #ENDED_LINGER_MILLIS}, are closed and removed by a periodic sweep.
+ */
 public class SessionManager {
 
-    private final Map<String, Session> sessions = new HashMap<>();
+    private static final Logger log = Logger.getLogger(SessionManager.class.getName());
 
+    /**
+     * How long an ended session is kept in case the sender comes back, e.g. a new SETUP after TEARDOWN
+     */
+    static final long ENDED_LINGER_MILLIS = 30_000;
+
+    private static final long SWEEP_INTERVAL_MILLIS = 10_000;
+
+    /**
+     * Key of requests without session id header, a {@link ConcurrentHashMap} doesn't take {@code null} keys
+     */
+    private static final String NO_SESSION_ID = "";
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AirPlayTransport transport;
+    private final AirPlayConsumer airPlayConsumer;
+    private final ReceiverIdentity identity;
+    private final long idleTimeoutNanos;
+    private final AtomicLong createdSessions = new AtomicLong();
+    private final AtomicLong evictedSessions = new AtomicLong();
+    private final ConnectStats connectStats = new ConnectStats();
+
+    private ScheduledFuture<?> sweepTask;
+
+    /**
+     * @param airPlayConsumer   notified of the streams stopped when a session is evicted
+     * @param identity          key pair all sessions pair with
+     * @param idleTimeoutMillis 0 to keep idle sessions
+     */
+    public SessionManager(AirPlayTransport transport, AirPlayConsumer airPlayConsumer, ReceiverIdentity identity,
+                          long idleTimeoutMillis) {
+        this.transport = transport;
+        this.airPlayConsumer = airPlayConsumer;
+        this.identity = identity;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * @return session for the id, created if absent, marked as active
+     */
     public Session getSession(String sessionId) {
-        synchronized (sessions) {
-            Session session;
-            if ((session = sessions.get(sessionId)) == null) {
-                session = new Session(sessionId);
-                sessions.put(sessionId, session);
+        while (true) {
+            Session session = sessions.computeIfAbsent(key(sessionId), key -> {
+                createdSessions.incrementAndGet();
+                return new Session(sessionId, transport, identity, connectStats);
+            });
+            if (session.touch()) {
+                return session;
+            }
+            sessions.remove(key(sessionId), session); // closed by eviction right now, replace it
+        }
+    }
+
+    /**
+     * @return session for the id, {@code null} if there is none, never creates one. For requests which name a session
+     * without authenticating, e.g. the player's playlist and segment requests
+     */
+    public Session findSession(String sessionId) {
+        return sessionId != null ? sessions.get(sessionId) : null;
+    }
+
+    /**
+     * Marks the session as active if it exists, for requests which carry a session id but don't need the session,
+     * e.g. the {@code /feedback} and {@code GET_PARAMETER} keep-alives of a streaming sender
+     */
+    public void touchSession(String sessionId) {
+        Session session = sessions.get(key(sessionId));
+        if (session != null) {
+            session.touch();
+        }
+    }
+
+    private static String key(String sessionId) {
+        return sessionId != null ? sessionId : NO_SESSION_ID;
+    }
+
+    public void startEviction() {
+        if (sweepTask == null) {
+            sweepTask = transport.getControlGroup().next().scheduleAtFixedRate(this::evictIdle,
+                    SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops eviction and closes all sessions
+     */
+    public void stop() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+            sweepTask = null;
+        }
+        sessions.values().forEach(session -> remove(session, "server stopped"));
+    }
+
+    /**
+     * Closes and removes sessions which are ended or idle
+     */
+    void evictIdle() {
+        long now = System.nanoTime();
+        long endedLingerNanos = TimeUnit.MILLISECONDS.toNanos(ENDED_LINGER_MILLIS);
+        for (Session session : sessions.values()) {
+            // decided under the session lock, so a request touching the session meanwhile either keeps it alive
+            // or gets a closed session and replaces it
+            synchronized (session) {
+                long idleNanos = now - session.getLastActivityNanos();
+                if (session.isEnded() && idleNanos > endedLingerNanos) {
+                    remove(session, "ended");
+                } else if (idleTimeoutNanos > 0 && idleNanos > idleTimeoutNanos
+                        && !session.isVideoRunning() && !session.isAudioRunning()) {
+                    remove(session, "idle for " + TimeUnit.NANOSECONDS.toSeconds(idleNanos) + " s");
+                }
             }
-            return session;
         }
     }
+
+    private void remove(Session session, String reason) {
+        log.info("Evicting session " + session.getId() + ": " + reason);
+        boolean videoRunning = session.isVideoRunning();
+        boolean audioRunning = session.isAudioRunning();
+        session.close();
+        sessions.remove(key(session.getId()), session); // unless already replaced after a concurrent touch
+        evictedSessions.incrementAndGet();
+        if (videoRunning) {
+            airPlayConsumer.onVideoSrcDisconnect();
+        }
+        if (audioRunning) {
+            airPlayConsumer.onAudioSrcDisconnect();
+        }
+    }
+
+    public int getLiveSessions() {
+        return sessions.size();
+    }
+
+    public long getCreatedSessions() {
+        return createdSessions.get();
+    }
+
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    public ConnectStats getConnectStats() {
+        return connectStats;
+    }
+
+    /**
+     * @return snapshot of every registered session
+     */
+    public List<SessionStats> getSessionStats() {
+        List<SessionStats> stats = new ArrayList<>(sessions.size());
+        sessions.values().forEach(session -> stats.add(session.getStats()));
+        return stats;
+    }
 }
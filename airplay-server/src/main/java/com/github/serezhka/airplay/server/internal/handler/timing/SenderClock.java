@@ -0,0 +1,262 @@
+package com.github.serezhka.airplay.server.internal.handler.timing;
+
+import com.github.serezhka.airplay.server.SenderClockStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the sender's NTP clock relative to the local {@link System#nanoTime()} clock.
+ * <p>
+ * Every timing exchange yields an offset and a round trip delay sample. As in the NTP clock filter, the offset of
+ * the sample with the smallest delay among the last {@link #FILTER_SIZE} samples is taken, since queuing delay only
+ * makes samples worse. Drift is the least squares slope of the filtered offsets over {@link #DRIFT_WINDOW} updates.
+ * <p>
+ * Written from the timing channel event loop, read from any thread.
+ */
+public class SenderClock {
+
+    static final int FILTER_SIZE = 8;
+    static final int DRIFT_WINDOW = 16;
+    static final double MAX_DRIFT = 500e-6; // well beyond any crystal, larger slopes are noise
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long NTP_EPOCH_OFFSET_MILLIS = 2_208_988_800_000L; // 1900-01-01 .. 1970-01-01
+    private static final long NTP_EPOCH_OFFSET_SECONDS = TimeUnit.MILLISECONDS.toSeconds(NTP_EPOCH_OFFSET_MILLIS);
+
+    /**
+     * Local clock in nanoseconds since the NTP epoch is {@code System.nanoTime() + localNtpBase}
+     */
+    private final long localNtpBase;
+
+    private final long[] sampleOffsets = new long[FILTER_SIZE];
+    private final long[] sampleDelays = new long[FILTER_SIZE];
+    private final long[] driftLocal = new long[DRIFT_WINDOW];
+    private final long[] driftOffsets = new long[DRIFT_WINDOW];
+    private int samples;
+    private int driftSamples;
+
+    private volatile Estimate estimate;
+    private volatile long totalSamples;
+    private volatile long rejectedSamples;
+
+    public SenderClock() {
+        localNtpBase = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() + NTP_EPOCH_OFFSET_MILLIS) - System.nanoTime();
+    }
+
+    /**
+     * @return local time as NTP 32.32 fixed point timestamp
+     */
+    public long localNtpTime(long localNanos) {
+        return nanosToNtp(localNanos + localNtpBase);
+    }
+
+    /**
+     * Adds the result of a timing exchange
+     *
+     * @param originNtp    local NTP time the request was sent at, echoed by the sender
+     * @param receiveNtp   sender NTP time the request was received at
+     * @param transmitNtp  sender NTP time the reply was sent at
+     * @param localNanos   local time the reply was received at
+     */
+    public void onTimingReply(long originNtp, long receiveNtp, long transmitNtp, long localNanos) {
+        long t1 = ntpToNanos(originNtp);
+        long t2 = ntpToNanos(receiveNtp);
+        long t3 = ntpToNanos(transmitNtp);
+        long t4 = localNanos + localNtpBase;
+        long delay = (t4 - t1) - (t3 - t2);
+        totalSamples++;
+        if (delay < 0 || t4 < t1) {
+            rejectedSamples++;
+            return;
+        }
+        long offset = ((t2 - t1) + (t3 - t4)) / 2;
+
+        int slot = samples++ % FILTER_SIZE;
+        sampleOffsets[slot] = offset;
+        sampleDelays[slot] = delay;
+
+        int count = Math.min(samples, FILTER_SIZE);
+        int best = slot;
+        for (int age = 1; age < count; age++) { // newest first, so ties keep the more recent offset
+            int i = (slot - age + FILTER_SIZE) % FILTER_SIZE;
+            if (sampleDelays[i] < sampleDelays[best]) {
+                best = i;
+            }
+        }
+        long filteredOffset = sampleOffsets[best];
+        long minDelay = sampleDelays[best];
+
+        double sumSquares = 0;
+        for (int i = 0; i < count; i++) {
+            double d = sampleOffsets[i] - filteredOffset;
+            sumSquares += d * d;
+        }
+        long dispersion = (long) Math.sqrt(sumSquares / count);
+
+        int driftSlot = driftSamples++ % DRIFT_WINDOW;
+        driftLocal[driftSlot] = localNanos;
+        driftOffsets[driftSlot] = filteredOffset;
+
+        estimate = new Estimate(localNanos, filteredOffset, drift(), minDelay, dispersion);
+    }
+
+    /**
+     * @return least squares slope of the filtered offsets, nanoseconds of offset per nanosecond of local time
+     */
+    private double drift() {
+        int count = Math.min(driftSamples, DRIFT_WINDOW);
+        if (count < 2) {
+            return 0;
+        }
+        long x0 = driftLocal[0];
+        long y0 = driftOffsets[0];
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for (int i = 0; i < count; i++) {
+            double x = driftLocal[i] - x0;
+            double y = driftOffsets[i] - y0;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        double denominator = count * sumXX - sumX * sumX;
+        if (denominator <= 0) {
+            return 0;
+        }
+        double slope = (count * sumXY - sumX * sumY) / denominator;
+        return Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, slope));
+    }
+
+    public boolean isSynced() {
+        return estimate != null;
+    }
+
+    /**
+     * @return local {@link System#nanoTime()} corresponding to the sender NTP 32.32 timestamp,
+     * or {@link Long#MIN_VALUE} until the first timing reply is received
+     */
+    public long senderToLocalNanos(long senderNtpTime) {
+        Estimate current = estimate;
+        if (current == null) {
+            return Long.MIN_VALUE;
+        }
+        long senderNanos = ntpToNanos(senderNtpTime);
+        long approxLocal = senderNanos - current.offsetNanos - localNtpBase;
+        return approxLocal - (long) (current.drift * (approxLocal - current.localNanos));
+    }
+
+    /**
+     * Same as {@link #senderToLocalNanos(long)} for 32.32 timestamps counting seconds since 1970, as carried by
+     * mirroring stream headers
+     */
+    public long senderUnixNtpToLocalNanos(long senderUnixNtpTime) {
+        return senderToLocalNanos(senderUnixNtpTime + (NTP_EPOCH_OFFSET_SECONDS << 32));
+    }
+
+    /**
+     * @return sender NTP 32.32 timestamp corresponding to the local {@link System#nanoTime()}, 0 if not synced
+     */
+    public long localToSenderNtp(long localNanos) {
+        Estimate current = estimate;
+        if (current == null) {
+            return 0;
+        }
+        return nanosToNtp(localNanos + localNtpBase + current.offsetAt(localNanos));
+    }
+
+    /**
+     * @return sender clock minus local clock at the last update
+     */
+    public long getOffsetNanos() {
+        Estimate current = estimate;
+        return current != null ? current.offsetNanos : 0;
+    }
+
+    /**
+     * @return relative frequency error of the sender clock, parts per million
+     */
+    public double getDriftPpm() {
+        Estimate current = estimate;
+        return current != null ? current.drift * 1_000_000 : 0;
+    }
+
+    /**
+     * @return round trip delay of the sample the offset was taken from
+     */
+    public long getRoundTripNanos() {
+        Estimate current = estimate;
+        return current != null ? current.roundTripNanos : 0;
+    }
+
+    /**
+     * @return RMS distance of the recent offset samples from the filtered offset
+     */
+    public long getDispersionNanos() {
+        Estimate current = estimate;
+        return current != null ? current.dispersionNanos : 0;
+    }
+
+    /**
+     * @return bound of the mapping error, half the round trip of the chosen sample plus dispersion
+     */
+    public long getAccuracyNanos() {
+        Estimate current = estimate;
+        return current != null ? current.roundTripNanos / 2 + current.dispersionNanos : Long.MAX_VALUE;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * @return samples discarded because of an impossible (negative) round trip
+     */
+    public long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    /**
+     * @return mapping and its accuracy, taken from a single update
+     */
+    public SenderClockStats getStats() {
+        Estimate current = estimate;
+        if (current == null) {
+            return new SenderClockStats(false, 0, 0, 0, 0, Long.MAX_VALUE, totalSamples, rejectedSamples);
+        }
+        return new SenderClockStats(true, current.offsetNanos, current.drift * 1_000_000, current.roundTripNanos,
+                current.dispersionNanos, current.roundTripNanos / 2 + current.dispersionNanos, totalSamples,
+                rejectedSamples);
+    }
+
+    static long ntpToNanos(long ntpTime) {
+        long seconds = ntpTime >>> 32;
+        long fraction = ntpTime & 0xFFFFFFFFL;
+        return seconds * NANOS_PER_SECOND + ((fraction * NANOS_PER_SECOND) >>> 32);
+    }
+
+    static long nanosToNtp(long nanos) {
+        long seconds = nanos / NANOS_PER_SECOND;
+        long fraction = ((nanos % NANOS_PER_SECOND) << 32) / NANOS_PER_SECOND;
+        return (seconds << 32) | fraction;
+    }
+
+    private static final class Estimate {
+        private final long localNanos;
+        private final long offsetNanos;
+        private final double drift;
+        private final long roundTripNanos;
+        private final long dispersionNanos;
+
+        private Estimate(long localNanos, long offsetNanos, double drift, long roundTripNanos, long dispersionNanos) {
+            this.localNanos = localNanos;
+            this.offsetNanos = offsetNanos;
+            this.drift = drift;
+            this.roundTripNanos = roundTripNanos;
+            this.dispersionNanos = dispersionNanos;
+        }
+
+        private long offsetAt(long localNanos) {
+            return offsetNanos + (long) (drift * (localNanos - this.localNanos));
+        }
+    }
+}
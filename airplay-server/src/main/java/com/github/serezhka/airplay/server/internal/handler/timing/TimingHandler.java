@@ -0,0 +1,71 @@
+package com.github.serezhka.airplay.server.internal.handler.timing;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * NTP-style timing exchange, 32 byte packets:
+ * <pre>
+ * 0      1      2..3   4..7   8..15            16..23         24..31
+ * 0x80   type   seq    0      origin time      receive time   transmit time
+ * </pre>
+ * Requests (0x52) of the sender are answered, replies (0x53) to our requests feed the {@link SenderClock}.
+ */
+public class TimingHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private static final Logger log = Logger.getLogger(TimingHandler.class.getName());
+
+    public static final int TIMING_REQUEST_TYPE = 0x52;
+    public static final int TIMING_REPLY_TYPE = 0x53;
+    public static final int TIMING_PACKET_SIZE = 32;
+
+    private final SenderClock senderClock;
+
+    private volatile long servedRequests;
+
+    public TimingHandler(SenderClock senderClock) {
+        this.senderClock = senderClock;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
+        long now = System.nanoTime();
+        ByteBuf content = msg.content();
+        if (content.readableBytes() < TIMING_PACKET_SIZE) {
+            return;
+        }
+        int index = content.readerIndex();
+        int type = content.getUnsignedByte(index + 1) & 0x7F;
+        switch (type) {
+            case TIMING_REPLY_TYPE:
+                senderClock.onTimingReply(content.getLong(index + 8), content.getLong(index + 16),
+                        content.getLong(index + 24), now);
+                break;
+            case TIMING_REQUEST_TYPE:
+                ByteBuf reply = ctx.alloc().buffer(TIMING_PACKET_SIZE);
+                reply.writeByte(0x80);
+                reply.writeByte(TIMING_REPLY_TYPE | 0x80);
+                reply.writeShort(content.getUnsignedShort(index + 2));
+                reply.writeInt(0);
+                reply.writeLong(content.getLong(index + 24));
+                reply.writeLong(senderClock.localNtpTime(now));
+                reply.writeLong(senderClock.localNtpTime(System.nanoTime()));
+                ctx.writeAndFlush(new DatagramPacket(reply, msg.sender()));
+                servedRequests++;
+                break;
+            default:
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(() -> "Got timing packet, type: " + type);
+                }
+        }
+    }
+
+    public long getServedRequests() {
+        return servedRequests;
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.AirPlayConsumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Serialized control responses, built by {@link PropertyListUtil} once and reused.
+ * <p>
+ * {@code /info} depends on the config and is rebuilt when {@link AirPlayConfig#getRevision()} changes,
+ * {@code /server-info} never changes. SETUP responses are templates serialized with placeholder ports which are
+ * patched in place, as is the playback info, whose placeholder values are replaced in the XML.
+ */
+public class PropertyListCache {
+
+    private static final Logger log = Logger.getLogger(PropertyListCache.class.getName());
+
+    // distinct 2-byte binary plist integers, any port from 256 to 65535 is written with the same width
+    private static final int[] PORT_PLACEHOLDERS = {0xA5A1, 0xA5A2, 0xA5A3};
+    private static final int INT_2_BYTES_MARKER = 0x11;
+
+    private static final double DURATION_PLACEHOLDER = 1.0E-300;
+    private static final double POSITION_PLACEHOLDER = 2.0E-300;
+
+    private static final byte[] SERVER_INFO = PropertyListUtil.prepareServerInfoResponse();
+
+    private final AirPlayConfig airPlayConfig;
+    private final PortTemplate setupAudio;
+    private final PortTemplate setupVideo;
+    private final XmlTemplate playbackInfo;
+
+    private volatile Info info;
+
+    public PropertyListCache(AirPlayConfig airPlayConfig) {
+        this.airPlayConfig = airPlayConfig;
+        try {
+            setupAudio = new PortTemplate(PropertyListUtil.prepareSetupAudioResponse(PORT_PLACEHOLDERS[0],
+                    PORT_PLACEHOLDERS[1]), 2);
+            setupVideo = new PortTemplate(PropertyListUtil.prepareSetupVideoResponse(PORT_PLACEHOLDERS[0],
+                    PORT_PLACEHOLDERS[1], PORT_PLACEHOLDERS[2]), 3);
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't serialize SETUP response templates", e);
+        }
+        playbackInfo = new XmlTemplate(new String(PropertyListUtil.preparePlaybackInfoResponse(
+                new AirPlayConsumer.PlaybackInfo(DURATION_PLACEHOLDER, POSITION_PLACEHOLDER)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return {@code GET /info} response, shared, must not be modified
+     */
+    public byte[] getInfoResponse() throws Exception {
+        Info current = info;
+        int revision = airPlayConfig.getRevision();
+        if (current == null || current.revision != revision) {
+            current = new Info(revision, PropertyListUtil.prepareInfoResponse(airPlayConfig));
+            info = current;
+        }
+        return current.response;
+    }
+
+    /**
+     * @return {@code GET /server-info} response, shared, must not be modified
+     */
+    public byte[] getServerInfoResponse() {
+        return SERVER_INFO;
+    }
+
+    public byte[] getSetupAudioResponse(int dataPort, int controlPort) throws Exception {
+        byte[] response = setupAudio.patch(dataPort, controlPort);
+        return response != null ? response : PropertyListUtil.prepareSetupAudioResponse(dataPort, controlPort);
+    }
+
+    public byte[] getSetupVideoResponse(int dataPort, int eventPort, int timingPort) throws Exception {
+        byte[] response = setupVideo.patch(dataPort, eventPort, timingPort);
+        return response != null ? response : PropertyListUtil.prepareSetupVideoResponse(dataPort, eventPort, timingPort);
+    }
+
+    public byte[] getPlaybackInfoResponse(AirPlayConsumer.PlaybackInfo playbackInfo) {
+        if (!Double.isFinite(playbackInfo.duration()) || !Double.isFinite(playbackInfo.position())) {
+            // written as nan or +infinity by the plist writer
+            return PropertyListUtil.preparePlaybackInfoResponse(playbackInfo);
+        }
+        byte[] response = this.playbackInfo.fill(playbackInfo.duration(), playbackInfo.position());
+        log.fine(() -> "Playback info:\n" + new String(response, StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private static final class Info {
+
+        final int revision;
+        final byte[] response;
+
+        Info(int revision, byte[] response) {
+            this.revision = revision;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Binary plist whose port integers are at fixed offsets
+     */
+    private static final class PortTemplate {
+
+        private final byte[] template;
+        private final int[] offsets;
+
+        PortTemplate(byte[] template, int ports) {
+            this.template = template;
+            offsets = new int[ports];
+            for (int i = 0; i < ports; i++) {
+                offsets[i] = indexOfPort(template, PORT_PLACEHOLDERS[i]);
+            }
+        }
+
+        private static int indexOfPort(byte[] template, int placeholder) {
+            int index = -1;
+            for (int i = 0; i + 2 < template.length; i++) {
+                if ((template[i] & 0xff) == INT_2_BYTES_MARKER && (template[i + 1] & 0xff) == placeholder >>> 8
+                        && (template[i + 2] & 0xff) == (placeholder & 0xff)) {
+                    if (index >= 0) {
+                        throw new IllegalStateException("Port placeholder found twice in template");
+                    }
+                    index = i + 1;
+                }
+            }
+            if (index < 0) {
+                throw new IllegalStateException("Port placeholder not found in template");
+            }
+            return index;
+        }
+
+        /**
+         * @return response with the ports, {@code null} if one of them is written with another width or two are
+         * equal, the plist writer stores equal values once
+         */
+        byte[] patch(int... ports) {
+            for (int i = 0; i < ports.length; i++) {
+                if (ports[i] < 0x100 || ports[i] > 0xffff) {
+                    return null;
+                }
+                for (int j = 0; j < i; j++) {
+                    if (ports[i] == ports[j]) {
+                        return null;
+                    }
+                }
+            }
+            byte[] response = template.clone();
+            for (int i = 0; i < ports.length; i++) {
+                response[offsets[i]] = (byte) (ports[i] >>> 8);
+                response[offsets[i] + 1] = (byte) ports[i];
+            }
+            return response;
+        }
+    }
+
+    /**
+     * XML plist split around its duration and position values, as written by {@link String#valueOf(double)}
+     */
+    private static final class XmlTemplate {
+
+        private final byte[][] parts;
+        // whether the value following each part is the duration, otherwise the position
+        private final boolean[] durations;
+
+        XmlTemplate(String xml) {
+            String duration = "<real>" + DURATION_PLACEHOLDER + "</real>";
+            String position = "<real>" + POSITION_PLACEHOLDER + "</real>";
+            List<byte[]> parts = new ArrayList<>();
+            List<Boolean> durations = new ArrayList<>();
+            int start = 0;
+            while (true) {
+                int durationIndex = xml.indexOf(duration, start);
+                int positionIndex = xml.indexOf(position, start);
+                if (durationIndex < 0 && positionIndex < 0) {
+                    break;
+                }
+                boolean isDuration = positionIndex < 0 || durationIndex >= 0 && durationIndex < positionIndex;
+                int index = isDuration ? durationIndex : positionIndex;
+                parts.add(xml.substring(start, index + "<real>".length()).getBytes(StandardCharsets.UTF_8));
+                durations.add(isDuration);
+                start = index + (isDuration ? duration : position).length() - "</real>".length();
+            }
+            parts.add(xml.substring(start).getBytes(StandardCharsets.UTF_8));
+            this.parts = parts.toArray(new byte[0][]);
+            this.durations = new boolean[durations.size()];
+            for (int i = 0; i < this.durations.length; i++) {
+                this.durations[i] = durations.get(i);
+            }
+        }
+
+        byte[] fill(double duration, double position) {
+            byte[] durationBytes = String.valueOf(duration).getBytes(StandardCharsets.US_ASCII);
+            byte[] positionBytes = String.valueOf(position).getBytes(StandardCharsets.US_ASCII);
+            int length = 0;
+            for (byte[] part : parts) {
+                length += part.length;
+            }
+            for (boolean isDuration : durations) {
+                length += isDuration ? durationBytes.length : positionBytes.length;
+            }
+            byte[] response = Arrays.copyOf(parts[0], length);
+            int offset = parts[0].length;
+            for (int i = 0; i < durations.length; i++) {
+                byte[] value = durations[i] ? durationBytes : positionBytes;
+                System.arraycopy(value, 0, response, offset, value.length);
+                offset += value.length;
+                System.arraycopy(parts[i + 1], 0, response, offset, parts[i + 1].length);
+                offset += parts[i + 1].length;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads values of a binary property list ({@code bplist00}) in place, without building an object tree.
+ * <p>
+ * Objects are addressed by their reference, starting from {@link #getRoot()}. Dictionary keys are compared against
+ * the encoded key strings, so only the requested values are decoded. The buffer's indices aren't changed and it
+ * must stay readable while the reader is used. Heap buffers are read through their array, others are copied once,
+ * control request bodies are small and per-byte {@link ByteBuf} access costs more than the copy.
+ */
+public class PropertyListReader {
+
+    public static final int NONE = -1;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 32;
+    private static final byte[] MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int TYPE_INT = 0x1;
+    private static final int TYPE_REAL = 0x2;
+    private static final int TYPE_DATA = 0x4;
+    private static final int TYPE_ASCII_STRING = 0x5;
+    private static final int TYPE_UTF16_STRING = 0x6;
+    private static final int TYPE_ARRAY = 0xA;
+    private static final int TYPE_DICTIONARY = 0xD;
+
+    private static final int FALSE = 0x08;
+    private static final int TRUE = 0x09;
+
+    private final ByteBuf buf;
+    private final byte[] array;
+    // index of the property list in the array
+    private final int start;
+    private final int offsetSize;
+    private final int refSize;
+    private final int objectCount;
+    private final int root;
+    private final int offsetTable;
+
+    public PropertyListReader(ByteBuf buf) {
+        this.buf = buf;
+        int length = buf.readableBytes();
+        if (buf.hasArray()) {
+            array = buf.array();
+            start = buf.arrayOffset() + buf.readerIndex();
+        } else {
+            array = ByteBufUtil.getBytes(buf);
+            start = 0;
+        }
+        if (length < HEADER_SIZE + TRAILER_SIZE || !hasMagic()) {
+            throw new IllegalArgumentException("Not a binary property list");
+        }
+        int trailer = start + length - TRAILER_SIZE;
+        offsetSize = u8(trailer + 6);
+        refSize = u8(trailer + 7);
+        long objects = readUnsigned(trailer + 8, 8);
+        long top = readUnsigned(trailer + 16, 8);
+        long table = readUnsigned(trailer + 24, 8);
+        if (offsetSize < 1 || offsetSize > 8 || refSize < 1 || refSize > 8 || objects < 1 || objects > length
+                || top < 0 || top >= objects || table < HEADER_SIZE
+                || table + objects * offsetSize > length - TRAILER_SIZE) {
+            throw new IllegalArgumentException("Malformed binary property list trailer");
+        }
+        objectCount = (int) objects;
+        root = (int) top;
+        offsetTable = start + (int) table;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return reference of the value of the key, {@link #NONE} if the dictionary doesn't contain it
+     */
+    public int find(int dictionary, String key) {
+        int offset = offset(dictionary);
+        checkType(offset, TYPE_DICTIONARY);
+        int count = length(offset);
+        int keys = offset + lengthSize(offset);
+        checkRange(keys, count * 2L * refSize);
+        for (int i = 0; i < count; i++) {
+            if (keyEquals(ref(keys + i * refSize), key)) {
+                return ref(keys + (count + i) * refSize);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return elements of an array or entries of a dictionary
+     */
+    public int size(int ref) {
+        int offset = offset(ref);
+        int type = type(offset);
+        if (type != TYPE_ARRAY && type != TYPE_DICTIONARY) {
+            throw new IllegalArgumentException("Not an array or dictionary: " + ref);
+        }
+        return length(offset);
+    }
+
+    /**
+     * @return reference of the array element
+     */
+    public int get(int array, int index) {
+        int offset = offset(array);
+        checkType(offset, TYPE_ARRAY);
+        if (index < 0 || index >= length(offset)) {
+            throw new IndexOutOfBoundsException("Array index " + index + " of " + length(offset));
+        }
+        int element = offset + lengthSize(offset) + index * refSize;
+        checkRange(element, refSize);
+        return ref(element);
+    }
+
+    public boolean isDictionary(int ref) {
+        return type(offset(ref)) == TYPE_DICTIONARY;
+    }
+
+    public long getLong(int ref) {
+        int offset = offset(ref);
+        checkType(offset, TYPE_INT);
+        return readInt(offset);
+    }
+
+    /**
+     * @return value of a real or an integer
+     */
+    public double getDouble(int ref) {
+        int offset = offset(ref);
+        if (type(offset) == TYPE_INT) {
+            return readInt(offset);
+        }
+        checkType(offset, TYPE_REAL);
+        int size = 1 << (u8(offset) & 0xf);
+        checkRange(offset + 1, size);
+        if (size == 4) {
+            return Float.intBitsToFloat((int) readUnsigned(offset + 1, 4));
+        } else if (size == 8) {
+            return Double.longBitsToDouble(readUnsigned(offset + 1, 8));
+        }
+        throw new IllegalArgumentException("Unsupported real size: " + size);
+    }
+
+    public boolean getBoolean(int ref) {
+        int marker = u8(offset(ref));
+        if (marker != TRUE && marker != FALSE) {
+            throw new IllegalArgumentException("Not a boolean: " + ref);
+        }
+        return marker == TRUE;
+    }
+
+    public String getString(int ref) {
+        int offset = offset(ref);
+        int type = type(offset);
+        int content = offset + lengthSize(offset);
+        if (type == TYPE_ASCII_STRING) {
+            checkRange(content, length(offset));
+            return new String(array, content, length(offset), StandardCharsets.US_ASCII);
+        } else if (type == TYPE_UTF16_STRING) {
+            checkRange(content, length(offset) * 2L);
+            return new String(array, content, length(offset) * 2, StandardCharsets.UTF_16BE);
+        }
+        throw new IllegalArgumentException("Not a string: " + ref);
+    }
+
+    /**
+     * @return data bytes, a slice of the buffer
+     */
+    public ByteBuf getData(int ref) {
+        int offset = offset(ref);
+        checkType(offset, TYPE_DATA);
+        int content = offset + lengthSize(offset);
+        checkRange(content, length(offset));
+        return buf.slice(buf.readerIndex() + content - start, length(offset));
+    }
+
+    public byte[] getBytes(int ref) {
+        int offset = offset(ref);
+        checkType(offset, TYPE_DATA);
+        int content = offset + lengthSize(offset);
+        checkRange(content, length(offset));
+        return Arrays.copyOfRange(array, content, content + length(offset));
+    }
+
+    private boolean keyEquals(int ref, String key) {
+        int offset = offset(ref);
+        int type = type(offset);
+        if (type != TYPE_ASCII_STRING && type != TYPE_UTF16_STRING || length(offset) != key.length()) {
+            return false;
+        }
+        int length = key.length();
+        int content = offset + lengthSize(offset);
+        if (type == TYPE_ASCII_STRING) {
+            checkRange(content, length);
+            for (int i = 0; i < length; i++) {
+                if (u8(content + i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        checkRange(content, length * 2L);
+        for (int i = 0; i < length; i++) {
+            if ((char) readUnsigned(content + i * 2, 2) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compared byte by byte, the ranged {@link Arrays#equals(byte[], byte[])} overloads need Java 9 / Android API 33
+     */
+    private boolean hasMagic() {
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            if (array[start + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int offset(int ref) {
+        if (ref < 0 || ref >= objectCount) {
+            throw new IllegalArgumentException("Object reference out of range: " + ref);
+        }
+        long offset = readUnsigned(offsetTable + ref * offsetSize, offsetSize);
+        if (offset < HEADER_SIZE || offset >= offsetTable - start) {
+            throw new IllegalArgumentException("Object offset out of range: " + offset);
+        }
+        return start + (int) offset;
+    }
+
+    /**
+     * Objects end before the offset table, anything past it is malformed
+     */
+    private void checkRange(int index, long size) {
+        if (size < 0 || index + size > offsetTable) {
+            throw new IllegalArgumentException("Object exceeds binary property list");
+        }
+    }
+
+    private int ref(int index) {
+        return (int) readUnsigned(index, refSize);
+    }
+
+    private int u8(int index) {
+        return array[index] & 0xff;
+    }
+
+    private int type(int offset) {
+        return u8(offset) >>> 4;
+    }
+
+    private void checkType(int offset, int type) {
+        if (type(offset) != type) {
+            throw new IllegalArgumentException("Unexpected object type " + type(offset) + ", expected " + type);
+        }
+    }
+
+    /**
+     * @return element count, or byte count of data, or character count of a string
+     */
+    private int length(int offset) {
+        int length = u8(offset) & 0xf;
+        if (length != 0xf) {
+            return length;
+        }
+        if (type(offset + 1) != TYPE_INT) {
+            throw new IllegalArgumentException("Malformed object length");
+        }
+        long extended = readInt(offset + 1);
+        if (extended < 0 || extended > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Object length out of range: " + extended);
+        }
+        return (int) extended;
+    }
+
+    /**
+     * @return size of the marker and the extended length which precede the content
+     */
+    private int lengthSize(int offset) {
+        if ((u8(offset) & 0xf) != 0xf) {
+            return 1;
+        }
+        return 2 + (1 << (u8(offset + 1) & 0xf));
+    }
+
+    private long readInt(int offset) {
+        int size = 1 << (u8(offset) & 0xf);
+        checkRange(offset + 1, size);
+        switch (size) {
+            case 1:
+            case 2:
+            case 4:
+            case 8:
+                return readUnsigned(offset + 1, size);
+            case 16:
+                // 128-bit integers are written for unsigned 64-bit values, the low half holds them
+                return readUnsigned(offset + 9, 8);
+            default:
+                throw new IllegalArgumentException("Unsupported integer size: " + size);
+        }
+    }
+
+    private long readUnsigned(int index, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = value << 8 | u8(index + i);
+        }
+        return value;
+    }
+}
@@ -1,10 +1,13 @@
 package com.github.serezhka.airplay.server.internal.handler.util;
 
+import com.dd.plist.BinaryPropertyListParser;
 import com.dd.plist.BinaryPropertyListWriter;
 import com.dd.plist.NSArray;
 import com.dd.plist.NSDictionary;
 import com.github.serezhka.airplay.server.AirPlayConfig;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
@@ -125,8 +128,9 @@ public class PropertyListUtil {
         seekableTimeRanges.put("duration", playbackInfo.duration());
         seekableTimeRanges.put("start", 0.0);
         response.put("seekableTimeRanges", new NSArray(seekableTimeRanges));
-        log.severe("Playback info:\n{}" + response.toXMLPropertyList());
-        return response.toXMLPropertyList().getBytes(StandardCharsets.UTF_8);
+        String xml = response.toXMLPropertyList();
+        log.fine(() -> "Playback info:\n" + xml);
+        return xml.getBytes(StandardCharsets.UTF_8);
     }
 
     public static byte[] prepareEventRequest(String sessionId, String listUri) {
@@ -148,4 +152,15 @@ public class PropertyListUtil {
 
         return wrapper.toXMLPropertyList().getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * @return binary property list as XML for logging, the error if it can't be parsed
+     */
+    public static String toXmlPropertyList(ByteBuf content) {
+        try {
+            return BinaryPropertyListParser.parse(ByteBufUtil.getBytes(content)).toXMLPropertyList();
+        } catch (Exception e) {
+            return "Malformed binary property list: " + e.getMessage();
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import com.github.serezhka.airplay.lib.VideoStreamInfo;
+import io.netty.buffer.ByteBuf;
+
+import java.util.logging.Logger;
+
+/**
+ * Last SPS/PPS received by a session. Senders repeat the codec config, an identical one is reported as such so it
+ * can be flagged as repeated, and the stream info is only rebuilt when the parsed format actually changes.
+ */
+public class CodecConfigCache {
+
+    private static final Logger log = Logger.getLogger(CodecConfigCache.class.getName());
+
+    public static final int UNCHANGED = 0;
+    public static final int CONFIG_CHANGED = 1;
+    public static final int FORMAT_CHANGED = 2;
+
+    private byte[] sps;
+    private byte[] pps;
+    private SequenceParameterSet sequenceParameterSet;
+    private VideoStreamInfo videoStreamInfo;
+
+    private long updates;
+    private long duplicates;
+
+    /**
+     * Forgets the cached config and stream info, called when the sender sets up a new mirroring stream
+     */
+    public synchronized void reset(VideoStreamInfo videoStreamInfo) {
+        this.videoStreamInfo = videoStreamInfo;
+        clearConfig();
+    }
+
+    /**
+     * Forgets the cached config but keeps the stream info, so the first config of a new mirroring connection is
+     * delivered again while {@link #FORMAT_CHANGED} is only reported if it differs
+     */
+    public synchronized void clearConfig() {
+        sps = null;
+        pps = null;
+        sequenceParameterSet = null;
+    }
+
+    /**
+     * Compares the SPS/PPS at the given indexes with the cached ones, nothing is copied if they are identical
+     *
+     * @return {@link #UNCHANGED}, or {@link #CONFIG_CHANGED} combined with {@link #FORMAT_CHANGED} if the new SPS
+     * changes {@link #getVideoStreamInfo()}
+     */
+    public synchronized int update(ByteBuf buf, int spsIndex, int spsLength, int ppsIndex, int ppsLength) {
+        if (equal(sps, buf, spsIndex, spsLength) && equal(pps, buf, ppsIndex, ppsLength)) {
+            duplicates++;
+            return UNCHANGED;
+        }
+        updates++;
+        pps = copy(buf, ppsIndex, ppsLength);
+        if (equal(sps, buf, spsIndex, spsLength)) {
+            return CONFIG_CHANGED;
+        }
+        sps = copy(buf, spsIndex, spsLength);
+        try {
+            sequenceParameterSet = SequenceParameterSet.parse(buf, spsIndex, spsLength);
+        } catch (IllegalArgumentException e) {
+            log.warning("Can't parse SPS: " + e.getMessage());
+            sequenceParameterSet = null;
+            return CONFIG_CHANGED;
+        }
+        VideoStreamInfo current = videoStreamInfo;
+        if (current != null && current.getWidth() == sequenceParameterSet.getWidth()
+                && current.getHeight() == sequenceParameterSet.getHeight()
+                && current.getFrameRate() == sequenceParameterSet.getFrameRate()
+                && current.getProfileIdc() == sequenceParameterSet.getProfileIdc()
+                && current.getLevelIdc() == sequenceParameterSet.getLevelIdc()) {
+            return CONFIG_CHANGED;
+        }
+        videoStreamInfo = new VideoStreamInfo(current != null ? current.getStreamConnectionId() : null,
+                sequenceParameterSet.getWidth(), sequenceParameterSet.getHeight(), sequenceParameterSet.getFrameRate(),
+                sequenceParameterSet.getProfileIdc(), sequenceParameterSet.getLevelIdc());
+        return CONFIG_CHANGED | FORMAT_CHANGED;
+    }
+
+    private static boolean equal(byte[] cached, ByteBuf buf, int index, int length) {
+        if (cached == null || cached.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != buf.getByte(index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] copy(ByteBuf buf, int index, int length) {
+        byte[] bytes = new byte[length];
+        buf.getBytes(index, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return stream info of the SETUP request completed with the latest parsed SPS
+     */
+    public synchronized VideoStreamInfo getVideoStreamInfo() {
+        return videoStreamInfo;
+    }
+
+    /**
+     * @return latest parsed SPS, {@code null} if none yet or it couldn't be parsed
+     */
+    public synchronized SequenceParameterSet getSequenceParameterSet() {
+        return sequenceParameterSet;
+    }
+
+    /**
+     * @return number of codec configs which differed from the cached one
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return number of codec configs identical to the cached one
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+}
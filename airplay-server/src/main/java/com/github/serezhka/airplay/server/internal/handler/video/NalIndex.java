@@ -0,0 +1,147 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * Index of the NAL units of one H.264 access unit, built while the length prefixed (AVCC) units are rewritten to
+ * start codes (Annex-B) in a single pass.
+ * <p>
+ * Arrays are reused from frame to frame and only grow, so indexing allocates nothing once warmed up. The index is
+ * valid until the next {@link #index(ByteBuf)} call. Not thread safe, one instance per connection.
+ */
+public class NalIndex {
+
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+
+    private static final int SLICE_TYPES = 1 << TYPE_SLICE | 1 << 2 | 1 << 3 | 1 << 4 | 1 << TYPE_IDR;
+    private static final int PARAMETER_SET_TYPES = 1 << TYPE_SPS | 1 << TYPE_PPS;
+    private static final int PREFIX_SIZE = 4;
+
+    private int[] offsets = new int[16];
+    private int[] sizes = new int[16];
+    private byte[] headers = new byte[16];
+
+    private int count;
+    private int types;
+    private int maxRefIdc;
+    private boolean corrupted;
+
+    /**
+     * Rewrites the 4 byte length prefixes of the readable bytes to start codes and indexes the units. Stops at the
+     * first prefix which doesn't fit the payload, such a frame is reported as {@link #isCorrupted()}. A payload
+     * already starting with a start code is left as is.
+     *
+     * @return number of indexed units
+     */
+    public int index(ByteBuf payload) {
+        count = 0;
+        types = 0;
+        maxRefIdc = 0;
+        corrupted = false;
+
+        int base = payload.readerIndex();
+        int length = payload.readableBytes();
+        int position = 0;
+        while (position + PREFIX_SIZE <= length) {
+            int nalSize = payload.getInt(base + position);
+            if (nalSize == 1 && count == 0) {
+                break; // Annex-B already
+            }
+            if (nalSize <= 0 || nalSize > length - position - PREFIX_SIZE) {
+                corrupted = true;
+                break;
+            }
+            payload.setInt(base + position, 1);
+            add(position + PREFIX_SIZE, nalSize, payload.getByte(base + position + PREFIX_SIZE));
+            position += PREFIX_SIZE + nalSize;
+        }
+        if (position < length && !corrupted && count > 0) {
+            corrupted = true; // trailing bytes shorter than a prefix
+        }
+        return count;
+    }
+
+    private void add(int offset, int size, byte header) {
+        if (count == offsets.length) {
+            int capacity = count * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            headers = Arrays.copyOf(headers, capacity);
+        }
+        offsets[count] = offset;
+        sizes[count] = size;
+        headers[count] = header;
+        count++;
+        types |= 1 << (header & 0x1F);
+        maxRefIdc = Math.max(maxRefIdc, (header >> 5) & 0x3);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return offset of the unit's header byte relative to the reader index of the indexed buffer
+     */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @return size of the unit without start code
+     */
+    public int getSize(int i) {
+        return sizes[i];
+    }
+
+    public int getType(int i) {
+        return headers[i] & 0x1F;
+    }
+
+    public int getRefIdc(int i) {
+        return (headers[i] >> 5) & 0x3;
+    }
+
+    /**
+     * @return bit {@code 1 << type} is set for every unit type present
+     */
+    public int getTypes() {
+        return types;
+    }
+
+    public boolean isIdr() {
+        return (types & 1 << TYPE_IDR) != 0;
+    }
+
+    public boolean hasSei() {
+        return (types & 1 << TYPE_SEI) != 0;
+    }
+
+    public boolean hasSlice() {
+        return (types & SLICE_TYPES) != 0;
+    }
+
+    public boolean hasParameterSets() {
+        return (types & PARAMETER_SET_TYPES) != 0;
+    }
+
+    /**
+     * @return {@code true} if any unit has a non zero {@code nal_ref_idc}, i.e. other frames may depend on this one
+     */
+    public boolean isReference() {
+        return maxRefIdc > 0;
+    }
+
+    /**
+     * @return {@code true} if a length prefix didn't fit the payload, e.g. because of a decrypt error
+     */
+    public boolean isCorrupted() {
+        return corrupted;
+    }
+}
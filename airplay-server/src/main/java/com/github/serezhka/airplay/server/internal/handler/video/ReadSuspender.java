@@ -0,0 +1,37 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import io.netty.channel.Channel;
+
+/**
+ * Turns {@code autoRead} of a mirroring channel off while any of its stages asks for it, so that the worker queue and
+ * consumer backpressure don't resume reading behind each other's back.
+ */
+public class ReadSuspender {
+
+    public static final int WORKER_QUEUE = 1;
+    public static final int CONSUMER = 1 << 1;
+
+    private final Channel channel;
+
+    private int reasons;
+
+    public ReadSuspender(Channel channel) {
+        this.channel = channel;
+    }
+
+    public synchronized void suspend(int reason) {
+        reasons |= reason;
+        channel.config().setAutoRead(false);
+    }
+
+    public synchronized void resume(int reason) {
+        reasons &= ~reason;
+        if (reasons == 0) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    public synchronized boolean isSuspended(int reason) {
+        return (reasons & reason) != 0;
+    }
+}
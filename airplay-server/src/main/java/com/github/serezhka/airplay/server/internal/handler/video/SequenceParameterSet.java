@@ -0,0 +1,271 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Fields of an H.264 sequence parameter set (ITU-T H.264 7.3.2.1.1) needed to size a decoder.
+ */
+public class SequenceParameterSet {
+
+    private final int profileIdc;
+    private final int constraintFlags;
+    private final int levelIdc;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+
+    private SequenceParameterSet(int profileIdc, int constraintFlags, int levelIdc, int width, int height,
+                                 double frameRate) {
+        this.profileIdc = profileIdc;
+        this.constraintFlags = constraintFlags;
+        this.levelIdc = levelIdc;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * @param index  index of the NAL unit header byte
+     * @param length size of the NAL unit including header, emulation prevention bytes are skipped
+     * @throws IllegalArgumentException if the unit is not an SPS or is truncated
+     */
+    public static SequenceParameterSet parse(ByteBuf buf, int index, int length) {
+        BitReader reader = new BitReader(buf, index, length);
+        int nalType = reader.readBits(8) & 0x1F;
+        if (nalType != NalIndex.TYPE_SPS) {
+            throw new IllegalArgumentException("Not an SPS, NAL unit type: " + nalType);
+        }
+        int profileIdc = reader.readBits(8);
+        int constraintFlags = reader.readBits(8);
+        int levelIdc = reader.readBits(8);
+        reader.readUE(); // seq_parameter_set_id
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = reader.readUE();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = reader.readBit();
+            }
+            reader.readUE(); // bit_depth_luma_minus8
+            reader.readUE(); // bit_depth_chroma_minus8
+            reader.readBit(); // qpprime_y_zero_transform_bypass_flag
+            if (reader.readBit()) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (reader.readBit()) {
+                        skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        reader.readUE(); // log2_max_frame_num_minus4
+        int picOrderCntType = reader.readUE();
+        if (picOrderCntType == 0) {
+            reader.readUE(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            reader.readBit(); // delta_pic_order_always_zero_flag
+            reader.readSE(); // offset_for_non_ref_pic
+            reader.readSE(); // offset_for_top_to_bottom_field
+            int cycle = reader.readUE();
+            for (int i = 0; i < cycle; i++) {
+                reader.readSE();
+            }
+        }
+        reader.readUE(); // max_num_ref_frames
+        reader.readBit(); // gaps_in_frame_num_value_allowed_flag
+
+        int widthInMbs = reader.readUE() + 1;
+        int heightInMapUnits = reader.readUE() + 1;
+        boolean frameMbsOnly = reader.readBit();
+        if (!frameMbsOnly) {
+            reader.readBit(); // mb_adaptive_frame_field_flag
+        }
+        reader.readBit(); // direct_8x8_inference_flag
+
+        int width = widthInMbs * 16;
+        int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+        if (reader.readBit()) { // frame_cropping_flag
+            int left = reader.readUE();
+            int right = reader.readUE();
+            int top = reader.readUE();
+            int bottom = reader.readUE();
+            int cropUnitX = 1;
+            int cropUnitY = frameMbsOnly ? 1 : 2;
+            if (chromaFormatIdc != 0 && !separateColourPlane) {
+                cropUnitX *= chromaFormatIdc == 3 ? 1 : 2;
+                cropUnitY *= chromaFormatIdc == 1 ? 2 : 1;
+            }
+            width -= cropUnitX * (left + right);
+            height -= cropUnitY * (top + bottom);
+        }
+
+        double frameRate = 0;
+        if (reader.readBit()) { // vui_parameters_present_flag
+            frameRate = parseVuiFrameRate(reader);
+        }
+        return new SequenceParameterSet(profileIdc, constraintFlags, levelIdc, width, height, frameRate);
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44: case 83: case 86:
+            case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + reader.readSE() + 256) % 256;
+            }
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * @return frame rate from the VUI timing info, 0 if absent
+     */
+    private static double parseVuiFrameRate(BitReader reader) {
+        if (reader.readBit()) { // aspect_ratio_info_present_flag
+            if (reader.readBits(8) == 255) { // Extended_SAR
+                reader.readBits(16); // sar_width
+                reader.readBits(16); // sar_height
+            }
+        }
+        if (reader.readBit()) { // overscan_info_present_flag
+            reader.readBit(); // overscan_appropriate_flag
+        }
+        if (reader.readBit()) { // video_signal_type_present_flag
+            reader.readBits(4); // video_format, video_full_range_flag
+            if (reader.readBit()) { // colour_description_present_flag
+                reader.readBits(24);
+            }
+        }
+        if (reader.readBit()) { // chroma_loc_info_present_flag
+            reader.readUE();
+            reader.readUE();
+        }
+        if (!reader.readBit()) { // timing_info_present_flag
+            return 0;
+        }
+        long numUnitsInTick = reader.readBits(32) & 0xFFFFFFFFL;
+        long timeScale = reader.readBits(32) & 0xFFFFFFFFL;
+        return numUnitsInTick == 0 ? 0 : timeScale / (2.0 * numUnitsInTick);
+    }
+
+    public int getProfileIdc() {
+        return profileIdc;
+    }
+
+    public int getConstraintFlags() {
+        return constraintFlags;
+    }
+
+    public int getLevelIdc() {
+        return levelIdc;
+    }
+
+    /**
+     * @return picture width after cropping
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return picture height after cropping
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return frames per second from the VUI timing info, 0 if absent
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceParameterSet{" +
+                "profileIdc=" + profileIdc +
+                ", levelIdc=" + levelIdc +
+                ", width=" + width +
+                ", height=" + height +
+                ", frameRate=" + frameRate +
+                '}';
+    }
+
+    /**
+     * Reads the RBSP bits of a NAL unit, dropping emulation prevention bytes ({@code 00 00 03}).
+     */
+    private static class BitReader {
+
+        private final ByteBuf buf;
+        private final int end;
+        private int index;
+        private int zeros;
+        private int current;
+        private int bitsLeft;
+
+        BitReader(ByteBuf buf, int index, int length) {
+            this.buf = buf;
+            this.index = index;
+            this.end = index + length;
+        }
+
+        boolean readBit() {
+            if (bitsLeft == 0) {
+                nextByte();
+            }
+            bitsLeft--;
+            return ((current >> bitsLeft) & 1) != 0;
+        }
+
+        int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+
+        int readUE() {
+            int leadingZeros = 0;
+            while (!readBit()) {
+                if (++leadingZeros > 31) {
+                    throw new IllegalArgumentException("Invalid Exp-Golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL));
+        }
+
+        int readSE() {
+            int value = readUE();
+            return (value & 1) != 0 ? (value + 1) / 2 : -(value / 2);
+        }
+
+        private void nextByte() {
+            if (index >= end) {
+                throw new IllegalArgumentException("SPS truncated");
+            }
+            int b = buf.getUnsignedByte(index++);
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                nextByte();
+                return;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            current = b;
+            bitsLeft = 8;
+        }
+    }
+}
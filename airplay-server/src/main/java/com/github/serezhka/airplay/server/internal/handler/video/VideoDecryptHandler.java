@@ -0,0 +1,45 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.server.internal.packet.VideoPacket;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.logging.Logger;
+
+/**
+ * Worker side of the video worker stage, runs on the session's worker executor together with {@link VideoHandler}.
+ * Decrypts picture payloads and passes frames on; as the next handler shares the executor, the frame is delivered
+ * by the time {@code fireChannelRead} returns and the {@link VideoWorkerGate} can be told about it.
+ */
+public class VideoDecryptHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = Logger.getLogger(VideoDecryptHandler.class.getName());
+
+    private final AirPlay airPlay;
+    private final VideoWorkerGate gate;
+
+    public VideoDecryptHandler(AirPlay airPlay, VideoWorkerGate gate) {
+        this.airPlay = airPlay;
+        this.gate = gate;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        VideoPacket videoPacket = (VideoPacket) msg;
+        try {
+            if (videoPacket.getPayloadType() == 0) {
+                try {
+                    airPlay.decryptVideo(videoPacket.getPayload().nioBuffer());
+                } catch (Exception e) {
+                    log.severe(e.getMessage());
+                    videoPacket.release();
+                    return;
+                }
+            }
+            ctx.fireChannelRead(videoPacket);
+        } finally {
+            gate.onFrameDone();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import com.github.serezhka.airplay.server.VideoBackpressurePolicy;
+import com.github.serezhka.airplay.server.VideoFlowStats;
+
+import java.util.logging.Logger;
+
+/**
+ * Backpressure between {@link VideoHandler} and the consumer of a mirroring connection.
+ * <p>
+ * Frames handed to the consumer are outstanding until their last reference is released. Once {@code maxOutstanding}
+ * frames are outstanding, {@link VideoBackpressurePolicy#PAUSE_READ} suspends reading of the socket until half of
+ * them are released; {@link VideoBackpressurePolicy#DROP_TO_IDR} drops picture frames until the outstanding frames
+ * are back under the limit and an IDR frame arrives, so that the decoder resumes on a frame it can decode.
+ * Codec config frames are never dropped.
+ */
+public class VideoFlowControl {
+
+    private static final Logger log = Logger.getLogger(VideoFlowControl.class.getName());
+
+    private final VideoBackpressurePolicy policy;
+    private final int maxOutstanding;
+    private final ReadSuspender readSuspender;
+    private final Runnable releaseListener = this::onFrameReleased;
+
+    private boolean dropping;
+
+    private volatile int outstandingFrames;
+    private volatile int maxOutstandingFrames;
+    private volatile long deliveredFrames;
+    private volatile long droppedFrames;
+    private volatile long dropEpisodes;
+    private volatile long readPauses;
+
+    /**
+     * @param maxOutstanding frames the consumer may hold, 0 for no limit
+     */
+    public VideoFlowControl(VideoBackpressurePolicy policy, int maxOutstanding, ReadSuspender readSuspender) {
+        this.policy = policy;
+        this.maxOutstanding = maxOutstanding;
+        this.readSuspender = readSuspender;
+    }
+
+    /**
+     * @return {@code false} if the frame has to be dropped
+     */
+    boolean admit(boolean codecConfig, boolean idr) {
+        if (maxOutstanding <= 0 || codecConfig || policy != VideoBackpressurePolicy.DROP_TO_IDR) {
+            return true;
+        }
+        boolean overLimit = outstandingFrames >= maxOutstanding;
+        if (!dropping && overLimit) {
+            dropping = true;
+            dropEpisodes++;
+            log.fine(() -> "Consumer holds " + maxOutstanding + " video frames, dropping until next IDR frame");
+        } else if (dropping && idr && !overLimit) {
+            dropping = false;
+        }
+        if (dropping) {
+            droppedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called right before the frame is handed to the consumer
+     */
+    synchronized void onFrameDelivered() {
+        deliveredFrames++;
+        int outstanding = ++outstandingFrames;
+        if (outstanding > maxOutstandingFrames) {
+            maxOutstandingFrames = outstanding;
+        }
+        if (maxOutstanding > 0 && policy == VideoBackpressurePolicy.PAUSE_READ && outstanding >= maxOutstanding
+                && !readSuspender.isSuspended(ReadSuspender.CONSUMER)) {
+            readSuspender.suspend(ReadSuspender.CONSUMER);
+            readPauses++;
+            log.fine(() -> "Consumer holds " + maxOutstanding + " video frames, mirroring socket reads paused");
+        }
+    }
+
+    // frames may be released from any thread
+    private synchronized void onFrameReleased() {
+        int outstanding = --outstandingFrames;
+        if (outstanding <= maxOutstanding / 2 && readSuspender.isSuspended(ReadSuspender.CONSUMER)) {
+            readSuspender.resume(ReadSuspender.CONSUMER);
+        }
+    }
+
+    /**
+     * @return listener to attach to delivered frames
+     */
+    Runnable releaseListener() {
+        return releaseListener;
+    }
+
+    public VideoBackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return frames handed to the consumer and not released yet
+     */
+    public int getOutstandingFrames() {
+        return outstandingFrames;
+    }
+
+    public int getMaxOutstandingFrames() {
+        return maxOutstandingFrames;
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return how many times dropping to the next IDR frame was started
+     */
+    public long getDropEpisodes() {
+        return dropEpisodes;
+    }
+
+    /**
+     * @return how many times reading of the mirroring socket was paused for the consumer
+     */
+    public long getReadPauses() {
+        return readPauses;
+    }
+
+    public VideoFlowStats getStats() {
+        return new VideoFlowStats(policy, outstandingFrames, maxOutstandingFrames, deliveredFrames, droppedFrames,
+                dropEpisodes, readPauses);
+    }
+}
@@ -1,93 +1,129 @@
 package com.github.serezhka.airplay.server.internal.handler.video;
 
-import com.github.serezhka.airplay.lib.AirPlay;
+import com.github.serezhka.airplay.lib.VideoStreamInfo;
 import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.VideoFrame;
+import com.github.serezhka.airplay.server.internal.handler.session.ConnectTrace;
+import com.github.serezhka.airplay.server.internal.handler.timing.SenderClock;
 import com.github.serezhka.airplay.server.internal.packet.VideoPacket;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import java.util.logging.Logger;
 
-@ChannelHandler.Sharable
 public class VideoHandler extends ChannelInboundHandlerAdapter {
     
     private static final Logger log = Logger.getLogger(VideoHandler.class.getName());
 
-    private final AirPlay airPlay;
+    private static final int CODEC_CONFIG_NAL_TYPES = 1 << VideoFrame.NAL_TYPE_SPS | 1 << VideoFrame.NAL_TYPE_PPS;
+
+    private final String sessionId;
     private final AirPlayConsumer dataConsumer;
+    private final SenderClock senderClock;
+    private final VideoFlowControl flowControl;
+    private final CodecConfigCache codecConfigCache;
+    private final ConnectTrace connectTrace;
+    private final NalIndex nalIndex = new NalIndex();
+    private boolean firstFrameDelivered;
     
-    public VideoHandler(AirPlay airPlay, AirPlayConsumer dataConsumer) {
-        this.airPlay = airPlay;
+    public VideoHandler(String sessionId, AirPlayConsumer dataConsumer, SenderClock senderClock,
+                        VideoFlowControl flowControl, CodecConfigCache codecConfigCache, ConnectTrace connectTrace) {
+        this.sessionId = sessionId;
         this.dataConsumer = dataConsumer;
+        this.senderClock = senderClock;
+        this.flowControl = flowControl;
+        this.codecConfigCache = codecConfigCache;
+        this.connectTrace = connectTrace;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         VideoPacket packet = (VideoPacket) msg;
+        ByteBuf payload = packet.getPayload();
+        VideoFrame frame = null;
         try {
+            long ntpTimestamp = packet.getNtpTimestamp();
+            long presentationNanos = senderClock.senderUnixNtpToLocalNanos(ntpTimestamp);
             if (packet.getPayloadType() == 0) {
-                airPlay.decryptVideo(packet.getPayload());
-                preparePictureNALUnits(packet.getPayload());
-                dataConsumer.onVideo(packet.getPayload());
+                nalIndex.index(payload);
+                if (nalIndex.isCorrupted()) {
+                    log.warning("Video packet contains corrupted NAL unit. It might be decrypt error");
+                }
+                if (!flowControl.admit(false, nalIndex.isIdr())) {
+                    return;
+                }
+                frame = new VideoFrame(sessionId, payload, false, false, nalIndex.getTypes(),
+                        nalIndex.isReference(), ntpTimestamp, presentationNanos, flowControl.releaseListener());
             } else if (packet.getPayloadType() == 1) {
-                byte[] spsPps = prepareSpsPpsNALUnits(packet.getPayload());
-                dataConsumer.onVideo(spsPps);
+                boolean repeated = updateCodecConfig(payload) == CodecConfigCache.UNCHANGED;
+                ByteBuf spsPps = prepareSpsPpsNALUnits(ctx, payload);
+                payload.release();
+                payload = spsPps;
+                // repeated configs are still delivered, a decoder restarted by the consumer needs them
+                frame = new VideoFrame(sessionId, payload, true, repeated, CODEC_CONFIG_NAL_TYPES, true,
+                        ntpTimestamp, presentationNanos, flowControl.releaseListener());
+            }
+            if (frame != null) {
+                flowControl.onFrameDelivered();
+                dataConsumer.onVideoFrame(frame);
+                if (!firstFrameDelivered && !frame.isCodecConfig()) {
+                    firstFrameDelivered = true;
+                    connectTrace.onFirstFrame();
+                }
             }
         } catch (Exception e) {
             log.severe(e.getMessage());
+        } finally {
+            if (frame != null) {
+                frame.release();
+            } else {
+                payload.release();
+            }
         }
     }
 
-    private void preparePictureNALUnits(byte[] payload) {
-        int idx = 0;
-        while (idx < payload.length) {
-            int naluSize = (payload[idx + 3] & 0xFF) | ((payload[idx + 2] & 0xFF) << 8) | ((payload[idx + 1] & 0xFF) << 16) | ((payload[idx] & 0xFF) << 24);
-            if (naluSize == 1) {
-                return;
-            }
-            if (naluSize > 0) {
-                payload[idx] = 0;
-                payload[idx + 1] = 0;
-                payload[idx + 2] = 0;
-                payload[idx + 3] = 1;
-                idx += naluSize + 4;
-            }
-            if (payload.length - naluSize > 4) {
-                log.severe("Video packet contains corrupted NAL unit. It might be decrypt error");
-                return;
-            }
+    /**
+     * Updates the cached SPS/PPS and reports a changed format to the consumer
+     *
+     * @return changes as returned by {@link CodecConfigCache#update}
+     */
+    private int updateCodecConfig(ByteBuf payloadBuf) {
+        int spsLen = payloadBuf.getUnsignedShort(6);
+        int spsIndex = 8;
+        int ppsLen = payloadBuf.getUnsignedShort(spsIndex + spsLen + 1); // after pps count
+        int ppsIndex = spsIndex + spsLen + 3;
+
+        int changes = codecConfigCache.update(payloadBuf, spsIndex, spsLen, ppsIndex, ppsLen);
+        if ((changes & CodecConfigCache.FORMAT_CHANGED) != 0) {
+            VideoStreamInfo videoStreamInfo = codecConfigCache.getVideoStreamInfo();
+            log.info("Video format: " + videoStreamInfo);
+            dataConsumer.onVideoFormat(videoStreamInfo);
         }
+        return changes;
     }
 
-    private byte[] prepareSpsPpsNALUnits(byte[] payload) {
-        ByteBuf payloadBuf = Unpooled.wrappedBuffer(payload);
+    /**
+     * @return Annex-B SPS and PPS
+     */
+    private ByteBuf prepareSpsPpsNALUnits(ChannelHandlerContext ctx, ByteBuf payloadBuf) {
         payloadBuf.readerIndex(6);
 
-        short spsLen = (short) payloadBuf.readUnsignedShort();
-        byte[] sequenceParameterSet = new byte[spsLen];
-        payloadBuf.readBytes(sequenceParameterSet);
+        int spsLen = payloadBuf.readUnsignedShort();
+        int spsIndex = payloadBuf.readerIndex();
+        payloadBuf.skipBytes(spsLen);
 
         payloadBuf.skipBytes(1); // pps count
 
-        short ppsLen = (short) payloadBuf.readUnsignedShort();
-        byte[] pictureParameterSet = new byte[ppsLen];
-        payloadBuf.readBytes(pictureParameterSet);
+        int ppsLen = payloadBuf.readUnsignedShort();
+        int ppsIndex = payloadBuf.readerIndex();
 
         int spsPpsLen = spsLen + ppsLen + 8;
-        log.info("SPS PPS length: {}" + spsPpsLen);
-        byte[] spsPps = new byte[spsPpsLen];
-        spsPps[0] = 0;
-        spsPps[1] = 0;
-        spsPps[2] = 0;
-        spsPps[3] = 1;
-        System.arraycopy(sequenceParameterSet, 0, spsPps, 4, spsLen);
-        spsPps[spsLen + 4] = 0;
-        spsPps[spsLen + 5] = 0;
-        spsPps[spsLen + 6] = 0;
-        spsPps[spsLen + 7] = 1;
-        System.arraycopy(pictureParameterSet, 0, spsPps, 8 + spsLen, ppsLen);
+        log.fine("SPS PPS length: " + spsPpsLen);
+        ByteBuf spsPps = ctx.alloc().directBuffer(spsPpsLen);
+        spsPps.writeInt(1);
+        spsPps.writeBytes(payloadBuf, spsIndex, spsLen);
+        spsPps.writeInt(1);
+        spsPps.writeBytes(payloadBuf, ppsIndex, ppsLen);
 
         return spsPps;
     }
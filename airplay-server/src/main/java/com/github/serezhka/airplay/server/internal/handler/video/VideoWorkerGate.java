@@ -0,0 +1,88 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import com.github.serezhka.airplay.server.VideoWorkerStats;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.logging.Logger;
+
+/**
+ * Event loop side of the video worker stage. Counts frames handed to the session's worker and stops reading
+ * the mirroring socket while {@code queueSize} frames are pending, reading is resumed once the worker caught up
+ * to half of it.
+ * <p>
+ * Frames already decoded from the last read are still handed over, so the queue may briefly exceed its size
+ * by the frames of one read.
+ */
+public class VideoWorkerGate extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = Logger.getLogger(VideoWorkerGate.class.getName());
+
+    private final int queueSize;
+    private final ReadSuspender readSuspender;
+
+    private volatile int pendingFrames;
+    private volatile int maxPendingFrames;
+    private volatile long queuedFrames;
+    private volatile long readPauses;
+
+    public VideoWorkerGate(int queueSize, ReadSuspender readSuspender) {
+        this.queueSize = queueSize;
+        this.readSuspender = readSuspender;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        onFrameQueued();
+        ctx.fireChannelRead(msg);
+    }
+
+    private synchronized void onFrameQueued() {
+        int pending = ++pendingFrames;
+        queuedFrames++;
+        if (pending > maxPendingFrames) {
+            maxPendingFrames = pending;
+        }
+        if (pending >= queueSize && !readSuspender.isSuspended(ReadSuspender.WORKER_QUEUE)) {
+            readSuspender.suspend(ReadSuspender.WORKER_QUEUE);
+            readPauses++;
+            log.fine("Video worker queue is full, mirroring socket reads paused");
+        }
+    }
+
+    /**
+     * Called by the worker once a frame is delivered or dropped
+     */
+    synchronized void onFrameDone() {
+        int pending = --pendingFrames;
+        if (pending <= queueSize / 2 && readSuspender.isSuspended(ReadSuspender.WORKER_QUEUE)) {
+            readSuspender.resume(ReadSuspender.WORKER_QUEUE);
+        }
+    }
+
+    /**
+     * @return frames queued for or being processed by the worker
+     */
+    public int getPendingFrames() {
+        return pendingFrames;
+    }
+
+    public int getMaxPendingFrames() {
+        return maxPendingFrames;
+    }
+
+    public long getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    /**
+     * @return how many times reading of the mirroring socket was paused because the queue was full
+     */
+    public long getReadPauses() {
+        return readPauses;
+    }
+
+    public VideoWorkerStats getStats() {
+        return new VideoWorkerStats(pendingFrames, maxPendingFrames, queuedFrames, readPauses);
+    }
+}
@@ -1,16 +1,19 @@
 package com.github.serezhka.airplay.server.internal.packet;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
 
-public class VideoPacket {
+public class VideoPacket extends DefaultByteBufHolder {
 
     private final int payloadType;
     private final int payloadSize;
-    private final byte[] payload;
+    private final long ntpTimestamp;
     
-    public VideoPacket(int payloadType, int payloadSize, byte[] payload) {
+    public VideoPacket(int payloadType, int payloadSize, long ntpTimestamp, ByteBuf payload) {
+        super(payload);
         this.payloadType = payloadType;
         this.payloadSize = payloadSize;
-        this.payload = payload;
+        this.ntpTimestamp = ntpTimestamp;
     }
     
     public int getPayloadType() {
@@ -21,7 +24,14 @@ public class VideoPacket {
         return payloadSize;
     }
     
-    public byte[] getPayload() {
-        return payload;
+    /**
+     * @return sender time of the frame, NTP 32.32 fixed point counting seconds since 1970
+     */
+    public long getNtpTimestamp() {
+        return ntpTimestamp;
+    }
+    
+    public ByteBuf getPayload() {
+        return content();
     }
 }
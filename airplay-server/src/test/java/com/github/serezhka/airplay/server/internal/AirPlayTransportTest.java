@@ -0,0 +1,52 @@
+package com.github.serezhka.airplay.server.internal;
+
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AirPlayTransportTest {
+
+    @Test
+    public void restartsAfterShutdown() throws Exception {
+        AirPlayConfig airPlayConfig = new AirPlayConfig("test", 1920, 1080, 30);
+        AirPlayTransport transport = new AirPlayTransport(airPlayConfig);
+        ControlServer controlServer = new ControlServer(airPlayConfig, new ControlServerSegmentTest.NoOpConsumer(),
+                transport, ReceiverIdentity.generate());
+        try {
+            for (int run = 0; run < 3; run++) {
+                transport.start();
+                controlServer.start();
+                assertEquals("HTTP/1.1 200 OK", serverInfoStatus(controlServer.getPort()));
+                controlServer.stop();
+                transport.shutdown();
+                assertTrue(transport.getControlGroup().isShuttingDown());
+            }
+        } finally {
+            controlServer.stop();
+            transport.shutdown();
+        }
+    }
+
+    private static String serverInfoStatus(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /server-info HTTP/1.1\r\nContent-Length: 0\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            InputStream in = socket.getInputStream();
+            StringBuilder status = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\r') {
+                status.append((char) c);
+            }
+            return status.toString();
+        }
+    }
+}
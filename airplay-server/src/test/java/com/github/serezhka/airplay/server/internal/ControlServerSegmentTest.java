@@ -0,0 +1,248 @@
+package com.github.serezhka.airplay.server.internal;
+
+import com.dd.plist.BinaryPropertyListWriter;
+import com.dd.plist.NSData;
+import com.dd.plist.NSDictionary;
+import com.github.serezhka.airplay.lib.AudioStreamInfo;
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.lib.VideoStreamInfo;
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.AirPlayConsumer;
+import com.github.serezhka.airplay.server.SegmentCacheStats;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays the HLS segments of a sender's media playlist through the control server, with a local HTTP server standing
+ * in for the segment host
+ */
+public class ControlServerSegmentTest {
+
+    private static final int SEGMENT_SIZE = 100_000;
+    private static final String SESSION_ID = "S1";
+
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+
+    private HttpServer upstream;
+    private AirPlayTransport transport;
+    private ControlServer controlServer;
+
+    @Before
+    public void setUp() throws Exception {
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstream.createContext("/seg", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("fail")) {
+                exchange.sendResponseHeaders(500, -1);
+            } else {
+                upstreamRequests.incrementAndGet();
+                byte[] segment = segment(path);
+                exchange.sendResponseHeaders(200, segment.length);
+                exchange.getResponseBody().write(segment);
+            }
+            exchange.close();
+        });
+        upstream.start();
+
+        AirPlayConfig airPlayConfig = new AirPlayConfig("test", 1920, 1080, 30);
+        airPlayConfig.setSegmentCacheMemoryBytes(3 * SEGMENT_SIZE + 10);
+        airPlayConfig.setSegmentCacheDiskBytes(16 * SEGMENT_SIZE);
+        airPlayConfig.setSegmentPrefetchCount(2);
+        transport = new AirPlayTransport(airPlayConfig);
+        controlServer = new ControlServer(airPlayConfig, new NoOpConsumer(), transport, ReceiverIdentity.generate());
+        controlServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        controlServer.stop();
+        transport.shutdown();
+        upstream.stop(0);
+    }
+
+    @Test
+    public void proxiesPlaylistSegments() throws Exception {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:5\n")
+                .append("#YT-EXT-CONDENSED-URL:BASE-URI=\"http://127.0.0.1:").append(upstream.getAddress().getPort())
+                .append("/seg\",PARAMS=\"n\",PREFIX=\"sq/\"\n");
+        for (int i = 0; i < 10; i++) {
+            playlist.append("#EXTINF:5.0,\nsq/").append(i).append('\n');
+        }
+        playlist.append("#EXTINF:5.0,\nsq/fail\n#EXT-X-ENDLIST\n");
+
+        try (Socket reverse = connect(); Socket player = connect(); Socket action = connect()) {
+            send(reverse, "POST /reverse", SESSION_ID,
+                    "X-Apple-Purpose: event\r\nUpgrade: PTTH/1.0\r\nConnection: Upgrade\r\n", null);
+            assertTrue(read(reverse).status.contains("101"));
+
+            // the player asks for the playlist, the receiver asks the sender for it over the reverse connection
+            send(player, "GET /playlist/x/mediadata.m3u8?session=" + SESSION_ID, null, "", null);
+            Thread.sleep(100);
+            NSDictionary params = new NSDictionary();
+            params.put("FCUP_Response_URL", "mlhls://localhost/x/mediadata.m3u8");
+            params.put("FCUP_Response_Data", new NSData(playlist.toString().getBytes(StandardCharsets.UTF_8)));
+            NSDictionary unhandledUrlResponse = new NSDictionary();
+            unhandledUrlResponse.put("type", "unhandledURLResponse");
+            unhandledUrlResponse.put("params", params);
+            send(action, "POST /action", SESSION_ID, "", BinaryPropertyListWriter.writeToArray(unhandledUrlResponse));
+            assertTrue(read(action).status.contains("200"));
+            Response playlistResponse = read(player);
+            assertTrue(playlistResponse.status.contains("200"));
+
+            List<String> segments = new ArrayList<>();
+            for (String line : new String(playlistResponse.body, StandardCharsets.UTF_8).split("\n")) {
+                if (!line.startsWith("#") && !line.isEmpty()) {
+                    segments.add(line);
+                }
+            }
+            assertEquals(11, segments.size());
+
+            // play through, seek back, jump ahead
+            for (int i : new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1, 2, 3, 8, 9, 5}) {
+                Response segment = get(player, segments.get(i));
+                assertTrue(segment.status.contains("200"));
+                assertArrayEquals("segment " + i, segment("/seg/n/" + i), segment.body);
+            }
+            assertTrue(get(player, segments.get(10)).status.contains("502"));
+
+            int sessions = controlServer.getSessionManager().getLiveSessions();
+            assertStatus(player, "/playlist/segment?session=" + SESSION_ID + "&uri="
+                    + URLEncoder.encode("http://example.com/x", "UTF-8"), "404");
+            assertStatus(player, "/playlist/segment?session=nope&uri=x", "404");
+            assertStatus(player, "/playlist/x/mediadata.m3u8?session=nope", "404");
+            assertStatus(player, "/playlist/x/mediadata.m3u8", "404");
+            assertEquals(sessions, controlServer.getSessionManager().getLiveSessions());
+
+            // complete playlists are served without asking the sender again
+            send(player, "GET /playlist/x/mediadata.m3u8?session=" + SESSION_ID, null, "", null);
+            assertArrayEquals(playlistResponse.body, read(player).body);
+        }
+
+        SegmentCacheStats stats = controlServer.getSegmentCacheStats();
+        assertEquals(18, stats.getRequests());
+        assertEquals(1, stats.getFailures());
+        assertTrue(stats.getHitRatio() > 0.5);
+        // spilled to disk instead of being fetched again
+        assertEquals(10, upstreamRequests.get());
+        assertTrue(stats.getEvictions() > 0);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", controlServer.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static Response get(Socket socket, String localUri) throws IOException {
+        URI uri = URI.create(localUri);
+        send(socket, "GET " + uri.getRawPath() + "?" + uri.getRawQuery(), null, "", null);
+        return read(socket);
+    }
+
+    private static void assertStatus(Socket socket, String path, String status) throws IOException {
+        send(socket, "GET " + path, null, "", null);
+        String actual = read(socket).status;
+        assertTrue(path + " " + actual, actual.contains(status));
+    }
+
+    private static void send(Socket socket, String requestLine, String sessionId, String headers, byte[] body)
+            throws IOException {
+        String head = requestLine + " HTTP/1.1\r\n"
+                + (sessionId != null ? "X-Apple-Session-ID: " + sessionId + "\r\n" : "") + headers
+                + "Content-Length: " + (body == null ? 0 : body.length) + "\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static Response read(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int state = 0;
+        while (state < 4) {
+            int c = in.read();
+            if (c < 0) {
+                throw new IOException("Connection closed");
+            }
+            head.write(c);
+            boolean cr = c == '\r' && (state == 0 || state == 2);
+            boolean lf = c == '\n' && (state == 1 || state == 3);
+            state = cr || lf ? state + 1 : 0;
+        }
+        String[] lines = new String(head.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+        int contentLength = 0;
+        for (String line : lines) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        Response response = new Response();
+        response.status = lines[0];
+        response.body = new byte[contentLength];
+        new DataInputStream(in).readFully(response.body);
+        return response;
+    }
+
+    private static byte[] segment(String path) {
+        byte[] segment = new byte[SEGMENT_SIZE];
+        new Random(Arrays.hashCode(path.getBytes(StandardCharsets.UTF_8))).nextBytes(segment);
+        return segment;
+    }
+
+    private static final class Response {
+        String status;
+        byte[] body;
+    }
+
+    public static final class NoOpConsumer implements AirPlayConsumer {
+
+        @Override
+        public void onVideoFormat(VideoStreamInfo videoStreamInfo) {
+        }
+
+        @Override
+        public void onVideo(byte[] video) {
+        }
+
+        @Override
+        public void onVideoSrcDisconnect() {
+        }
+
+        @Override
+        public void onAudioFormat(AudioStreamInfo audioStreamInfo) {
+        }
+
+        @Override
+        public void onAudio(byte[] audio) {
+        }
+
+        @Override
+        public void onAudioSrcDisconnect() {
+        }
+    }
+}
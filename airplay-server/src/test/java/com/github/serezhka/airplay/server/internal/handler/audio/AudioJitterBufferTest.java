@@ -0,0 +1,133 @@
+package com.github.serezhka.airplay.server.internal.handler.audio;
+
+import com.github.serezhka.airplay.server.internal.packet.AudioPacket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AudioJitterBufferTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SAMPLES_PER_FRAME = 352;
+    private static final long PACKET_NANOS = TimeUnit.SECONDS.toNanos(SAMPLES_PER_FRAME) / SAMPLE_RATE;
+    private static final long LATER = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<int[]> missing = new ArrayList<>();
+    private final AudioJitterBuffer buffer = new AudioJitterBuffer(SAMPLE_RATE, SAMPLES_PER_FRAME,
+            (firstSeqNum, count) -> missing.add(new int[]{firstSeqNum, count}));
+
+    private static AudioPacket packet(int seqNum, long timestamp) {
+        return AudioPacket.builder()
+                .sequenceNumber(seqNum)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static AudioPacket packet(int seqNum) {
+        return packet(seqNum, (seqNum & 0xFFFFL) * SAMPLES_PER_FRAME);
+    }
+
+    private List<Integer> drain(long nowNanos) {
+        List<Integer> released = new ArrayList<>();
+        AudioPacket packet;
+        while ((packet = buffer.poll(nowNanos)) != null) {
+            released.add(packet.getSequenceNumber());
+        }
+        return released;
+    }
+
+    @Test
+    public void releasesInOrderAcrossSequenceWrap() {
+        buffer.put(packet(65534, 0), 0);
+        buffer.put(packet(0, 2 * SAMPLES_PER_FRAME), 2 * PACKET_NANOS);
+        buffer.put(packet(65535, SAMPLES_PER_FRAME), 2 * PACKET_NANOS);
+        buffer.put(packet(1, 3 * SAMPLES_PER_FRAME), 3 * PACKET_NANOS);
+
+        assertEquals(Arrays.asList(65534, 65535, 0, 1), drain(LATER));
+        assertEquals(1, missing.size()); // 65535 came after 0, reported once when the gap was noticed
+        assertEquals(65535, missing.get(0)[0]);
+        assertEquals(1, missing.get(0)[1]);
+        assertEquals(0, buffer.getLostPackets());
+        assertEquals(0, buffer.getResyncs());
+        assertEquals(4, buffer.getReleasedPackets());
+    }
+
+    @Test
+    public void reportsAndSkipsMissingPacketAfterLossTimeout() {
+        buffer.put(packet(10), 0);
+        buffer.put(packet(12), 2 * PACKET_NANOS);
+
+        assertEquals(1, missing.size());
+        assertEquals(11, missing.get(0)[0]);
+        assertEquals(1, missing.get(0)[1]);
+
+        assertEquals(10, buffer.poll(LATER).getSequenceNumber());
+        assertNull(buffer.poll(LATER)); // gap noticed
+        assertNull(buffer.poll(LATER + AudioJitterBuffer.LOSS_TIMEOUT_NANOS - 1));
+        assertEquals(12, buffer.poll(LATER + AudioJitterBuffer.LOSS_TIMEOUT_NANOS).getSequenceNumber());
+        assertEquals(1, buffer.getLostPackets());
+        assertEquals(1, missing.size());
+    }
+
+    @Test
+    public void resyncsOnForwardJump() {
+        buffer.put(packet(100), 0);
+        buffer.put(packet(101), PACKET_NANOS);
+        buffer.put(packet(100 + AudioJitterBuffer.CAPACITY), 2 * PACKET_NANOS);
+
+        assertEquals(1, buffer.getResyncs());
+        assertEquals(0, missing.size());
+        assertEquals(Arrays.asList(100 + AudioJitterBuffer.CAPACITY), drain(LATER));
+    }
+
+    @Test
+    public void resyncsOnBackwardJump() {
+        buffer.put(packet(5000), 0);
+        buffer.put(packet(5000 - AudioJitterBuffer.CAPACITY), PACKET_NANOS);
+
+        assertEquals(1, buffer.getResyncs());
+        assertEquals(0, buffer.getLatePackets());
+        assertEquals(Arrays.asList(5000 - AudioJitterBuffer.CAPACITY), drain(LATER));
+
+        buffer.put(packet(5000 - AudioJitterBuffer.CAPACITY - 1), LATER);
+        assertEquals(1, buffer.getLatePackets()); // a small step back is still late, not a resync
+        assertEquals(1, buffer.getResyncs());
+    }
+
+    @Test
+    public void resyncRestartsJitterEstimate() {
+        buffer.put(packet(100, 0), 0);
+        buffer.put(packet(101, SAMPLES_PER_FRAME), PACKET_NANOS);
+
+        // new stream with unrelated timestamps, then packets at their nominal pace
+        long base = 0x80000000L;
+        long arrival = 5 * PACKET_NANOS;
+        buffer.put(packet(30000, base), arrival);
+        for (int i = 1; i <= 4; i++) {
+            buffer.put(packet(30000 + i, base + (long) i * SAMPLES_PER_FRAME), arrival + i * PACKET_NANOS);
+        }
+
+        assertEquals(1, buffer.getResyncs());
+        assertEquals(AudioJitterBuffer.MIN_DEPTH, buffer.getTargetDepth());
+    }
+
+    @Test
+    public void resetStartsSequenceAgain() {
+        buffer.put(packet(10), 0);
+        buffer.put(packet(11), PACKET_NANOS);
+        buffer.reset();
+
+        assertEquals(0, buffer.getDepth());
+        buffer.put(packet(300), 2 * PACKET_NANOS);
+        assertEquals(Arrays.asList(300), drain(LATER));
+        assertEquals(0, buffer.getResyncs());
+        assertEquals(0, missing.size());
+        assertEquals(1, buffer.getStats().getReleasedPackets());
+    }
+}
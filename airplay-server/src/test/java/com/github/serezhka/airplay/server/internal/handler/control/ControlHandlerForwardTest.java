@@ -0,0 +1,128 @@
+package com.github.serezhka.airplay.server.internal.handler.control;
+
+import com.github.serezhka.airplay.lib.ReceiverIdentity;
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.ControlStats;
+import com.github.serezhka.airplay.server.internal.AirPlayTransport;
+import com.github.serezhka.airplay.server.internal.ControlServerSegmentTest;
+import com.github.serezhka.airplay.server.internal.handler.session.Session;
+import com.github.serezhka.airplay.server.internal.handler.session.SessionManager;
+import com.github.serezhka.airplay.server.internal.handler.util.PropertyListCache;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.Consumer;
+
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ControlHandlerForwardTest {
+
+    private static final String SESSION_ID = "F3C2A1B0-0000-4000-8000-000000000001";
+    private static final String PLAYLIST_ROUTE = "HTTP/1.1 GET /playlist/*";
+    private static final String REMOTE_URI = "mlhls://localhost/master.m3u8";
+
+    private final AirPlayConfig airPlayConfig = new AirPlayConfig("test", 1920, 1080, 30);
+    private final ControlRoutes routes = ControlHandler.createRoutes();
+    private AirPlayTransport transport;
+    private Session session;
+    private EmbeddedChannel eventChannel;
+    private EmbeddedChannel playerChannel;
+
+    @Before
+    public void setUp() {
+        airPlayConfig.setPlaylistRequestTimeoutMillis(50);
+        transport = new AirPlayTransport(airPlayConfig);
+        ControlServerSegmentTest.NoOpConsumer consumer = new ControlServerSegmentTest.NoOpConsumer();
+        SessionManager sessionManager = new SessionManager(transport, consumer, ReceiverIdentity.generate(), 0);
+        session = sessionManager.getSession(SESSION_ID);
+        eventChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        session.getReverseContexts().put("event", eventChannel.pipeline().firstContext());
+        playerChannel = new EmbeddedChannel(new ControlHandler(airPlayConfig, consumer, sessionManager, routes,
+                new PropertyListCache(airPlayConfig), null));
+    }
+
+    @After
+    public void tearDown() {
+        playerChannel.finishAndReleaseAll();
+        eventChannel.finishAndReleaseAll();
+        transport.shutdown();
+    }
+
+    private static FullHttpRequest get(String uri) {
+        return new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private void requestPlaylist() {
+        playerChannel.writeInbound(get("/playlist/master.m3u8?session=" + SESSION_ID));
+        assertNull(playerChannel.readOutbound()); // waits for the sender
+        FullHttpRequest event = eventChannel.readOutbound();
+        assertNotNull(event);
+        event.release();
+    }
+
+    private ControlStats.RouteStats playlistStats() {
+        return routes.getStats().getRoute(PLAYLIST_ROUTE);
+    }
+
+    @Test
+    public void answersUnknownRequestWith404() {
+        playerChannel.writeInbound(get("/nothing-here"));
+
+        FullHttpResponse response = playerChannel.readOutbound();
+        assertEquals(HttpResponseStatus.NOT_FOUND, response.status());
+        assertEquals(1, routes.getStats().getUnknownRequests());
+        response.release();
+    }
+
+    @Test
+    public void staysPendingUntilForwardedResponseIsWritten() {
+        requestPlaylist();
+        assertEquals(0, playlistStats().getLatency().getCount());
+
+        Consumer<FullHttpResponse> responder = session.getPlaylistRequests().remove(REMOTE_URI);
+        responder.accept(new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(new byte[]{'#'})));
+        playerChannel.runPendingTasks();
+
+        FullHttpResponse response = playerChannel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, response.status());
+        assertEquals(1, playlistStats().getLatency().getCount());
+        response.release();
+
+        playerChannel.runScheduledPendingTasks(); // answered already, no 504 later
+        assertNull(playerChannel.readOutbound());
+        assertEquals(0, playlistStats().getTimeouts());
+    }
+
+    @Test
+    public void answers504WhenNothingIsForwardedInTime() throws InterruptedException {
+        requestPlaylist();
+
+        Thread.sleep(100);
+        playerChannel.runScheduledPendingTasks();
+
+        FullHttpResponse response = playerChannel.readOutbound();
+        assertEquals(HttpResponseStatus.GATEWAY_TIMEOUT, response.status());
+        assertEquals(1, playlistStats().getTimeouts());
+        assertEquals(1, playlistStats().getLatency().getCount());
+        response.release();
+
+        // the sender's late answer is dropped
+        session.getPlaylistRequests().remove(REMOTE_URI).accept(new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.OK));
+        playerChannel.runPendingTasks();
+        assertNull(playerChannel.readOutbound());
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.serezhka.airplay.server.internal.handler.control;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.rtsp.RtspMethods;
+import org.junit.Test;
+
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.ANY_PATH;
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.Reply.FORWARDED;
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.Reply.LATER;
+import static com.github.serezhka.airplay.server.internal.handler.control.ControlRoutes.Reply.NOW;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static io.netty.handler.codec.rtsp.RtspVersions.RTSP_1_0;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ControlRoutesTest {
+
+    private static final ControlRoutes.RouteHandler NO_OP = (handler, ctx, request) -> {
+    };
+
+    private final ControlRoutes routes = new ControlRoutes()
+            .add(RTSP_1_0, HttpMethod.POST, "/pair-verify", NOW, NO_OP)
+            .add(RTSP_1_0, RtspMethods.SETUP, ANY_PATH, LATER, NO_OP)
+            .add(RTSP_1_0, HttpMethod.GET, "/info", NOW, NO_OP)
+            .add(RTSP_1_0, HttpMethod.GET, ANY_PATH, NOW, NO_OP)
+            .add(HTTP_1_1, HttpMethod.GET, "/playlist/segment", LATER, NO_OP)
+            .add(HTTP_1_1, HttpMethod.GET, "/playlist/*", FORWARDED, NO_OP);
+
+    private String resolve(HttpVersion protocol, HttpMethod method, String uri) {
+        FullHttpRequest request = new DefaultFullHttpRequest(protocol, method, uri);
+        ControlRoutes.Route route = routes.resolve(request);
+        return route != null ? route.name : null;
+    }
+
+    @Test
+    public void resolvesExactPath() {
+        assertEquals("RTSP/1.0 POST /pair-verify", resolve(RTSP_1_0, HttpMethod.POST, "/pair-verify"));
+        assertEquals("HTTP/1.1 GET /playlist/segment",
+                resolve(HTTP_1_1, HttpMethod.GET, "/playlist/segment?session=1&uri=http%3A%2F%2Fcdn%2Fs.ts"));
+    }
+
+    @Test
+    public void resolvesPrefix() {
+        assertEquals("HTTP/1.1 GET /playlist/*", resolve(HTTP_1_1, HttpMethod.GET, "/playlist/master.m3u8?session=1"));
+        assertEquals("HTTP/1.1 GET /playlist/*", resolve(HTTP_1_1, HttpMethod.GET, "/playlist/itag/1/mediadata.m3u8"));
+        assertEquals("HTTP/1.1 GET /playlist/*", resolve(HTTP_1_1, HttpMethod.GET, "/playlist"));
+        assertNull(resolve(HTTP_1_1, HttpMethod.GET, "/playlists/master.m3u8"));
+    }
+
+    @Test
+    public void fallsBackToAnyPath() {
+        assertEquals("RTSP/1.0 SETUP *", resolve(RTSP_1_0, RtspMethods.SETUP, "rtsp://192.168.1.2/1234567890"));
+        assertEquals("RTSP/1.0 GET /info", resolve(RTSP_1_0, HttpMethod.GET, "/info"));
+        assertEquals("RTSP/1.0 GET *", resolve(RTSP_1_0, HttpMethod.GET, "/other"));
+    }
+
+    @Test
+    public void unknownRequestHasNoRoute() {
+        assertNull(resolve(RTSP_1_0, HttpMethod.POST, "/pair-setup"));
+        assertNull(resolve(HTTP_1_1, HttpMethod.POST, "/pair-verify"));
+        assertNull(resolve(HTTP_1_1, HttpMethod.PUT, "/playlist/master.m3u8"));
+    }
+
+    @Test
+    public void rejectsDuplicateRoute() {
+        try {
+            routes.add(RTSP_1_0, HttpMethod.POST, "/pair-verify", NOW, NO_OP);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlaylistRewriterTest {
+
+    private static final String SEGMENT_BASE = "https://rr1---sn-jvnhvux-n3be.googlevideo.com/videoplayback/id/298267cfd04dda89/itag/270/";
+    private static final String SEGMENT_BASE_END = "/playlist/index.m3u8";
+
+    /**
+     * Master playlist as posted by the YouTube app for {@code mlhls://localhost/master.m3u8}
+     */
+    private static final String MASTER = "#EXTM3U\n" +
+            "#EXT-X-INDEPENDENT-SEGMENTS\n" +
+            "#EXT-X-MEDIA:URI=\"mlhls://localhost/itag/234/mediadata.m3u8\",TYPE=AUDIO,GROUP-ID=\"234\",NAME=\"Default\",DEFAULT=YES,AUTOSELECT=YES\n" +
+            "#EXT-X-MEDIA:URI=\"mlhls://localhost/itag/233/mediadata.m3u8\",TYPE=AUDIO,GROUP-ID=\"233\",NAME=\"Default\",DEFAULT=YES,AUTOSELECT=YES\n" +
+            "#EXT-X-MEDIA:TYPE=CLOSED-CAPTIONS,GROUP-ID=\"cc\",NAME=\"English\",INSTREAM-ID=\"CC1\"\n" +
+            "#EXT-X-STREAM-INF:BANDWIDTH=1327460,CODECS=\"avc1.4d401f,mp4a.40.2\",RESOLUTION=1280x720,FRAME-RATE=30,AUDIO=\"234\",CLOSED-CAPTIONS=\"cc\"\n" +
+            "mlhls://localhost/itag/136/mediadata.m3u8\n" +
+            "#EXT-X-STREAM-INF:BANDWIDTH=4465216,CODECS=\"avc1.640028,mp4a.40.2\",RESOLUTION=1920x1080,FRAME-RATE=30,AUDIO=\"234\",CLOSED-CAPTIONS=\"cc\"\n" +
+            "mlhls://localhost/itag/270/mediadata.m3u8\n";
+
+    private static String local(String uri) {
+        return uri.replace("mlhls://localhost", "http://localhost:7000/playlist") + "?session=1";
+    }
+
+    /**
+     * Media playlist of the captured YouTube session, app/src/main/assets/reverse_engineering/mediainfo.m3u8:
+     * 219 segments condensed with {@code PARAMS="govp,gosq"} and {@code PREFIX="s/"}
+     */
+    private static String capturedMedia() throws IOException {
+        try (InputStream in = PlaylistRewriterTest.class.getResourceAsStream("mediainfo.m3u8")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String[] lines(String playlist) {
+        return playlist.split("\r?\n");
+    }
+
+    @Test
+    public void rewritesMasterUris() {
+        String rewritten = PlaylistRewriter.rewriteMaster(MASTER, PlaylistRewriterTest::local);
+
+        assertEquals(MASTER
+                .replace("mlhls://localhost/itag/234/mediadata.m3u8", "http://localhost:7000/playlist/itag/234/mediadata.m3u8?session=1")
+                .replace("mlhls://localhost/itag/233/mediadata.m3u8", "http://localhost:7000/playlist/itag/233/mediadata.m3u8?session=1")
+                .replace("mlhls://localhost/itag/136/mediadata.m3u8", "http://localhost:7000/playlist/itag/136/mediadata.m3u8?session=1")
+                .replace("mlhls://localhost/itag/270/mediadata.m3u8", "http://localhost:7000/playlist/itag/270/mediadata.m3u8?session=1"),
+                rewritten);
+    }
+
+    @Test
+    public void rewritesCrlfMasterLikeLf() {
+        String crlf = MASTER.replace("\n", "\r\n");
+
+        assertEquals(PlaylistRewriter.rewriteMaster(MASTER, PlaylistRewriterTest::local),
+                PlaylistRewriter.rewriteMaster(crlf, PlaylistRewriterTest::local));
+    }
+
+    @Test
+    public void expandsCapturedCondensedMedia() throws IOException {
+        String media = capturedMedia();
+        List<String> segments = new ArrayList<>();
+        String rewritten = PlaylistRewriter.rewriteMedia(media, uri -> {
+            segments.add(uri);
+            return uri;
+        });
+
+        String[] in = lines(media);
+        String[] out = lines(rewritten);
+        assertEquals(in.length, out.length);
+        for (int i = 0; i < in.length; i++) {
+            if (in[i].startsWith("#")) {
+                assertEquals(in[i], out[i]); // tags are copied as is
+            }
+        }
+        assertEquals(219, segments.size());
+        assertTrue(segments.get(0).startsWith(SEGMENT_BASE));
+        assertTrue(segments.get(0).endsWith(SEGMENT_BASE_END + "/govp/slices%3D0-1146185/gosq/0"));
+        assertTrue(segments.get(218).endsWith(SEGMENT_BASE_END + "/govp/slices%3D0-740,145587098-146182135/gosq/218"));
+        assertTrue(PlaylistRewriter.isComplete(media));
+        assertEquals(PlaylistRewriter.rewriteMedia(media), rewritten);
+    }
+
+    @Test
+    public void expandsCrlfMediaLikeLf() throws IOException {
+        String media = capturedMedia();
+        String crlf = media.replace("\n", "\r\n");
+
+        assertEquals(PlaylistRewriter.rewriteMedia(media), PlaylistRewriter.rewriteMedia(crlf));
+    }
+
+    @Test
+    public void dropsOnlyLeadingPrefix() {
+        String media = "#EXTM3U\n" +
+                "#YT-EXT-CONDENSED-URL:BASE-URI=\"https://host/videoplayback/id/1\",PARAMS=\"govp,gosq\",PREFIX=\"s/\"\n" +
+                "#EXTINF:5.0,\n" +
+                "s/slices%3D0-740,5-9s/1\n" +
+                "#EXTINF:5.0,\n" +
+                "abs/2\n" +
+                "#EXT-X-ENDLIST\n";
+
+        String[] out = lines(PlaylistRewriter.rewriteMedia(media));
+        assertEquals("https://host/videoplayback/id/1/govp/slices%3D0-740,5-9s/gosq/1", out[3]);
+        assertEquals("https://host/videoplayback/id/1/govp/abs/gosq/2", out[5]);
+    }
+
+    @Test
+    public void keepsPlainMediaPlaylist() {
+        String media = "#EXTM3U\n#EXT-X-TARGETDURATION:6\n#EXTINF:6.0,\nhttps://cdn/seg0.ts\n";
+
+        assertSame(media, PlaylistRewriter.rewriteMedia(media));
+        assertFalse(PlaylistRewriter.isComplete(media));
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.serezhka.airplay.server.internal.handler.playlist;
+
+import com.github.serezhka.airplay.server.SegmentCacheStats;
+import com.github.serezhka.airplay.server.SegmentUpstream;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentCacheTest {
+
+    private static final int SEGMENT_SIZE = 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final SegmentCacheStats stats = new SegmentCacheStats();
+    private final List<SegmentCache> caches = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        caches.forEach(SegmentCache::close);
+    }
+
+    @Test
+    public void servesMemoryHits() throws Exception {
+        SegmentCache cache = cache(this::segment, 10 * SEGMENT_SIZE, 0, null);
+        assertArrayEquals(segment("a"), cache.get("a").get(5, TimeUnit.SECONDS));
+        CompletableFuture<byte[]> hit = cache.get("a");
+        assertTrue(hit.isDone());
+        assertArrayEquals(segment("a"), hit.get());
+
+        assertEquals(1, fetches("a"));
+        assertEquals(2, stats.getRequests());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getMemoryHits());
+        assertEquals(0.5, stats.getHitRatio(), 0);
+        assertEquals(SEGMENT_SIZE, stats.getBytesSaved());
+        assertEquals(SEGMENT_SIZE, stats.getBytesFetched());
+        assertEquals(SEGMENT_SIZE, stats.getMemoryBytes());
+    }
+
+    @Test
+    public void spillsLeastRecentlyUsedToDisk() throws Exception {
+        File directory = folder.newFolder();
+        SegmentCache cache = cache(this::segment, 2 * SEGMENT_SIZE, 10 * SEGMENT_SIZE, directory);
+        for (String uri : new String[]{"s0", "s1", "s2", "s3"}) {
+            cache.get(uri).get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, stats.getEvictions());
+        assertEquals(2 * SEGMENT_SIZE, stats.getMemoryBytes());
+        assertEquals(2 * SEGMENT_SIZE, stats.getDiskBytes());
+        assertEquals(2, files(directory).length);
+
+        assertArrayEquals(segment("s0"), cache.get("s0").get(5, TimeUnit.SECONDS));
+        assertEquals(1, fetches("s0"));
+        assertEquals(1, stats.getDiskHits());
+        assertEquals(4, stats.getMisses());
+        assertEquals(0.2, stats.getHitRatio(), 1e-9);
+        // read back into memory, which spilled s2, s0 stays on disk as well
+        assertEquals(3, files(directory).length);
+
+        cache.close();
+        assertEquals(0, files(directory).length);
+        assertEquals(0, stats.getMemoryBytes());
+        assertEquals(0, stats.getDiskBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFromDisk() throws Exception {
+        File directory = folder.newFolder();
+        SegmentCache cache = cache(this::segment, SEGMENT_SIZE, 2 * SEGMENT_SIZE, directory);
+        for (String uri : new String[]{"s0", "s1", "s2", "s3"}) {
+            cache.get(uri).get(5, TimeUnit.SECONDS);
+        }
+        // s3 in memory, s1 and s2 on disk, s0 dropped
+        assertEquals(2, files(directory).length);
+        assertEquals(2 * SEGMENT_SIZE, stats.getDiskBytes());
+        cache.get("s2").get(5, TimeUnit.SECONDS);
+        assertEquals(1, fetches("s2"));
+        cache.get("s0").get(5, TimeUnit.SECONDS);
+        assertEquals(2, fetches("s0"));
+        assertTrue(stats.getDiskBytes() <= 2 * SEGMENT_SIZE);
+        assertEquals(stats.getDiskBytes() / SEGMENT_SIZE, files(directory).length);
+    }
+
+    @Test
+    public void joinsFetchInProgress() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SegmentCache cache = cache(uri -> {
+            await(release);
+            return segment(uri);
+        }, 10 * SEGMENT_SIZE, 0, null);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(cache.get("a"));
+        }
+        release.countDown();
+        for (CompletableFuture<byte[]> request : requests) {
+            assertArrayEquals(segment("a"), request.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, fetches("a"));
+        assertEquals(1, stats.getMisses());
+        assertEquals(7, stats.getPrefetchHits());
+        assertEquals(7.0 / 8, stats.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void prefetchesAhead() throws Exception {
+        SegmentCache cache = cache(this::segment, 10 * SEGMENT_SIZE, 0, null);
+        cache.prefetch(Arrays.asList("s1", "s2"));
+        cache.prefetch(Arrays.asList("s1", "s2"));
+        assertArrayEquals(segment("s1"), cache.get("s1").get(5, TimeUnit.SECONDS));
+        assertArrayEquals(segment("s2"), cache.get("s2").get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, fetches("s1"));
+        assertEquals(1, fetches("s2"));
+        assertEquals(2, stats.getPrefetches());
+        assertEquals(0, stats.getMisses());
+        assertEquals(1, stats.getHitRatio(), 0);
+    }
+
+    @Test
+    public void failsWithoutCachingFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        SegmentCache cache = cache(uri -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("unavailable");
+            }
+            return segment(uri);
+        }, 10 * SEGMENT_SIZE, 0, null);
+        try {
+            cache.get("a").join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+        assertEquals(1, stats.getFailures());
+        assertArrayEquals(segment("a"), cache.get("a").get(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void fetchesOverHttp() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith("/missing")) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                byte[] segment = segment(path);
+                exchange.sendResponseHeaders(200, segment.length);
+                exchange.getResponseBody().write(segment);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            SegmentCache cache = cache(new HttpSegmentUpstream(), 10 * SEGMENT_SIZE, 0, null);
+            assertArrayEquals(segment("/seg/1"), cache.get(base + "/seg/1").get(5, TimeUnit.SECONDS));
+            try {
+                cache.get(base + "/missing").join();
+                fail();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause().getCause().getMessage().contains("404"));
+            }
+            assertEquals(1, stats.getFailures());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void failsAfterClose() {
+        SegmentCache cache = cache(this::segment, 10 * SEGMENT_SIZE, 0, null);
+        cache.close();
+        assertTrue(cache.get("a").isCompletedExceptionally());
+        assertEquals(0, fetches("a"));
+    }
+
+    private SegmentCache cache(SegmentUpstream upstream, long maxMemoryBytes, long maxDiskBytes, File directory) {
+        try {
+            SegmentCache cache = new SegmentCache(uri -> {
+                fetches.computeIfAbsent(uri, key -> new AtomicInteger()).incrementAndGet();
+                return upstream.fetch(uri);
+            }, maxMemoryBytes, maxDiskBytes, directory, stats);
+            caches.add(cache);
+            return cache;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private int fetches(String uri) {
+        AtomicInteger count = fetches.get(uri);
+        return count != null ? count.get() : 0;
+    }
+
+    private byte[] segment(String uri) {
+        byte[] segment = new byte[SEGMENT_SIZE];
+        new Random(Arrays.hashCode(uri.getBytes(StandardCharsets.UTF_8))).nextBytes(segment);
+        return segment;
+    }
+
+    private static File[] files(File directory) {
+        File[] files = directory.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.serezhka.airplay.server.internal.handler.timing;
+
+import com.github.serezhka.airplay.server.SenderClockStats;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SenderClockTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long OFFSET = 3 * SECOND + 250 * MILLI;
+
+    private final SenderClock clock = new SenderClock();
+
+    /**
+     * Local nanoseconds since the NTP epoch
+     */
+    private long localNtpNanos(long localNanos) {
+        return SenderClock.ntpToNanos(clock.localNtpTime(localNanos));
+    }
+
+    /**
+     * Runs a timing exchange sent at {@code localNanos} against a sender {@code senderOffset} ahead of the local clock
+     */
+    private long exchange(long localNanos, long senderOffset, long upNanos, long downNanos) {
+        long originNtp = clock.localNtpTime(localNanos);
+        long senderReceive = localNtpNanos(localNanos) + upNanos + senderOffset;
+        long senderTransmit = senderReceive + 100_000;
+        long replyLocal = localNanos + upNanos + 100_000 + downNanos;
+        clock.onTimingReply(originNtp, SenderClock.nanosToNtp(senderReceive), SenderClock.nanosToNtp(senderTransmit),
+                replyLocal);
+        return replyLocal;
+    }
+
+    @Test
+    public void convertsNtpFixedPoint() {
+        assertEquals(SECOND + SECOND / 2, SenderClock.ntpToNanos((1L << 32) | 0x80000000L));
+        assertEquals((5L << 32) | 0x40000000L, SenderClock.nanosToNtp(5 * SECOND + SECOND / 4));
+
+        long nanos = 3_912_345_678_123_456_789L;
+        assertEquals(nanos, SenderClock.ntpToNanos(SenderClock.nanosToNtp(nanos)), 1);
+    }
+
+    @Test
+    public void mapsUnixNtpTimestampsLikeNtpEpochOnes() {
+        exchange(SECOND, OFFSET, MILLI, MILLI);
+
+        long senderNtp = SenderClock.nanosToNtp(localNtpNanos(2 * SECOND) + OFFSET);
+        long epochOffset = 2_208_988_800L << 32;
+        assertEquals(clock.senderToLocalNanos(senderNtp), clock.senderUnixNtpToLocalNanos(senderNtp - epochOffset));
+    }
+
+    @Test
+    public void unsyncedUntilFirstReply() {
+        assertFalse(clock.isSynced());
+        assertEquals(Long.MIN_VALUE, clock.senderToLocalNanos(1L << 32));
+        assertEquals(0, clock.localToSenderNtp(SECOND));
+        assertEquals(Long.MAX_VALUE, clock.getStats().getAccuracyNanos());
+    }
+
+    @Test
+    public void takesOffsetOfMinimumDelaySample() {
+        long local = SECOND;
+        local = exchange(local, OFFSET, MILLI, MILLI);
+        for (int i = 0; i < SenderClock.FILTER_SIZE - 1; i++) {
+            // queued on the way there, offset estimate is off by half the asymmetry
+            local = exchange(local + 10 * MILLI, OFFSET, 20 * MILLI, MILLI);
+        }
+
+        assertTrue(clock.isSynced());
+        assertEquals(OFFSET, clock.getOffsetNanos(), 2);
+        assertEquals(2 * MILLI, clock.getRoundTripNanos(), 2);
+        assertTrue(clock.getDispersionNanos() > 8 * MILLI);
+
+        long senderNtp = SenderClock.nanosToNtp(localNtpNanos(local) + OFFSET);
+        assertEquals(local, clock.senderToLocalNanos(senderNtp), 2);
+
+        // the good sample ages out of the filter
+        local = exchange(local + 10 * MILLI, OFFSET, 20 * MILLI, MILLI);
+        assertEquals(OFFSET + (19 * MILLI) / 2, clock.getOffsetNanos(), 2);
+    }
+
+    @Test
+    public void rejectsNegativeRoundTrip() {
+        long originNtp = clock.localNtpTime(SECOND);
+        long senderReceive = localNtpNanos(SECOND) + OFFSET;
+        clock.onTimingReply(originNtp, SenderClock.nanosToNtp(senderReceive),
+                SenderClock.nanosToNtp(senderReceive + 10 * MILLI), SECOND + MILLI);
+
+        assertFalse(clock.isSynced());
+        assertEquals(1, clock.getTotalSamples());
+        assertEquals(1, clock.getRejectedSamples());
+    }
+
+    @Test
+    public void estimatesDriftByRegression() {
+        double drift = 40e-6;
+        long start = SECOND;
+        long local = start;
+        for (int i = 0; i < SenderClock.DRIFT_WINDOW; i++) {
+            local = start + i * SECOND;
+            exchange(local, OFFSET + (long) (drift * (local - start)), MILLI, MILLI);
+        }
+
+        SenderClockStats stats = clock.getStats();
+        assertTrue(stats.isSynced());
+        assertEquals(40, stats.getDriftPpm(), 0.5);
+        assertEquals(2 * MILLI, stats.getRoundTripNanos(), 2);
+
+        // extrapolated a few seconds past the last exchange
+        long later = local + 5 * SECOND;
+        long senderNtp = SenderClock.nanosToNtp(localNtpNanos(later) + OFFSET + (long) (drift * (later - start)));
+        assertEquals(later, clock.senderToLocalNanos(senderNtp), 5_000);
+    }
+
+    @Test
+    public void clampsImplausibleDrift() {
+        long start = SECOND;
+        for (int i = 0; i < SenderClock.DRIFT_WINDOW; i++) {
+            long local = start + i * SECOND;
+            exchange(local, OFFSET + i * 10 * MILLI, MILLI, MILLI);
+        }
+
+        assertEquals(SenderClock.MAX_DRIFT * 1_000_000, clock.getDriftPpm(), 1e-9);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.AirPlayConsumer;
+
+/**
+ * Times the {@link PropertyListCache} responses against serializing them with {@link PropertyListUtil} per request.
+ * <p>
+ * Run the main method with the test runtime class path, the optional argument is the number of calls per
+ * measurement.
+ */
+public class PropertyListCacheBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        AirPlayConfig airPlayConfig = new AirPlayConfig("test", 1920, 1080, 30);
+        PropertyListCache cache = new PropertyListCache(airPlayConfig);
+        AirPlayConsumer.PlaybackInfo playbackInfo = new AirPlayConsumer.PlaybackInfo(634.5, 12.345);
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += PropertyListUtil.prepareInfoResponse(airPlayConfig).length;
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += cache.getInfoResponse().length;
+            }
+            long t2 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += PropertyListUtil.prepareSetupVideoResponse(40_000 + (i & 1023), 7000, 7001).length;
+            }
+            long t3 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += cache.getSetupVideoResponse(40_000 + (i & 1023), 7000, 7001).length;
+            }
+            long t4 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += PropertyListUtil.prepareServerInfoResponse().length;
+            }
+            long t5 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += cache.getServerInfoResponse().length;
+            }
+            long t6 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += PropertyListUtil.preparePlaybackInfoResponse(playbackInfo).length;
+            }
+            long t7 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += cache.getPlaybackInfoResponse(playbackInfo).length;
+            }
+            long t8 = System.nanoTime();
+            System.out.printf("info %.2f -> %.3f us, setup video %.2f -> %.3f us, server-info %.2f -> %.3f us, "
+                            + "playback-info %.2f -> %.3f us%n",
+                    micros(t0, t1, iterations), micros(t1, t2, iterations), micros(t2, t3, iterations),
+                    micros(t3, t4, iterations), micros(t4, t5, iterations), micros(t5, t6, iterations),
+                    micros(t6, t7, iterations), micros(t7, t8, iterations));
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    private static double micros(long start, long end, int iterations) {
+        return (end - start) / 1e3 / iterations;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import com.github.serezhka.airplay.server.AirPlayConfig;
+import com.github.serezhka.airplay.server.AirPlayConsumer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link PropertyListCache} responses must be byte for byte the ones {@link PropertyListUtil} serializes
+ */
+public class PropertyListCacheTest {
+
+    private final Random random = new Random(1);
+
+    private AirPlayConfig airPlayConfig;
+    private PropertyListCache cache;
+
+    @Before
+    public void setUp() {
+        airPlayConfig = new AirPlayConfig("test", 1920, 1080, 30);
+        cache = new PropertyListCache(airPlayConfig);
+    }
+
+    @Test
+    public void setupResponses() throws Exception {
+        for (int i = 0; i < 5_000; i++) {
+            int dataPort = random.nextInt(70_000);
+            int eventPort = random.nextInt(70_000);
+            int timingPort = i % 7 == 0 ? dataPort : random.nextInt(70_000);
+            String ports = dataPort + " " + eventPort + " " + timingPort;
+            assertArrayEquals(ports, PropertyListUtil.prepareSetupAudioResponse(dataPort, eventPort),
+                    cache.getSetupAudioResponse(dataPort, eventPort));
+            assertArrayEquals(ports, PropertyListUtil.prepareSetupVideoResponse(dataPort, eventPort, timingPort),
+                    cache.getSetupVideoResponse(dataPort, eventPort, timingPort));
+        }
+        for (int port : new int[]{0, 1, 255, 256, 65_535, 65_536, Integer.MAX_VALUE}) {
+            assertArrayEquals(PropertyListUtil.prepareSetupVideoResponse(port, port, port),
+                    cache.getSetupVideoResponse(port, port, port));
+        }
+    }
+
+    @Test
+    public void playbackInfoResponses() {
+        for (int i = 0; i < 5_000; i++) {
+            double duration = random.nextInt(4) == 0
+                    ? random.nextInt(1000)
+                    : random.nextDouble() * Math.pow(10, random.nextInt(30) - 10);
+            assertPlaybackInfo(duration, random.nextDouble() * duration);
+        }
+        for (double value : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0, -0.0, -1,
+                Double.MIN_VALUE, Double.MAX_VALUE}) {
+            assertPlaybackInfo(value, 0);
+            assertPlaybackInfo(634.5, value);
+        }
+    }
+
+    @Test
+    public void infoResponses() throws Exception {
+        assertArrayEquals(PropertyListUtil.prepareServerInfoResponse(), cache.getServerInfoResponse());
+        byte[] info = cache.getInfoResponse();
+        assertArrayEquals(PropertyListUtil.prepareInfoResponse(airPlayConfig), info);
+        assertSame(info, cache.getInfoResponse());
+
+        airPlayConfig.setWidth(1280);
+        assertArrayEquals(PropertyListUtil.prepareInfoResponse(airPlayConfig), cache.getInfoResponse());
+        assertFalse(info == cache.getInfoResponse());
+    }
+
+    private void assertPlaybackInfo(double duration, double position) {
+        AirPlayConsumer.PlaybackInfo playbackInfo = new AirPlayConsumer.PlaybackInfo(duration, position);
+        assertArrayEquals(duration + " " + position, PropertyListUtil.preparePlaybackInfoResponse(playbackInfo),
+                cache.getPlaybackInfoResponse(playbackInfo));
+    }
+}
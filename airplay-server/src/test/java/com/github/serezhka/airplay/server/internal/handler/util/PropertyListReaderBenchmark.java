@@ -0,0 +1,60 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import com.dd.plist.BinaryPropertyListParser;
+import com.dd.plist.BinaryPropertyListWriter;
+import com.dd.plist.NSArray;
+import com.dd.plist.NSData;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSNumber;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Times reading the values of the SETUP requests used by the control handler, parsed by dd-plist as before and read
+ * in place by {@link PropertyListReader}.
+ * <p>
+ * Run the main method with the test runtime class path, the optional argument is the number of request pairs per
+ * round.
+ */
+public class PropertyListReaderBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        ByteBuf setupKeys = Unpooled.directBuffer()
+                .writeBytes(BinaryPropertyListWriter.writeToArray(PropertyListReaderTest.setupKeysRequest()));
+        ByteBuf setupAudio = Unpooled.directBuffer()
+                .writeBytes(BinaryPropertyListWriter.writeToArray(PropertyListReaderTest.setupAudioRequest()));
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NSDictionary keys = (NSDictionary) BinaryPropertyListParser.parse(new ByteBufInputStream(setupKeys.duplicate()));
+                sink += ((NSData) keys.get("ekey")).bytes().length + ((NSData) keys.get("eiv")).bytes().length;
+                NSDictionary audio = (NSDictionary) BinaryPropertyListParser.parse(new ByteBufInputStream(setupAudio.duplicate()));
+                NSDictionary stream = (NSDictionary) ((NSArray) audio.get("streams")).objectAtIndex(0);
+                sink += ((NSNumber) stream.get("ct")).longValue() + ((NSNumber) stream.get("audioFormat")).longValue()
+                        + ((NSNumber) stream.get("spf")).longValue();
+            }
+            long parsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                PropertyListReader keys = new PropertyListReader(setupKeys);
+                sink += keys.getBytes(keys.find(keys.getRoot(), "ekey")).length
+                        + keys.getBytes(keys.find(keys.getRoot(), "eiv")).length;
+                PropertyListReader audio = new PropertyListReader(setupAudio);
+                int stream = audio.get(audio.find(audio.getRoot(), "streams"), 0);
+                sink += audio.getLong(audio.find(stream, "ct")) + audio.getLong(audio.find(stream, "audioFormat"))
+                        + audio.getLong(audio.find(stream, "spf"));
+            }
+            long read = System.nanoTime() - start;
+
+            System.out.printf("SETUP keys + audio: dd-plist %.2f us, reader %.3f us%n",
+                    parsed / 1e3 / iterations, read / 1e3 / iterations);
+        }
+        System.out.println("(" + sink + ")");
+    }
+}
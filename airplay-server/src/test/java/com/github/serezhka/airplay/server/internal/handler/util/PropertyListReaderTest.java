@@ -0,0 +1,244 @@
+package com.github.serezhka.airplay.server.internal.handler.util;
+
+import com.dd.plist.BinaryPropertyListParser;
+import com.dd.plist.BinaryPropertyListWriter;
+import com.dd.plist.NSArray;
+import com.dd.plist.NSData;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSNumber;
+import com.dd.plist.NSObject;
+import com.dd.plist.NSString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link PropertyListReader} with the property lists dd-plist parses
+ */
+public class PropertyListReaderTest {
+
+    private final Random random = new Random(3);
+
+    @Test
+    public void readsSetupRequests() throws Exception {
+        byte[] setupKeys = BinaryPropertyListWriter.writeToArray(setupKeysRequest());
+        byte[] setupAudio = BinaryPropertyListWriter.writeToArray(setupAudioRequest());
+        assertSame(Unpooled.wrappedBuffer(setupKeys), setupKeys);
+        assertSame(Unpooled.directBuffer().writeBytes(setupKeys), setupKeys);
+        assertSame(Unpooled.wrappedBuffer(setupAudio), setupAudio);
+
+        PropertyListReader reader = new PropertyListReader(Unpooled.wrappedBuffer(setupAudio));
+        int stream = reader.get(reader.find(reader.getRoot(), "streams"), 0);
+        assertEquals(96, reader.getLong(reader.find(stream, "type")));
+        assertEquals(0x40000, reader.getLong(reader.find(stream, "audioFormat")));
+        assertEquals(PropertyListReader.NONE, reader.find(stream, "missing"));
+    }
+
+    @Test
+    public void readsRandomPropertyLists() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            NSDictionary dictionary = new NSDictionary();
+            for (int j = 0; j < 8; j++) {
+                dictionary.put("k" + j, randomObject(0));
+            }
+            byte[] bytes = BinaryPropertyListWriter.writeToArray(dictionary);
+            ByteBuf buf = Unpooled.buffer();
+            buf.writeZero(5);
+            buf.readerIndex(5);
+            buf.writeBytes(bytes);
+            assertSame(buf, bytes);
+            assertEquals(5, buf.readerIndex());
+        }
+    }
+
+    @Test
+    public void rejectsCorruptedPropertyLists() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            NSDictionary dictionary = new NSDictionary();
+            for (int j = 0; j < 6; j++) {
+                dictionary.put("k" + j, randomObject(0));
+            }
+            byte[] bytes = BinaryPropertyListWriter.writeToArray(dictionary);
+            bytes[8 + random.nextInt(bytes.length - 8)] ^= (byte) (1 << random.nextInt(8));
+            try {
+                PropertyListReader reader = new PropertyListReader(Unpooled.wrappedBuffer(bytes));
+                walk(reader, reader.getRoot(), 0);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // expected for most corruptions, nothing else may be thrown
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherContent() {
+        new PropertyListReader(Unpooled.wrappedBuffer(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><plist version=\"1.0\"><dict/></plist>"
+                        .getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * SETUP with the stream keys, as sent before mirroring starts
+     */
+    static NSDictionary setupKeysRequest() {
+        Random random = new Random(1);
+        byte[] ekey = new byte[72];
+        byte[] eiv = new byte[16];
+        random.nextBytes(ekey);
+        random.nextBytes(eiv);
+        NSDictionary request = new NSDictionary();
+        request.put("deviceID", "AA:BB:CC:DD:EE:FF");
+        request.put("ekey", new NSData(ekey));
+        request.put("eiv", new NSData(eiv));
+        request.put("et", 32);
+        request.put("isScreenMirroringSession", true);
+        request.put("model", "iPhone14,2");
+        request.put("name", "iPhone");
+        request.put("osName", "iPhone OS");
+        request.put("osVersion", "16.0");
+        request.put("sessionUUID", "6A3D1B7F-24C1-4E58-9E0A-2D4F1C3B5A67");
+        request.put("timingPort", 55_112);
+        request.put("timingProtocol", "NTP");
+        return request;
+    }
+
+    /**
+     * SETUP of the audio stream
+     */
+    static NSDictionary setupAudioRequest() {
+        NSDictionary stream = new NSDictionary();
+        stream.put("audioFormat", 0x40000);
+        stream.put("audioMode", "default");
+        stream.put("controlPort", 55_113);
+        stream.put("ct", 2);
+        stream.put("isMedia", true);
+        stream.put("latencyMax", 88_200);
+        stream.put("latencyMin", 11_025);
+        stream.put("shk", new NSData(new byte[32]));
+        stream.put("shiv", new NSData(new byte[16]));
+        stream.put("spf", 352);
+        stream.put("sr", 44_100);
+        stream.put("type", 96);
+        stream.put("usingScreen", true);
+        NSDictionary request = new NSDictionary();
+        request.put("streams", new NSArray(stream));
+        return request;
+    }
+
+    private static void assertSame(ByteBuf buf, byte[] bytes) throws Exception {
+        PropertyListReader reader = new PropertyListReader(buf);
+        assertSame(reader, reader.getRoot(), BinaryPropertyListParser.parse(bytes));
+    }
+
+    private static void assertSame(PropertyListReader reader, int ref, NSObject expected) {
+        if (expected instanceof NSDictionary) {
+            NSDictionary dictionary = (NSDictionary) expected;
+            assertTrue(reader.isDictionary(ref));
+            assertEquals(dictionary.count(), reader.size(ref));
+            for (String key : dictionary.allKeys()) {
+                int value = reader.find(ref, key);
+                assertTrue(key, value != PropertyListReader.NONE);
+                assertSame(reader, value, dictionary.get(key));
+            }
+            assertEquals(PropertyListReader.NONE, reader.find(ref, "missing"));
+        } else if (expected instanceof NSArray) {
+            NSArray array = (NSArray) expected;
+            assertEquals(array.count(), reader.size(ref));
+            for (int i = 0; i < array.count(); i++) {
+                assertSame(reader, reader.get(ref, i), array.objectAtIndex(i));
+            }
+        } else if (expected instanceof NSNumber) {
+            NSNumber number = (NSNumber) expected;
+            if (number.isBoolean()) {
+                assertEquals(number.boolValue(), reader.getBoolean(ref));
+            } else if (number.isInteger()) {
+                assertEquals(number.longValue(), reader.getLong(ref));
+            } else {
+                assertEquals(number.doubleValue(), reader.getDouble(ref), 0);
+            }
+        } else if (expected instanceof NSString) {
+            assertEquals(((NSString) expected).getContent(), reader.getString(ref));
+        } else if (expected instanceof NSData) {
+            assertArrayEquals(((NSData) expected).bytes(), reader.getBytes(ref));
+        }
+    }
+
+    private NSObject randomObject(int depth) {
+        switch (random.nextInt(depth > 2 ? 6 : 8)) {
+            case 0:
+                long[] values = {0, 1, 255, 256, 65_535, 65_536, 0xffffffffL, 0x100000000L, -1, Long.MIN_VALUE,
+                        Long.MAX_VALUE, random.nextLong(), random.nextInt(1000)};
+                return new NSNumber(values[random.nextInt(values.length)]);
+            case 1:
+                return new NSNumber(random.nextDouble() * 1e6 - 5e5);
+            case 2:
+                return new NSNumber(random.nextBoolean());
+            case 3:
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(40);
+                for (int i = 0; i < length; i++) {
+                    sb.append(random.nextInt(5) == 0 ? (char) (0x400 + random.nextInt(200)) : (char) ('a' + random.nextInt(26)));
+                }
+                return new NSString(sb.toString());
+            case 4:
+                byte[] bytes = new byte[random.nextInt(50)];
+                random.nextBytes(bytes);
+                return new NSData(bytes);
+            case 5:
+                return new NSString("k" + random.nextInt(10));
+            case 6:
+                NSArray array = new NSArray(random.nextInt(20));
+                for (int i = 0; i < array.count(); i++) {
+                    array.setValue(i, randomObject(depth + 1));
+                }
+                return array;
+            default:
+                NSDictionary dictionary = new NSDictionary();
+                int count = random.nextInt(20);
+                for (int i = 0; i < count; i++) {
+                    dictionary.put((random.nextInt(4) == 0 ? "ключ" : "key") + i, randomObject(depth + 1));
+                }
+                return dictionary;
+        }
+    }
+
+    private static void walk(PropertyListReader reader, int ref, int depth) {
+        if (depth > 20) {
+            return;
+        }
+        if (reader.isDictionary(ref)) {
+            for (int j = 0; j < 6; j++) {
+                int value = reader.find(ref, "k" + j);
+                if (value != PropertyListReader.NONE) {
+                    walk(reader, value, depth + 1);
+                }
+            }
+            return;
+        }
+        try {
+            reader.getString(ref);
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            reader.getLong(ref);
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            reader.getData(ref);
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            int size = reader.size(ref);
+            for (int i = 0; i < Math.min(size, 50); i++) {
+                walk(reader, reader.get(ref, i), depth + 1);
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
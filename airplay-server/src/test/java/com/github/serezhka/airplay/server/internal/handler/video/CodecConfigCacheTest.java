@@ -0,0 +1,61 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import com.github.serezhka.airplay.lib.VideoStreamInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CodecConfigCacheTest {
+
+    private static final byte[] CAPTURED_PPS = {0x28, (byte) 0xee, 0x3c, (byte) 0xb0};
+
+    private final CodecConfigCache cache = new CodecConfigCache();
+
+    private static ByteBuf config(byte[] pps) {
+        return Unpooled.buffer()
+                .writeBytes(SequenceParameterSetTest.CAPTURED_SPS)
+                .writeBytes(pps);
+    }
+
+    private int update(ByteBuf config) {
+        int spsLength = SequenceParameterSetTest.CAPTURED_SPS.length;
+        return cache.update(config, 0, spsLength, spsLength, config.readableBytes() - spsLength);
+    }
+
+    @Test
+    public void reportsFormatOnceAndRepeatsAsUnchanged() {
+        cache.reset(new VideoStreamInfo("42"));
+
+        assertEquals(CodecConfigCache.CONFIG_CHANGED | CodecConfigCache.FORMAT_CHANGED, update(config(CAPTURED_PPS)));
+        VideoStreamInfo info = cache.getVideoStreamInfo();
+        assertEquals("42", info.getStreamConnectionId());
+        assertEquals(334, info.getWidth());
+        assertEquals(720, info.getHeight());
+
+        assertEquals(CodecConfigCache.UNCHANGED, update(config(CAPTURED_PPS)));
+        assertEquals(1, cache.getUpdates());
+        assertEquals(1, cache.getDuplicates());
+    }
+
+    @Test
+    public void changedPpsKeepsFormat() {
+        cache.reset(new VideoStreamInfo("42"));
+        update(config(CAPTURED_PPS));
+
+        byte[] pps = CAPTURED_PPS.clone();
+        pps[3] = (byte) 0xb8;
+        assertEquals(CodecConfigCache.CONFIG_CHANGED, update(config(pps)));
+    }
+
+    @Test
+    public void clearedConfigIsDeliveredAgainWithoutFormatChange() {
+        cache.reset(new VideoStreamInfo("42"));
+        update(config(CAPTURED_PPS));
+
+        cache.clearConfig();
+        assertEquals(CodecConfigCache.CONFIG_CHANGED, update(config(CAPTURED_PPS)));
+        assertEquals(334, cache.getVideoStreamInfo().getWidth());
+    }
+}
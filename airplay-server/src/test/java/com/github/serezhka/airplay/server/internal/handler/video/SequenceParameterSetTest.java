@@ -0,0 +1,110 @@
+package com.github.serezhka.airplay.server.internal.handler.video;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SequenceParameterSetTest {
+
+    /**
+     * SPS of the captured mirroring stream, app/src/main/assets/video_packet_type_1: High@3.1, 336x720 coded,
+     * cropped by 2 pixels on the right, no VUI timing
+     */
+    static final byte[] CAPTURED_SPS = bytes(
+            0x27, 0x64, 0x00, 0x1f, 0xac, 0x13, 0x14, 0x50, 0x54, 0x16, 0xfa, 0xe6, 0xe0, 0x20, 0x20, 0x20, 0x40);
+
+    /**
+     * x264 1080p: High@4.0, 1920x1088 coded, cropped by 8 lines at the bottom, 30 fps VUI timing,
+     * contains emulation prevention bytes
+     */
+    private static final byte[] X264_1080P_SPS = bytes(
+            0x67, 0x64, 0x00, 0x28, 0xac, 0xd9, 0x40, 0x78, 0x02, 0x27, 0xe5, 0xc0, 0x44, 0x00, 0x00, 0x03, 0x00,
+            0x04, 0x00, 0x00, 0x03, 0x00, 0xf0, 0x3c, 0x60, 0xc6, 0x58);
+
+    /**
+     * High@3.1 1280x720 with a scaling matrix (explicit 4x4 intra Y list, default 4x4 intra Cb, flat 8x8 intra Y)
+     * and 1001/60000 VUI timing
+     */
+    private static final byte[] SCALING_MATRIX_SPS = bytes(
+            0x67, 0x64, 0x00, 0x1f, 0xad, 0x94, 0x74, 0x76, 0x10, 0xe2, 0x31, 0x51, 0x50, 0x88, 0x42, 0x1f, 0xff,
+            0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xd9, 0x4a, 0x02, 0x80, 0x2d, 0xd0, 0x80, 0x00, 0x01, 0xf4, 0x80,
+            0x00, 0x75, 0x30, 0x42);
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static SequenceParameterSet parse(byte[] sps) {
+        return SequenceParameterSet.parse(Unpooled.wrappedBuffer(sps), 0, sps.length);
+    }
+
+    @Test
+    public void parsesCapturedSps() {
+        SequenceParameterSet sps = parse(CAPTURED_SPS);
+
+        assertEquals(100, sps.getProfileIdc());
+        assertEquals(0, sps.getConstraintFlags());
+        assertEquals(31, sps.getLevelIdc());
+        assertEquals(334, sps.getWidth());
+        assertEquals(720, sps.getHeight());
+        assertEquals(0, sps.getFrameRate(), 0);
+    }
+
+    @Test
+    public void appliesCroppingAndSkipsEmulationPrevention() {
+        SequenceParameterSet sps = parse(X264_1080P_SPS);
+
+        assertEquals(100, sps.getProfileIdc());
+        assertEquals(40, sps.getLevelIdc());
+        assertEquals(1920, sps.getWidth());
+        assertEquals(1080, sps.getHeight());
+        assertEquals(30, sps.getFrameRate(), 1e-9);
+    }
+
+    @Test
+    public void skipsScalingMatrix() {
+        SequenceParameterSet sps = parse(SCALING_MATRIX_SPS);
+
+        assertEquals(1280, sps.getWidth());
+        assertEquals(720, sps.getHeight());
+        assertEquals(60000 / 2002.0, sps.getFrameRate(), 1e-9);
+    }
+
+    @Test
+    public void parsesAtIndex() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(1);
+        buf.writeBytes(X264_1080P_SPS);
+        buf.writeInt(1);
+
+        SequenceParameterSet sps = SequenceParameterSet.parse(buf, 4, X264_1080P_SPS.length);
+        assertEquals(1920, sps.getWidth());
+        assertEquals(1080, sps.getHeight());
+    }
+
+    @Test
+    public void rejectsTruncatedSps() {
+        try {
+            SequenceParameterSet.parse(Unpooled.wrappedBuffer(X264_1080P_SPS), 0, 6);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsOtherNalUnits() {
+        byte[] pps = bytes(0x28, 0xee, 0x3c, 0xb0);
+        try {
+            parse(pps);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
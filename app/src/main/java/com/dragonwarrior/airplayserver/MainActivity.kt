@@ -15,19 +15,17 @@ import com.dragonwarrior.airplayserver.model.NALPacket
 import com.dragonwarrior.airplayserver.model.PCMPacket
 import com.dragonwarrior.airplayserver.player.AacAudioPlayer
 import com.dragonwarrior.airplayserver.player.VideoPlayer
-import com.dragonwarrior.airplayserver.player.SharedVideoDataManager
 import com.ffalcon.mercury.android.sdk.ui.activity.BaseMirrorActivity
 import com.github.serezhka.airplay.lib.AudioStreamInfo
 import com.github.serezhka.airplay.lib.VideoStreamInfo
 import com.github.serezhka.airplay.server.AirPlayServer
 import com.github.serezhka.airplay.server.AirPlayConsumer
 import com.github.serezhka.airplay.server.AirPlayConfig
-import com.github.serezhka.airplay.lib.internal.OmgHaxConst
-import java.io.BufferedReader
+import com.github.serezhka.airplay.server.VideoFrame
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
-import java.io.InputStreamReader
-import java.util.LinkedList
+import java.util.ArrayDeque
 import java.nio.ByteBuffer
 
 class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
@@ -37,9 +35,13 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
     private var mVideoPlayerL: VideoPlayer? = null
     private var mVideoPlayerR: VideoPlayer? = null
     private var mAacAudioPlayer: AacAudioPlayer? = null
-    private val mVideoCacheListL = LinkedList<NALPacket>()
-    private val mVideoCacheListR = LinkedList<NALPacket>()
-    private val sharedVideoDataManager = SharedVideoDataManager.getInstance()
+    // 播放器创建前收到的帧，只在视频回调线程访问
+    private val mVideoCacheListL = ArrayDeque<NALPacket>()
+    private val mVideoCacheListR = ArrayDeque<NALPacket>()
+    @Volatile
+    private var mVideoWidth = 0
+    @Volatile
+    private var mVideoHeight = 0
     
 
 
@@ -47,9 +49,6 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
         super.onCreate(savedInstanceState)
 //        setContentView(R.layout.activity_main)
         
-        // 初始化OmgHaxConst表格数据
-        initializeOmgHaxConst()
-        
         mSurfaceViewL = mBindingPair.left.surfaceView
         mSurfaceViewL!!.holder!!.addCallback(SurfaceHolder(mSurfaceViewL!!, this, true))
         mSurfaceViewR = mBindingPair.right.surfaceView
@@ -65,28 +64,13 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
 
         airplayDataConsumer = object : AirPlayConsumer {
             override fun onVideo(video: ByteArray) {
-//            Logger.i(TAG, "rev video length :%d", video.length);
-                // 使用共享视频数据管理器避免重复拷贝
-                val sharedData = sharedVideoDataManager.createSharedData(video)
-                val nalPacketL = sharedData.createNALPacket()
-                val nalPacketR = sharedData.createNALPacket()
-                
-                if (mVideoPlayerL != null) {
-                    while (!mVideoCacheListL.isEmpty()) {
-                        mVideoPlayerL!!.addPacker(mVideoCacheListL.removeFirst())
-                    }
-                    mVideoPlayerL!!.addPacker(nalPacketL)
-                } else {
-                    mVideoCacheListL.add(nalPacketL)
-                }
-                if (mVideoPlayerR != null) {
-                    while (!mVideoCacheListR.isEmpty()) {
-                        mVideoPlayerR!!.addPacker(mVideoCacheListR.removeFirst())
-                    }
-                    mVideoPlayerR!!.addPacker(nalPacketR)
-                } else {
-                    mVideoCacheListR.add(nalPacketR)
-                }
+                // 帧通过 onVideoFrame 接收，不走拷贝
+            }
+
+            override fun onVideoFrame(videoFrame: VideoFrame) {
+                // 每个播放器各持有一个引用，解码器取走或丢弃后释放，服务端据此做背压
+                queueFrame(mVideoPlayerL, mVideoCacheListL, videoFrame)
+                queueFrame(mVideoPlayerR, mVideoCacheListR, videoFrame)
 
                 mSurfaceViewL?.post {
                     (mSurfaceViewL?.parent as ViewGroup).findViewById<View>(R.id.tv_connecting).visibility =
@@ -99,11 +83,15 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
             }
 
             override fun onVideoFormat(videoStreamInfo: VideoStreamInfo) {
-                Log.d(TAG, "onVideoFormat: ${videoStreamInfo.streamConnectionId}")
-                
-                // 视频格式变化时，记录信息
-                // VideoStreamInfo只包含streamConnectionId，没有分辨率信息
-                // 分辨率变化会通过MediaCodec的onOutputFormatChanged回调处理
+                Log.d(TAG, "onVideoFormat: $videoStreamInfo")
+
+                // SETUP 时还没有分辨率，收到 SPS 后会带着宽高再回调一次
+                if (videoStreamInfo.width > 0 && videoStreamInfo.height > 0) {
+                    mVideoWidth = videoStreamInfo.width
+                    mVideoHeight = videoStreamInfo.height
+                    mVideoPlayerL?.updateVideoFormat(mVideoWidth, mVideoHeight)
+                    mVideoPlayerR?.updateVideoFormat(mVideoWidth, mVideoHeight)
+                }
             }
             override fun onAudio(audio: ByteArray) {
                 Log.d(TAG, "onAudio called with ${audio.size} bytes")
@@ -230,6 +218,7 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
             }
         }
         val config = AirPlayConfig(SERVER_NAME, 1920, 1080, 30)
+        config.identityFile = File(filesDir, "airplay_identity")
         airPlayServer = AirPlayServer(config, airplayDataConsumer)
 
         Thread(object : Runnable {
@@ -252,10 +241,34 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
         mVideoPlayerR = null
         airplayDataConsumer = null
         airPlayServer?.stop()
+        releaseCache(mVideoCacheListL)
+        releaseCache(mVideoCacheListR)
     }
 
     private var airplayDataConsumer: AirPlayConsumer? = null
 
+    private fun queueFrame(videoPlayer: VideoPlayer?, cache: ArrayDeque<NALPacket>, videoFrame: VideoFrame) {
+        val nalPacket = NALPacket()
+        nalPacket.frame = videoFrame.retain()
+        if (videoPlayer != null) {
+            while (!cache.isEmpty()) {
+                videoPlayer.addPacker(cache.removeFirst())
+            }
+            videoPlayer.addPacker(nalPacket)
+        } else {
+            if (cache.size >= MAX_CACHED_FRAMES) {
+                VideoPlayer.release(cache.removeFirst())
+            }
+            cache.addLast(nalPacket)
+        }
+    }
+
+    private fun releaseCache(cache: ArrayDeque<NALPacket>) {
+        while (!cache.isEmpty()) {
+            VideoPlayer.release(cache.removeFirst())
+        }
+    }
+
     /**
      * 解析AudioFormat枚举，提取采样率和声道数
      */
@@ -296,49 +309,6 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
         }
     }
 
-    private fun initializeOmgHaxConst() {
-        try {
-            Log.d(TAG, "Initializing OmgHaxConst from Android assets")
-            
-            val assetLoader = object : OmgHaxConst.AssetLoader {
-                override fun readBytes(fileName: String): ByteArray {
-                    return assets.open(fileName).use { inputStream ->
-                        val buffer = ByteArray(8192)
-                        val output = java.io.ByteArrayOutputStream()
-                        var bytesRead: Int
-                        while (inputStream.read(buffer).also { bytesRead = it } != -1) {
-                            output.write(buffer, 0, bytesRead)
-                        }
-                        output.toByteArray()
-                    }
-                }
-                
-                override fun readInts(fileName: String): IntArray {
-                    return assets.open(fileName).use { inputStream ->
-                        val reader = BufferedReader(InputStreamReader(inputStream))
-                        val lines = mutableListOf<String>()
-                        var line: String?
-                        while (reader.readLine().also { line = it } != null) {
-                            lines.add(line!!)
-                        }
-                        
-                        val result = IntArray(lines.size)
-                        for (i in lines.indices) {
-                            result[i] = java.lang.Long.decode(lines[i]).toInt()
-                        }
-                        result
-                    }
-                }
-            }
-            
-            OmgHaxConst.initializeFromAssets(assetLoader)
-            Log.d(TAG, "OmgHaxConst initialization completed successfully")
-        } catch (e: Exception) {
-            Log.e(TAG, "Failed to initialize OmgHaxConst", e)
-            throw RuntimeException("Failed to initialize OmgHaxConst", e)
-        }
-    }
-
 
 
     class SurfaceHolder(
@@ -365,7 +335,8 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
                 else activity.mVideoPlayerR = VideoPlayer(p0.surface, width, height)
 
                 val videoPlayer = if (isLeft) activity.mVideoPlayerL else activity.mVideoPlayerR
-                videoPlayer!!.start()
+                videoPlayer!!.updateVideoFormat(activity.mVideoWidth, activity.mVideoHeight)
+                videoPlayer.start()
                 videoPlayer.setOutputFormatChangedListener(
                     VideoPlayer.OutputFormatChangedListener { width1, height1 ->
                         surfaceView.post {
@@ -417,5 +388,7 @@ class MainActivity : BaseMirrorActivity<ActivityMainBinding>() {
     companion object {
         private const val TAG = "MainActivity"
         const val SERVER_NAME = "VisionPro"
+        // 播放器创建前最多缓存的帧数，缓存的帧也计入服务端的 maxOutstandingVideoFrames
+        private const val MAX_CACHED_FRAMES = 60
     }
 }
\ No newline at end of file
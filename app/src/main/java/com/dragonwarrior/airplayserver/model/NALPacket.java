@@ -1,7 +1,11 @@
 package com.dragonwarrior.airplayserver.model;
 
+import com.github.serezhka.airplay.server.VideoFrame;
+
 public class NALPacket {
     public byte[] nalData = null;
+    // 服务端的帧，持有一个引用，送入解码器或丢弃后由 VideoPlayer 释放
+    public VideoFrame frame = null;
     public int nalType = 0;
     public long pts = 0;
 }
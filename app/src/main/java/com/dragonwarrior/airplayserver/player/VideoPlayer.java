@@ -17,13 +17,15 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class VideoPlayer {
     private static final String TAG = "VideoPlayer";
     private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
-    private final int mVideoWidth = 540;
-    private final int mVideoHeight = 960;
+    // 默认分辨率，收到 SPS 解析出的分辨率后由 updateVideoFormat 更新
+    private volatile int mVideoWidth = 540;
+    private volatile int mVideoHeight = 960;
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
     private MediaCodec mDecoder = null;
     private final Surface mSurface;
-    // 增加队列容量以减少阻塞
-    private BlockingQueue<NALPacket> packets = new LinkedBlockingQueue<>(1000);
+    // 与 AirPlayConfig 默认的 maxOutstandingVideoFrames 一致：队列里的帧未释放，服务端在队列满之前就会暂停读取
+    private static final int MAX_QUEUED_PACKETS = 60;
+    private final BlockingQueue<NALPacket> packets = new LinkedBlockingQueue<>(MAX_QUEUED_PACKETS);
     private final HandlerThread mDecodeThread = new HandlerThread("VideoDecoder");
     private volatile boolean isRunning = false;
 
@@ -42,11 +44,23 @@ public class VideoPlayer {
                 // 使用非阻塞方式获取数据包，避免在回调中阻塞
                 NALPacket packet = packets.poll();
                 if (packet != null) {
-                    ByteBuffer inputBuffer = codec.getInputBuffer(index);
-                    if (inputBuffer != null) {
-                        inputBuffer.clear();
-                        inputBuffer.put(packet.nalData);
-                        codec.queueInputBuffer(index, 0, packet.nalData.length, packet.pts, 0);
+                    try {
+                        ByteBuffer inputBuffer = codec.getInputBuffer(index);
+                        if (inputBuffer != null) {
+                            inputBuffer.clear();
+                            int size;
+                            if (packet.frame != null) {
+                                ByteBuffer data = packet.frame.getData();
+                                size = data.remaining();
+                                inputBuffer.put(data);
+                            } else {
+                                size = packet.nalData.length;
+                                inputBuffer.put(packet.nalData);
+                            }
+                            codec.queueInputBuffer(index, 0, size, packet.pts, 0);
+                        }
+                    } finally {
+                        release(packet);
                     }
                 } else {
                     // 没有数据包时，发送空帧以保持流畅性
@@ -127,8 +141,15 @@ public class VideoPlayer {
         }
     }
 
+    /**
+     * 送入一个数据包，持有的帧引用交给播放器，未入队的包会直接释放
+     */
     public void addPacker(NALPacket nalPacket) {
-        if (!isRunning || nalPacket == null || nalPacket.nalData == null) {
+        if (nalPacket == null) {
+            return;
+        }
+        if (!isRunning || (nalPacket.frame == null && nalPacket.nalData == null)) {
+            release(nalPacket);
             return;
         }
         
@@ -136,15 +157,31 @@ public class VideoPlayer {
             // 使用非阻塞方式添加数据包
             boolean offered = packets.offer(nalPacket);
             if (!offered) {
-                // 队列满了，丢弃最旧的包
-                packets.poll();
-                packets.offer(nalPacket);
+                // 队列满了（消费端的背压没有生效），丢弃最旧的包
+                release(packets.poll());
+                if (!packets.offer(nalPacket)) {
+                    release(nalPacket);
+                }
+            }
+            if (!isRunning) {
+                // 与 stopVideoPlay 并发时不留下未释放的帧
+                clearQueue();
             }
         } catch (Exception e) {
             Log.e(TAG, "Error adding packet", e);
         }
     }
 
+    /**
+     * 释放数据包持有的帧引用，服务端据此统计消费端未处理完的帧
+     */
+    public static void release(NALPacket nalPacket) {
+        if (nalPacket != null && nalPacket.frame != null) {
+            nalPacket.frame.release();
+            nalPacket.frame = null;
+        }
+    }
+
     public void start() {
         initDecoder();
     }
@@ -170,7 +207,7 @@ public class VideoPlayer {
             Log.e(TAG, "Error stopping decode thread", e);
         }
         
-        packets.clear();
+        clearQueue();
     }
     
     /**
@@ -205,13 +242,16 @@ public class VideoPlayer {
     
     /**
      * 更新视频格式（分辨率变化时调用）
+     * 解码器启动前调用则直接按该分辨率配置；运行中只记录新分辨率，由 MediaCodec 根据码流中的 SPS 自适应，
+     * 不重建解码器（重复的 SPS/PPS 仍会送达，restartDecoder 之后由下一个配置帧恢复解码）
      */
     public void updateVideoFormat(int width, int height) {
-        Log.i(TAG, "Video format update requested: " + width + "x" + height);
-        
-        // MediaCodec 通常能自动处理合理的分辨率变化
-        // 如果需要重新创建解码器，可以在这里实现
-        // 但这会导致短暂的视频中断
+        if (width <= 0 || height <= 0 || (width == mVideoWidth && height == mVideoHeight)) {
+            return;
+        }
+        Log.i(TAG, "Video format update: " + width + "x" + height + (isRunning ? " (decoder running)" : ""));
+        mVideoWidth = width;
+        mVideoHeight = height;
     }
 
     /**
@@ -225,7 +265,10 @@ public class VideoPlayer {
      * 清空队列（用于快速恢复）
      */
     public void clearQueue() {
-        packets.clear();
+        NALPacket packet;
+        while ((packet = packets.poll()) != null) {
+            release(packet);
+        }
     }
 
     public interface OutputFormatChangedListener {